@@ -0,0 +1,157 @@
+package com.panxoloto.sharepoint.rest;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+/**
+ * Replay interceptor of {@link StreamRestTemplate} limiting the requests in flight to a limit found by
+ * additive increase, multiplicative decrease (AIMD): the limit grows by one for every limit of healthy
+ * responses, and is cut when the server throttles (429 or 503), a request fails, or the recent latency rises
+ * above {@link #setLatencyTolerance(double) a multiple} of the long term latency. The limit is cut at most
+ * once for every limit of responses, as the requests in flight when the server slowed down all report it.
+ * Requests over the limit wait for a request in flight to end, so the client runs close to the highest rate
+ * the tenant accepts.
+ * <p>
+ * A request is in flight until its response headers are received, the download of the body is not limited.
+ */
+public class AdaptiveConcurrencyLimiter implements ClientHttpRequestInterceptor {
+
+	private static final Logger LOG = LoggerFactory.getLogger(AdaptiveConcurrencyLimiter.class);
+
+	private int minLimit = 1;
+	private int maxLimit = 100;
+	private double backoffRatio = 0.5;
+	private double latencyBackoffRatio = 0.9;
+	private double latencyTolerance = 2.0;
+
+	private double limit = 20;
+	private int inFlight;
+	private int responsesSinceDecrease;
+	private double recentLatency;
+	private double longTermLatency;
+
+	/**
+	 * @param initialLimit requests allowed in flight before any response, 20 by default.
+	 * @param minLimit lowest limit, 1 by default.
+	 * @param maxLimit highest limit, 100 by default.
+	 */
+	public synchronized AdaptiveConcurrencyLimiter setLimits(int initialLimit, int minLimit, int maxLimit) {
+		if (minLimit < 1 || maxLimit < minLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+			throw new IllegalArgumentException("limits must satisfy 1 <= minLimit <= initialLimit <= maxLimit");
+		}
+		this.limit = initialLimit;
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		notifyAll();
+		return this;
+	}
+
+	/**
+	 * @param backoffRatio factor applied to the limit on a throttled or failed request, 0.5 by default.
+	 * @param latencyBackoffRatio factor applied to the limit on a slow response, 0.9 by default.
+	 */
+	public synchronized AdaptiveConcurrencyLimiter setBackoffRatios(double backoffRatio, double latencyBackoffRatio) {
+		if (backoffRatio <= 0 || backoffRatio >= 1 || latencyBackoffRatio <= 0 || latencyBackoffRatio >= 1) {
+			throw new IllegalArgumentException("backoff ratios must be between 0 and 1");
+		}
+		this.backoffRatio = backoffRatio;
+		this.latencyBackoffRatio = latencyBackoffRatio;
+		return this;
+	}
+
+	/**
+	 * @param latencyTolerance a recent latency higher than this multiple of the long term latency reduces the
+	 * limit, 2 by default.
+	 */
+	public synchronized AdaptiveConcurrencyLimiter setLatencyTolerance(double latencyTolerance) {
+		if (latencyTolerance <= 1) {
+			throw new IllegalArgumentException("latencyTolerance must be greater than 1");
+		}
+		this.latencyTolerance = latencyTolerance;
+		return this;
+	}
+
+	/**
+	 * @return current number of requests allowed in flight.
+	 */
+	public synchronized int getLimit() {
+		return (int) limit;
+	}
+
+	/**
+	 * @return requests in flight.
+	 */
+	public synchronized int getInFlight() {
+		return inFlight;
+	}
+
+	@Override
+	public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution) throws IOException {
+		int concurrency = acquire();
+		long start = System.nanoTime();
+		int status = 0;
+		try {
+			ClientHttpResponse response = execution.execute(request, body);
+			status = response.getStatusCode().value();
+			return response;
+		} finally {
+			release(concurrency, System.nanoTime() - start, status);
+		}
+	}
+
+	private synchronized int acquire() throws InterruptedIOException {
+		while (inFlight >= (int) limit) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("interrupted while waiting for a request slot");
+			}
+		}
+		return ++inFlight;
+	}
+
+	/**
+	 * @param concurrency requests in flight when the request was sent.
+	 * @param latencyNanos time until the response headers.
+	 * @param status status of the response, 0 when the request failed.
+	 */
+	synchronized void release(int concurrency, long latencyNanos, int status) {
+		inFlight--;
+		responsesSinceDecrease++;
+		if (status != 0) {
+			updateLatency(latencyNanos);
+		}
+		boolean throttled = status == 0 || status == 429 || status == 503;
+		boolean slow = recentLatency > longTermLatency * latencyTolerance;
+		if ((throttled || slow) && responsesSinceDecrease >= (int) limit) {
+			limit = Math.max(minLimit, limit * (throttled ? backoffRatio : latencyBackoffRatio));
+			responsesSinceDecrease = 0;
+			LOG.debug("Request {}, limit reduced to {}", throttled ? "throttled or failed" : "latency rising", (int) limit);
+		} else if (!throttled && !slow && concurrency * 2 >= limit) {
+			// only a limit actually used is raised
+			limit = Math.min(maxLimit, limit + 1 / limit);
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Moving averages of the latency, over about the last 5 responses and the last 100.
+	 */
+	private void updateLatency(long latencyNanos) {
+		if (longTermLatency == 0) {
+			recentLatency = latencyNanos;
+			longTermLatency = latencyNanos;
+		} else {
+			recentLatency += (latencyNanos - recentLatency) * 0.2;
+			longTermLatency += (latencyNanos - longTermLatency) * 0.01;
+		}
+	}
+}
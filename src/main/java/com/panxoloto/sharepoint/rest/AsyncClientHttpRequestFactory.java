@@ -0,0 +1,422 @@
+package com.panxoloto.sharepoint.rest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.apache.hc.client5.http.config.TlsConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.EntityDetails;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpResponse;
+import org.apache.hc.core5.http.nio.AsyncRequestProducer;
+import org.apache.hc.core5.http.nio.AsyncResponseConsumer;
+import org.apache.hc.core5.http.nio.CapacityChannel;
+import org.apache.hc.core5.http.nio.entity.AsyncEntityProducers;
+import org.apache.hc.core5.http.nio.support.AsyncRequestBuilder;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.http2.config.H2Config;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.reactor.IOReactorStatus;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.AbstractClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+
+/**
+ * {@link ClientHttpRequestFactory} over the non blocking httpclient5 client. Its connections are driven by a
+ * few I/O reactor threads instead of a thread per request, and with HTTP/2 many concurrent requests to the
+ * same host are multiplexed on a single TLS connection.
+ * <p>
+ * Response bodies are streamed: the response is returned as soon as its headers arrive and the server is
+ * only allowed to send {@value #WINDOW_SIZE} bytes ahead of the reader, so large downloads are not buffered
+ * in memory. Closing a response whose body hasn't been fully read aborts the exchange.
+ */
+public class AsyncClientHttpRequestFactory implements ClientHttpRequestFactory, AutoCloseable {
+
+	static final int WINDOW_SIZE = 64 * 1024;
+
+	private static final int DEFAULT_MAX_CONNECTIONS = 20;
+
+	private final CloseableHttpAsyncClient httpClient;
+
+	/**
+	 * @param httpClient client performing the requests, started by this factory when needed.
+	 */
+	public AsyncClientHttpRequestFactory(CloseableHttpAsyncClient httpClient) {
+		this.httpClient = httpClient;
+		if (httpClient.getStatus() == IOReactorStatus.INACTIVE) {
+			httpClient.start();
+		}
+	}
+
+	/**
+	 * @return a factory using HTTP/2 with the servers that support it (negotiated with ALPN) and HTTP/1.1
+	 * with the rest.
+	 */
+	public static AsyncClientHttpRequestFactory create() {
+		return create(HttpVersionPolicy.NEGOTIATE, DEFAULT_MAX_CONNECTIONS);
+	}
+
+	/**
+	 * @param versionPolicy HTTP version of the connections.
+	 * @param maxConnectionsPerRoute maximum connections to each host, HTTP/2 connections hold many requests.
+	 */
+	public static AsyncClientHttpRequestFactory create(HttpVersionPolicy versionPolicy, int maxConnectionsPerRoute) {
+		CloseableHttpAsyncClient httpClient = HttpAsyncClients.custom()
+				.setConnectionManager(PoolingAsyncClientConnectionManagerBuilder.create()
+						.setDefaultTlsConfig(TlsConfig.custom().setVersionPolicy(versionPolicy).build())
+						.setMaxConnPerRoute(maxConnectionsPerRoute)
+						.setMaxConnTotal(maxConnectionsPerRoute * 2)
+						.build())
+				.setH2Config(H2Config.custom().setPushEnabled(false).build())
+				.build();
+		return new AsyncClientHttpRequestFactory(httpClient);
+	}
+
+	@Override
+	public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) {
+		return new AsyncClientHttpRequest(uri, httpMethod);
+	}
+
+	/**
+	 * Closes the underlying client, waiting for the running requests.
+	 */
+	@Override
+	public void close() {
+		httpClient.close(CloseMode.GRACEFUL);
+	}
+
+	private class AsyncClientHttpRequest extends AbstractClientHttpRequest {
+
+		private final URI uri;
+		private final HttpMethod method;
+		private final ByteArrayOutputStream body = new ByteArrayOutputStream(1024);
+
+		AsyncClientHttpRequest(URI uri, HttpMethod method) {
+			this.uri = uri;
+			this.method = method;
+		}
+
+		@Override
+		public HttpMethod getMethod() {
+			return method;
+		}
+
+		@Override
+		public URI getURI() {
+			return uri;
+		}
+
+		@Override
+		protected OutputStream getBodyInternal(HttpHeaders headers) {
+			return body;
+		}
+
+		@Override
+		protected ClientHttpResponse executeInternal(HttpHeaders headers) throws IOException {
+			AsyncRequestBuilder builder = AsyncRequestBuilder.create(method.name()).setUri(uri);
+			for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+				String name = header.getKey();
+				if (!HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name)
+						&& !HttpHeaders.TRANSFER_ENCODING.equalsIgnoreCase(name)
+						&& !HttpHeaders.HOST.equalsIgnoreCase(name)
+						&& !HttpHeaders.CONNECTION.equalsIgnoreCase(name)) {
+					// length and connection management are handled by the client, HTTP/2 forbids them
+					for (String value : header.getValue()) {
+						builder.addHeader(name, value);
+					}
+				}
+			}
+			byte[] bytes = body.toByteArray();
+			if (bytes.length > 0 || method == HttpMethod.POST || method == HttpMethod.PUT || method == HttpMethod.PATCH) {
+				// the Content-Type header is sent as given
+				builder.setEntity(AsyncEntityProducers.create(bytes, null));
+			}
+			AsyncRequestProducer producer = builder.build();
+
+			StreamingResponse response = new StreamingResponse();
+			response.exchange = httpClient.execute(producer, response, null, response.exchangeCallback());
+			try {
+				return response.headersReceived.get();
+			} catch (InterruptedException e) {
+				response.exchange.cancel(true);
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("interrupted waiting for " + method + " " + uri);
+			} catch (CancellationException e) {
+				throw new InterruptedIOException("cancelled waiting for " + method + " " + uri);
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof IOException) {
+					throw (IOException) cause;
+				}
+				throw new IOException(cause);
+			}
+		}
+	}
+
+	/**
+	 * Response handed to the caller as soon as its headers arrive. The body is pushed by the I/O reactor into
+	 * a queue of chunks and the reader grants the server more capacity as it consumes them. The exchange only
+	 * completes at the end of the body, so that closing the response before cancels it.
+	 */
+	static class StreamingResponse implements AsyncResponseConsumer<ClientHttpResponse>, ClientHttpResponse {
+
+		private final Object lock = new Object();
+		private final Deque<ByteBuffer> chunks = new ArrayDeque<>();
+		private final HttpHeaders headers = new HttpHeaders();
+		private int status;
+		private String reason;
+		private CapacityChannel capacityChannel;
+		private int credit = WINDOW_SIZE;
+		private boolean ended;
+		private Exception failure;
+		private boolean closed;
+		private FutureCallback<ClientHttpResponse> resultCallback;
+		/** Completed with this response once its headers arrive. */
+		private final CompletableFuture<ClientHttpResponse> headersReceived = new CompletableFuture<>();
+		/** Exchange of the response, pending until the end of the body and cancelled to abort it. */
+		private volatile Future<ClientHttpResponse> exchange;
+
+		private final InputStream body = new InputStream() {
+
+			@Override
+			public int read() throws IOException {
+				byte[] one = new byte[1];
+				return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				if (len == 0) {
+					return 0;
+				}
+				int read;
+				CapacityChannel channel;
+				int granted;
+				synchronized (lock) {
+					while (chunks.isEmpty() && !ended && failure == null) {
+						try {
+							lock.wait();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+							throw new InterruptedIOException();
+						}
+					}
+					if (chunks.isEmpty()) {
+						if (failure != null) {
+							throw failure instanceof IOException ? (IOException) failure : new IOException(failure);
+						}
+						return -1;
+					}
+					ByteBuffer chunk = chunks.peek();
+					read = Math.min(len, chunk.remaining());
+					chunk.get(b, off, read);
+					if (!chunk.hasRemaining()) {
+						chunks.poll();
+					}
+					credit += read;
+					channel = capacityChannel;
+					granted = credit;
+					if (channel != null) {
+						credit = 0;
+					}
+				}
+				if (channel != null && granted > 0) {
+					channel.update(granted);
+				}
+				return read;
+			}
+
+			@Override
+			public int available() {
+				synchronized (lock) {
+					int available = 0;
+					for (ByteBuffer chunk : chunks) {
+						available += chunk.remaining();
+					}
+					return available;
+				}
+			}
+
+			@Override
+			public void close() {
+				StreamingResponse.this.close();
+			}
+		};
+
+		@Override
+		public void consumeResponse(HttpResponse response, EntityDetails entityDetails, HttpContext context,
+				FutureCallback<ClientHttpResponse> resultCallback) {
+			status = response.getCode();
+			reason = response.getReasonPhrase();
+			for (Header header : response.getHeaders()) {
+				headers.add(header.getName(), header.getValue());
+			}
+			synchronized (lock) {
+				ended = entityDetails == null;
+				this.resultCallback = resultCallback;
+			}
+			if (entityDetails == null) {
+				resultCallback.completed(this);
+			}
+			headersReceived.complete(this);
+		}
+
+		/**
+		 * @return callback of the exchange, failing the wait for the headers when the exchange fails before.
+		 */
+		FutureCallback<ClientHttpResponse> exchangeCallback() {
+			return new FutureCallback<ClientHttpResponse>() {
+
+				@Override
+				public void completed(ClientHttpResponse result) {
+					// the caller already has the response
+				}
+
+				@Override
+				public void failed(Exception ex) {
+					headersReceived.completeExceptionally(ex);
+				}
+
+				@Override
+				public void cancelled() {
+					headersReceived.cancel(false);
+				}
+			};
+		}
+
+		@Override
+		public void informationResponse(HttpResponse response, HttpContext context) {
+			// 1xx responses carry nothing for the caller
+		}
+
+		@Override
+		public void updateCapacity(CapacityChannel capacityChannel) throws IOException {
+			int granted;
+			synchronized (lock) {
+				this.capacityChannel = capacityChannel;
+				granted = credit;
+				credit = 0;
+			}
+			if (granted > 0) {
+				capacityChannel.update(granted);
+			}
+		}
+
+		@Override
+		public void consume(ByteBuffer src) throws IOException {
+			ByteBuffer copy = ByteBuffer.allocate(src.remaining());
+			copy.put(src).flip();
+			synchronized (lock) {
+				if (closed) {
+					// the exchange outlived its cancellation, failing it discards the connection or HTTP/2 stream
+					throw new IOException("response closed before the end of its body");
+				}
+				chunks.add(copy);
+				lock.notifyAll();
+			}
+		}
+
+		@Override
+		public void streamEnd(List<? extends Header> trailers) {
+			FutureCallback<ClientHttpResponse> callback;
+			synchronized (lock) {
+				ended = true;
+				callback = resultCallback;
+				lock.notifyAll();
+			}
+			if (callback != null) {
+				callback.completed(this);
+			}
+		}
+
+		@Override
+		public void failed(Exception cause) {
+			synchronized (lock) {
+				if (!ended) {
+					failure = cause;
+				}
+				lock.notifyAll();
+			}
+			headersReceived.completeExceptionally(cause);
+		}
+
+		@Override
+		public void releaseResources() {
+			// the chunks still queued belong to the reader
+		}
+
+		@Override
+		public HttpStatusCode getStatusCode() {
+			return HttpStatusCode.valueOf(status);
+		}
+
+		@Override
+		public String getStatusText() {
+			return reason == null ? "" : reason;
+		}
+
+		@Override
+		public HttpHeaders getHeaders() {
+			return headers;
+		}
+
+		@Override
+		public InputStream getBody() {
+			return body;
+		}
+
+		@Override
+		public void close() {
+			boolean abort;
+			CapacityChannel channel;
+			synchronized (lock) {
+				chunks.clear();
+				abort = !ended && failure == null && !closed;
+				if (abort) {
+					closed = true;
+					failure = new IOException("response closed before the end of its body");
+				}
+				channel = capacityChannel;
+				lock.notifyAll();
+			}
+			if (!abort) {
+				return;
+			}
+			Future<?> exchange = this.exchange;
+			if (exchange != null) {
+				// the connection or HTTP/2 stream of the unread body is discarded
+				exchange.cancel(true);
+			}
+			if (channel != null) {
+				// right after the headers the client may not have tied the exchange to its future yet and the
+				// cancellation is lost: the next chunk let in fails in consume()
+				try {
+					channel.update(WINDOW_SIZE);
+				} catch (IOException e) {
+					// the exchange is already gone
+				}
+			}
+		}
+	}
+}
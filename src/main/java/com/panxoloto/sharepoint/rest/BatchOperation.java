@@ -0,0 +1,105 @@
+package com.panxoloto.sharepoint.rest;
+
+import org.json.JSONObject;
+
+/**
+ * Handle of an operation queued in an {@link ODataBatch}. It holds the outcome of the operation once the
+ * batch has been executed: operations of the same batch succeed or fail independently.
+ */
+public class BatchOperation {
+
+	private final String method;
+	private final String url;
+	private final String payload;
+	private final boolean write;
+
+	private boolean done;
+	private int statusCode;
+	private String body;
+	private String error;
+
+	BatchOperation(String method, String url, String payload, boolean write) {
+		this.method = method;
+		this.url = url;
+		this.payload = payload;
+		this.write = write;
+	}
+
+	String getMethod() {
+		return method;
+	}
+
+	String getUrl() {
+		return url;
+	}
+
+	String getPayload() {
+		return payload;
+	}
+
+	boolean isWrite() {
+		return write;
+	}
+
+	void complete(int statusCode, String body) {
+		this.statusCode = statusCode;
+		this.body = body;
+		if (statusCode < 200 || statusCode >= 300) {
+			this.error = body != null && !body.isEmpty() ? body : "HTTP " + statusCode;
+		}
+		this.done = true;
+	}
+
+	void fail(String error) {
+		this.error = error;
+		this.done = true;
+	}
+
+	/**
+	 * @return true once the batch holding this operation has been executed.
+	 */
+	public boolean isDone() {
+		return done;
+	}
+
+	/**
+	 * @return true when the server executed the operation with a 2xx status.
+	 */
+	public boolean isSuccessful() {
+		return done && error == null;
+	}
+
+	/**
+	 * @return HTTP status of the operation, 0 when the server didn't execute it.
+	 */
+	public int getStatusCode() {
+		return statusCode;
+	}
+
+	/**
+	 * @return response body of the operation, null when the server didn't execute it.
+	 */
+	public String getBody() {
+		return body;
+	}
+
+	/**
+	 * @return response body of the operation parsed as JSON, null when it has none.
+	 */
+	public JSONObject getJson() {
+		return body == null || body.isEmpty() ? null : new JSONObject(body);
+	}
+
+	/**
+	 * @return error returned by the server (or the reason why the operation wasn't executed), null when it
+	 * succeeded.
+	 */
+	public String getError() {
+		return error;
+	}
+
+	@Override
+	public String toString() {
+		return method + " " + url + (done ? " -> " + (error == null ? statusCode : "error " + statusCode) : "");
+	}
+}
@@ -0,0 +1,126 @@
+package com.panxoloto.sharepoint.rest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Reads the multipart/mixed body returned by <code>/_api/$batch</code> into the list of the HTTP responses it
+ * holds, in the order of the requests. Responses of change sets are nested multiparts and are flattened.
+ */
+class BatchResponseParser {
+
+	/**
+	 * Single HTTP response embedded in a batch response.
+	 */
+	static class Response {
+		final int status;
+		final String body;
+
+		Response(int status, String body) {
+			this.status = status;
+			this.body = body;
+		}
+	}
+
+	private BatchResponseParser() {
+	}
+
+	/**
+	 * @param body response body.
+	 * @param boundary boundary of the response, read from the first delimiter of the body when null.
+	 * @return the embedded responses.
+	 */
+	static List<Response> parse(String body, String boundary) {
+		String text = body.replace("\r\n", "\n");
+		if (boundary == null) {
+			boundary = firstBoundary(text);
+		}
+		List<Response> responses = new ArrayList<>();
+		parseMultipart(text, boundary, responses);
+		return responses;
+	}
+
+	/**
+	 * @param contentType value of a Content-Type header.
+	 * @return its boundary parameter, null when it has none.
+	 */
+	static String boundary(String contentType) {
+		if (contentType == null) {
+			return null;
+		}
+		for (String param : contentType.split(";")) {
+			String p = param.trim();
+			if (p.toLowerCase(Locale.ROOT).startsWith("boundary=")) {
+				String value = p.substring("boundary=".length()).trim();
+				if (value.length() > 1 && value.startsWith("\"") && value.endsWith("\"")) {
+					value = value.substring(1, value.length() - 1);
+				}
+				return value;
+			}
+		}
+		return null;
+	}
+
+	private static String firstBoundary(String text) {
+		String trimmed = text.trim();
+		if (!trimmed.startsWith("--")) {
+			throw new IllegalArgumentException("batch response is not a multipart body");
+		}
+		int end = trimmed.indexOf('\n');
+		return (end < 0 ? trimmed : trimmed.substring(0, end)).substring(2).trim();
+	}
+
+	private static void parseMultipart(String text, String boundary, List<Response> responses) {
+		String delimiter = "--" + boundary;
+		int start = text.indexOf(delimiter);
+		while (start >= 0) {
+			int partStart = start + delimiter.length();
+			if (text.startsWith("--", partStart)) {
+				// closing delimiter
+				return;
+			}
+			int next = text.indexOf("\n" + delimiter, partStart);
+			String part = text.substring(partStart, next < 0 ? text.length() : next);
+			parsePart(part, responses);
+			start = next < 0 ? -1 : next + 1;
+		}
+	}
+
+	private static void parsePart(String part, List<Response> responses) {
+		String[] split = splitHeaders(part.startsWith("\n") ? part.substring(1) : part);
+		String contentType = header(split[0], "Content-Type");
+		if (contentType != null && contentType.toLowerCase(Locale.ROOT).startsWith("multipart/mixed")) {
+			parseMultipart(split[1], boundary(contentType), responses);
+			return;
+		}
+		String[] http = splitHeaders(split[1].trim());
+		String statusLine = http[0].split("\n", 2)[0].trim();
+		String[] tokens = statusLine.split(" ");
+		if (tokens.length < 2 || !tokens[0].startsWith("HTTP/")) {
+			throw new IllegalArgumentException("invalid status line in batch response: " + statusLine);
+		}
+		responses.add(new Response(Integer.parseInt(tokens[1]), http[1].trim()));
+	}
+
+	/**
+	 * @return headers and body of a part, split at the first blank line.
+	 */
+	private static String[] splitHeaders(String part) {
+		int blank = part.indexOf("\n\n");
+		if (blank < 0) {
+			return new String[] { part, "" };
+		}
+		return new String[] { part.substring(0, blank), part.substring(blank + 2) };
+	}
+
+	private static String header(String headers, String name) {
+		for (String line : headers.split("\n")) {
+			int colon = line.indexOf(':');
+			if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase(name)) {
+				return line.substring(colon + 1).trim();
+			}
+		}
+		return null;
+	}
+}
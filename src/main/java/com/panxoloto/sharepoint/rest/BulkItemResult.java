@@ -0,0 +1,67 @@
+package com.panxoloto.sharepoint.rest;
+
+/**
+ * Outcome of a single item of a bulk operation, see
+ * {@link PLGSharepointClientOnline#createListItems(String, String, Iterable)}.
+ */
+public class BulkItemResult {
+
+	private final int index;
+	private final Integer id;
+	private final int statusCode;
+	private final String error;
+	private final int retries;
+
+	BulkItemResult(int index, Integer id, int statusCode, String error, int retries) {
+		this.index = index;
+		this.id = id;
+		this.statusCode = statusCode;
+		this.error = error;
+		this.retries = retries;
+	}
+
+	/**
+	 * @return position of the item in the input.
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	/**
+	 * @return id of the created or updated item, null when it failed.
+	 */
+	public Integer getId() {
+		return id;
+	}
+
+	/**
+	 * @return HTTP status of the last attempt, 0 when the request didn't get a response.
+	 */
+	public int getStatusCode() {
+		return statusCode;
+	}
+
+	/**
+	 * @return error of the last attempt, null when the item succeeded.
+	 */
+	public String getError() {
+		return error;
+	}
+
+	/**
+	 * @return number of times the request of the item was sent again by the {@link RetryInterceptor} of the client.
+	 */
+	public int getRetries() {
+		return retries;
+	}
+
+	public boolean isSuccessful() {
+		return error == null;
+	}
+
+	@Override
+	public String toString() {
+		return "BulkItemResult [index=" + index + ", id=" + id + ", statusCode=" + statusCode + ", error=" + error
+				+ ", retries=" + retries + "]";
+	}
+}
@@ -0,0 +1,103 @@
+package com.panxoloto.sharepoint.rest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.client.RestClientResponseException;
+
+/**
+ * Sends the items of a bulk operation with a fixed number of concurrent requests. An item that fails doesn't
+ * stop the others. Throttled requests (429 or 503) are retried by the {@link RetryInterceptor} of the client
+ * only, which pauses the whole client, an item still throttled once it gave up is reported as failed.
+ */
+class BulkWriter<T> {
+
+	private static final Logger LOG = LoggerFactory.getLogger(BulkWriter.class);
+
+	/**
+	 * Performs the request of a single item.
+	 */
+	@FunctionalInterface
+	interface ItemOperation<T> {
+		/**
+		 * @return id of the created or updated item.
+		 */
+		Integer apply(T item) throws Exception;
+	}
+
+	private final ItemOperation<T> operation;
+	private final int successStatus;
+	private final Object lock = new Object();
+	private Iterator<T> items;
+	private int nextIndex;
+
+	/**
+	 * @param operation request of each item.
+	 * @param successStatus status reported for the items that succeed.
+	 */
+	BulkWriter(ItemOperation<T> operation, int successStatus) {
+		this.operation = operation;
+		this.successStatus = successStatus;
+	}
+
+	/**
+	 * @return the outcome of every item, in the order of the input.
+	 */
+	List<BulkItemResult> run(Iterable<T> input, int parallelism, Executor executor) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("parallelism must be positive");
+		}
+		this.items = input.iterator();
+		this.nextIndex = 0;
+		List<BulkItemResult> results = new ArrayList<>();
+		CompletableFuture<?>[] workers = new CompletableFuture<?>[parallelism];
+		for (int i = 0; i < parallelism; i++) {
+			workers[i] = CompletableFuture.runAsync(() -> work(results), executor);
+		}
+		CompletableFuture.allOf(workers).join();
+		BulkItemResult[] ordered = new BulkItemResult[results.size()];
+		for (BulkItemResult result : results) {
+			ordered[result.getIndex()] = result;
+		}
+		return Arrays.asList(ordered);
+	}
+
+	private void work(List<BulkItemResult> results) {
+		while (true) {
+			T item;
+			int index;
+			synchronized (lock) {
+				if (!items.hasNext()) {
+					return;
+				}
+				item = items.next();
+				index = nextIndex++;
+			}
+			BulkItemResult result = send(index, item);
+			synchronized (lock) {
+				results.add(result);
+			}
+		}
+	}
+
+	private BulkItemResult send(int index, T item) {
+		int retriesBefore = RetryInterceptor.threadRetryCount();
+		try {
+			Integer id = operation.apply(item);
+			return new BulkItemResult(index, id, successStatus, null, RetryInterceptor.threadRetryCount() - retriesBefore);
+		} catch (RestClientResponseException e) {
+			String body = e.getResponseBodyAsString();
+			return new BulkItemResult(index, null, e.getStatusCode().value(), body.isEmpty() ? e.getMessage() : body,
+					RetryInterceptor.threadRetryCount() - retriesBefore);
+		} catch (Exception e) {
+			LOG.debug("Item {} failed", index, e);
+			return new BulkItemResult(index, null, 0, String.valueOf(e.getMessage()), RetryInterceptor.threadRetryCount() - retriesBefore);
+		}
+	}
+}
@@ -0,0 +1,21 @@
+package com.panxoloto.sharepoint.rest;
+
+/**
+ * Persists the change tokens used by {@link ListDeltaSync} between synchronization cycles.
+ */
+public interface ChangeTokenStore {
+
+	/**
+	 * @param key identifier of the synchronized list.
+	 * @return the last saved change token, null when the list has never been synchronized.
+	 * @throws Exception
+	 */
+	String load(String key) throws Exception;
+
+	/**
+	 * @param key identifier of the synchronized list.
+	 * @param changeToken change token to resume the next synchronization from.
+	 * @throws Exception
+	 */
+	void save(String key, String changeToken) throws Exception;
+}
@@ -6,6 +6,11 @@ import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.json.JSONObject;
 import org.slf4j.Logger;
@@ -26,19 +31,49 @@ public class ChunkFileUploader
 {
 	private final static Logger            log		= LoggerFactory.getLogger(ChunkFileUploader.class);
 	private final static ByteArrayResource empty	= new ChunkResource(new byte[] {});
+	private final static ExecutorService   readers	= Executors.newCachedThreadPool(ChunkFileUploader::newReaderThread);
 	
 	private final HeadersHelper			headerHelper;
 	private final AuthTokenHelperOnline	tokenHelper;
 	private final RestTemplate			restTemplate;	
+	private volatile int				readAhead		= 1;
 	
-	ChunkFileUploader( final AuthTokenHelperOnline tokenHelper )
+	ChunkFileUploader( final AuthTokenHelperOnline tokenHelper, final RestTemplate restTemplate )
 	{
 		super();
 		this.tokenHelper	= tokenHelper;
-		this.restTemplate	= new RestTemplate();
+		// the template of the client, retrying throttled chunks and signing in again
+		this.restTemplate	= restTemplate;
 		this.headerHelper	= new HeadersHelper(this.tokenHelper);
 	}
 	
+	private static Thread newReaderThread( final Runnable task )
+	{
+		final Thread thread = new Thread(task, "sharepoint-upload-read-ahead");
+		thread.setDaemon(true);
+		return thread;
+	}
+	
+	/**
+	 * @param readAhead number of chunks read from the source while the current one is sent, 1 by default
+	 * (double buffering), 0 to read the source only between the sends. Every chunk read ahead holds a buffer
+	 * of the chunk size.
+	 */
+	public ChunkFileUploader setReadAhead( final int readAhead )
+	{
+		if ( readAhead<0 )
+		{
+			throw new IllegalArgumentException("readAhead must not be negative: " + readAhead);
+		}
+		this.readAhead = readAhead;
+		return this;
+	}
+	
+	public int getReadAhead()
+	{
+		return this.readAhead;
+	}
+	
 	protected long startFileUpload(final String uploadId, final String pathToTargetFile, final Resource resource)
 		throws Exception
 	{
@@ -106,14 +141,12 @@ public class ChunkFileUploader
 		try
 		{
 			long offset = 0L;
-			final byte[] buffer = new byte[size];
-			try ( final InputStream is = resource.getInputStream() )
+			try ( final ChunkReader chunks = new ChunkReader(resource.getInputStream(), size, this.readAhead) )
 			{
-				for ( int readBytes=is.read(buffer); readBytes!=-1; readBytes = is.read(buffer) )
+				for ( Chunk chunk=chunks.next(); chunk!=null; chunk=chunks.next() )
 				{
-					log.debug("offset [" + offset + "] got [" + readBytes + "] bytes");
-					//System.out.println("offset [" + offset + "] got [" + readBytes + "] bytes");
-					final ChunkResource chunkResource = new ChunkResource(filename, buffer, readBytes); 
+					log.debug("offset [" + offset + "] got [" + chunk.length + "] bytes");
+					final ChunkResource chunkResource = new ChunkResource(filename, chunk.buffer, chunk.length); 
 					if ( offset==0 )
 					{
 						offset = this.startFileUpload(id, pathToTargetFile, chunkResource);
@@ -122,6 +155,7 @@ public class ChunkFileUploader
 					{
 						offset = this.continueFileUpload(id, pathToTargetFile, offset, chunkResource);
 					}
+					chunks.release(chunk);
 				}
 			}
 			return this.finishFileUpload(id, pathToTargetFile, offset, empty);
@@ -177,9 +211,172 @@ public class ChunkFileUploader
 	
 	private final MultiValueMap<String, String> headers()
 	{
-		final MultiValueMap<String, String> headers = headerHelper.getPostHeaders("");
-	    headers.remove("Content-Length");
-	    return headers;
+		return headerHelper.getPostHeadersTemplate();
+	}
+	
+	/**
+	 * Chunk of the source, filled up to the chunk size except the last one.
+	 */
+	private static final class Chunk
+	{
+		private static final Chunk	end	= new Chunk(null, -1, null);
+		
+		private final byte[]		buffer;
+		private final int			length;
+		private final Throwable		failure;
+		
+		Chunk( final byte[] buffer, final int length, final Throwable failure )
+		{
+			this.buffer		= buffer;
+			this.length		= length;
+			this.failure	= failure;
+		}
+	}
+	
+	/**
+	 * Reads the chunks of the source in offset order. With a read-ahead, a background task fills the next
+	 * buffers while the current chunk is sent, at most <code>readAhead</code> chunks ahead of the sends: the
+	 * buffers are allocated on demand, up to <code>readAhead + 1</code>, and recycled once their chunk is sent.
+	 */
+	private static final class ChunkReader
+		implements AutoCloseable
+	{
+		private final InputStream			is;
+		private final int					size;
+		private final int					maxBuffers;
+		private final BlockingQueue<byte[]>	free;
+		private final BlockingQueue<Chunk>	filled;
+		private final Future<?>				reader;
+		private int							buffers;
+		private byte[]						buffer;
+		private volatile boolean			closed;
+		
+		ChunkReader( final InputStream is, final int size, final int readAhead )
+		{
+			this.is			= is;
+			this.size		= size;
+			this.maxBuffers	= readAhead + 1;
+			if ( readAhead==0 )
+			{
+				this.free	= null;
+				this.filled	= null;
+				this.reader	= null;
+			}
+			else
+			{
+				this.free	= new ArrayBlockingQueue<>(this.maxBuffers);
+				// a chunk per buffer, and the end or the failure
+				this.filled	= new ArrayBlockingQueue<>(this.maxBuffers + 1);
+				this.reader	= readers.submit(this::readAll);
+			}
+		}
+		
+		/**
+		 * @return next chunk, or null at the end of the source.
+		 */
+		Chunk next()
+			throws IOException, InterruptedException
+		{
+			if ( this.reader==null )
+			{
+				if ( this.buffer==null )
+				{
+					this.buffer = new byte[this.size];
+				}
+				final int length = this.is.readNBytes(this.buffer, 0, this.size);
+				return length==0 ? null : new Chunk(this.buffer, length, null);
+			}
+			final Chunk chunk = this.filled.take();
+			if ( chunk.failure instanceof IOException )
+			{
+				throw (IOException) chunk.failure;
+			}
+			if ( chunk.failure instanceof RuntimeException )
+			{
+				throw (RuntimeException) chunk.failure;
+			}
+			if ( chunk.failure instanceof Error )
+			{
+				throw (Error) chunk.failure;
+			}
+			if ( chunk.failure!=null )
+			{
+				throw new IOException("Read-ahead of the source has failed", chunk.failure);
+			}
+			return chunk==Chunk.end ? null : chunk;
+		}
+		
+		/**
+		 * Gives the buffer of a sent chunk back to the reader.
+		 */
+		void release( final Chunk chunk )
+		{
+			if ( this.free!=null )
+			{
+				this.free.offer(chunk.buffer);
+			}
+		}
+		
+		private void readAll()
+		{
+			try
+			{
+				while ( !this.closed )
+				{
+					final byte[] buffer = this.freeBuffer();
+					final int length = this.is.readNBytes(buffer, 0, buffer.length);
+					if ( length>0 )
+					{
+						this.filled.put(new Chunk(buffer, length, null));
+					}
+					if ( length<buffer.length )
+					{
+						this.filled.put(Chunk.end);
+						return;
+					}
+				}
+			}
+			catch( final InterruptedException interrupted )
+			{
+				Thread.currentThread().interrupt();
+			}
+			catch( final Throwable readFailure )
+			{
+				// unchecked exceptions and errors of the source too, the uploading thread waits for a chunk
+				this.filled.offer(new Chunk(null, -1, readFailure));
+			}
+		}
+		
+		private byte[] freeBuffer()
+			throws InterruptedException
+		{
+			final byte[] buffer = this.free.poll();
+			if ( buffer!=null )
+			{
+				return buffer;
+			}
+			if ( this.buffers<this.maxBuffers )
+			{
+				this.buffers++;
+				return new byte[this.size];
+			}
+			return this.free.take();
+		}
+		
+		/**
+		 * Stops the reader, when the upload fails before the end of the source, and closes the source.
+		 */
+		@Override
+		public void close()
+			throws IOException
+		{
+			this.closed = true;
+			if ( this.reader!=null )
+			{
+				this.reader.cancel(true);
+			}
+			this.is.close();
+		}
 	}
 	
 	public static class ChunkResource
@@ -0,0 +1,53 @@
+package com.panxoloto.sharepoint.rest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * {@link ChangeTokenStore} keeping every token in a single properties file. The file is rewritten through a
+ * temporary file and an atomic move, so a crash never leaves a truncated token behind.
+ */
+public class FileChangeTokenStore implements ChangeTokenStore {
+
+	private final Path file;
+
+	/**
+	 * @param file properties file holding the tokens, created on first save.
+	 */
+	public FileChangeTokenStore(Path file) {
+		this.file = file;
+	}
+
+	@Override
+	public synchronized String load(String key) throws IOException {
+		return read().getProperty(key);
+	}
+
+	@Override
+	public synchronized void save(String key, String changeToken) throws IOException {
+		Properties tokens = read();
+		tokens.setProperty(key, changeToken);
+		Path parent = file.toAbsolutePath().getParent();
+		Files.createDirectories(parent);
+		Path tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+		try (OutputStream os = Files.newOutputStream(tmp)) {
+			tokens.store(os, "SharePoint list change tokens");
+		}
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private Properties read() throws IOException {
+		Properties tokens = new Properties();
+		if (Files.exists(file)) {
+			try (InputStream is = Files.newInputStream(file)) {
+				tokens.load(is);
+			}
+		}
+		return tokens;
+	}
+}
@@ -0,0 +1,68 @@
+package com.panxoloto.sharepoint.rest;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.json.JSONObject;
+
+/**
+ * Items of a list that changed since the previous synchronization, see {@link ListDeltaSync}. Several changes
+ * of the same item are collapsed: an item added and later updated is only reported as added, an item added
+ * and later deleted is not reported at all.
+ */
+public class ListChanges {
+
+	private final String changeToken;
+	private final boolean initial;
+	private final List<JSONObject> added;
+	private final List<JSONObject> updated;
+	private final List<Integer> deleted;
+
+	ListChanges(String changeToken, boolean initial, List<JSONObject> added, List<JSONObject> updated, List<Integer> deleted) {
+		this.changeToken = changeToken;
+		this.initial = initial;
+		this.added = Collections.unmodifiableList(added);
+		this.updated = Collections.unmodifiableList(updated);
+		this.deleted = Collections.unmodifiableList(deleted);
+	}
+
+	/**
+	 * @return change token to resume the next synchronization from.
+	 */
+	public String getChangeToken() {
+		return changeToken;
+	}
+
+	/**
+	 * @return true when there was no stored token: no changes are reported and the caller is expected to
+	 * perform a full read of the list to build its baseline.
+	 */
+	public boolean isInitial() {
+		return initial;
+	}
+
+	/**
+	 * @return current data of the items added (or restored) since the previous synchronization.
+	 */
+	public List<JSONObject> getAdded() {
+		return added;
+	}
+
+	/**
+	 * @return current data of the items updated since the previous synchronization.
+	 */
+	public List<JSONObject> getUpdated() {
+		return updated;
+	}
+
+	/**
+	 * @return IDs of the items deleted since the previous synchronization.
+	 */
+	public List<Integer> getDeleted() {
+		return deleted;
+	}
+
+	public boolean isEmpty() {
+		return added.isEmpty() && updated.isEmpty() && deleted.isEmpty();
+	}
+}
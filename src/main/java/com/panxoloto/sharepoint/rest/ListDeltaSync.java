@@ -0,0 +1,167 @@
+package com.panxoloto.sharepoint.rest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.panxoloto.sharepoint.rest.helper.ODataResponse;
+
+/**
+ * Incremental synchronization of a list based on its change log (<code>GetChanges</code>). Each cycle only
+ * reads the changes made after the stored change token and the current data of the added and updated
+ * items, instead of the whole list.
+ * <p>
+ * The first cycle of a list (no stored token) only records the current change token and returns an
+ * {@link ListChanges#isInitial() initial} result, the caller is expected to do a full read at that point.
+ */
+public class ListDeltaSync {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ListDeltaSync.class);
+
+	private static final int CHANGE_ADD = 1;
+	private static final int CHANGE_UPDATE = 2;
+	private static final int CHANGE_DELETE = 3;
+	private static final int CHANGE_RENAME = 4;
+	private static final int CHANGE_MOVE_AWAY = 5;
+	private static final int CHANGE_MOVE_INTO = 6;
+	private static final int CHANGE_RESTORE = 7;
+
+	private enum State { ADDED, UPDATED, DELETED }
+
+	private final PLGSharepointClientOnline client;
+	private final String listTitle;
+	private final ChangeTokenStore store;
+	private final String key;
+
+	/**
+	 * @param client client of the site holding the list.
+	 * @param listTitle title of the list to synchronize.
+	 * @param store store of the change tokens.
+	 * @param key key of this list in the store.
+	 */
+	public ListDeltaSync(PLGSharepointClientOnline client, String listTitle, ChangeTokenStore store, String key) {
+		this.client = client;
+		this.listTitle = listTitle;
+		this.store = store;
+		this.key = key;
+	}
+
+	/**
+	 * Retrieves the changes made after the stored token and saves the new token.
+	 *
+	 * @return the changes since the previous synchronization.
+	 * @throws Exception
+	 */
+	public ListChanges sync() throws Exception {
+		ListChanges changes = fetchChanges();
+		commit(changes);
+		return changes;
+	}
+
+	/**
+	 * Retrieves the changes made after the stored token without saving the new one, so the same changes are
+	 * returned again until {@link #commit(ListChanges)} is called. Use it to save the token only once the
+	 * changes have been processed.
+	 *
+	 * @return the changes since the previous synchronization.
+	 * @throws Exception
+	 */
+	public ListChanges fetchChanges() throws Exception {
+		String token = store.load(key);
+		if (token == null) {
+			LOG.debug("No change token stored for {}, starting from the current one", key);
+			return new ListChanges(client.getListCurrentChangeToken(listTitle), true, new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+		}
+
+		Map<Integer, State> states = new LinkedHashMap<>();
+		while (true) {
+			JSONArray results = ODataResponse.results(client.getListChanges(listTitle, token));
+			if (results.isEmpty()) {
+				break;
+			}
+			for (int i = 0; i < results.length(); i++) {
+				JSONObject change = results.getJSONObject(i);
+				apply(states, change.getInt("ItemId"), change.getInt("ChangeType"));
+				token = change.getJSONObject("ChangeToken").getString("StringValue");
+			}
+		}
+		LOG.debug("{} items changed in {}", states.size(), listTitle);
+
+		List<Integer> changedIds = new ArrayList<>();
+		List<Integer> deleted = new ArrayList<>();
+		states.forEach((id, state) -> {
+			if (state == State.DELETED) {
+				deleted.add(id);
+			} else {
+				changedIds.add(id);
+			}
+		});
+		Map<Integer, JSONObject> current = new HashMap<>();
+		if (!changedIds.isEmpty()) {
+			JSONArray items = client.getListItemsById(listTitle, changedIds);
+			for (int i = 0; i < items.length(); i++) {
+				JSONObject item = items.getJSONObject(i);
+				current.put(item.getInt("ID"), item);
+			}
+		}
+		List<JSONObject> added = new ArrayList<>();
+		List<JSONObject> updated = new ArrayList<>();
+		for (Integer id : changedIds) {
+			JSONObject item = current.get(id);
+			if (item == null) {
+				// deleted after the last change returned by this cycle, next one will report it
+				continue;
+			}
+			if (states.get(id) == State.ADDED) {
+				added.add(item);
+			} else {
+				updated.add(item);
+			}
+		}
+		return new ListChanges(token, false, added, updated, deleted);
+	}
+
+	/**
+	 * Saves the token of already processed changes.
+	 *
+	 * @param changes changes returned by {@link #fetchChanges()}.
+	 * @throws Exception
+	 */
+	public void commit(ListChanges changes) throws Exception {
+		store.save(key, changes.getChangeToken());
+	}
+
+	private static void apply(Map<Integer, State> states, int itemId, int changeType) {
+		State previous = states.get(itemId);
+		switch (changeType) {
+			case CHANGE_ADD:
+			case CHANGE_RESTORE:
+				states.put(itemId, previous == State.DELETED ? State.UPDATED : State.ADDED);
+				break;
+			case CHANGE_UPDATE:
+			case CHANGE_RENAME:
+			case CHANGE_MOVE_INTO:
+				if (previous == null) {
+					states.put(itemId, State.UPDATED);
+				}
+				break;
+			case CHANGE_DELETE:
+			case CHANGE_MOVE_AWAY:
+				if (previous == State.ADDED) {
+					states.remove(itemId);
+				} else {
+					states.put(itemId, State.DELETED);
+				}
+				break;
+			default:
+				break;
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package com.panxoloto.sharepoint.rest;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Flattens an iterator of list item pages into an iterator of single items. The next page is requested
+ * only once every item of the current one has been returned.
+ * Closing it closes the page iterator when this one is {@link AutoCloseable}.
+ */
+public class ListItemIterator implements Iterator<JSONObject>, AutoCloseable {
+
+	private final Iterator<JSONArray> pages;
+	private JSONArray current = new JSONArray();
+	private int index = 0;
+
+	public ListItemIterator(Iterator<JSONArray> pages) {
+		this.pages = pages;
+	}
+
+	@Override
+	public boolean hasNext() {
+		while (index >= current.length()) {
+			if (!pages.hasNext()) {
+				return false;
+			}
+			current = pages.next();
+			index = 0;
+		}
+		return true;
+	}
+
+	@Override
+	public JSONObject next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		return current.getJSONObject(index++);
+	}
+
+	@Override
+	public void close() {
+		if (pages instanceof AutoCloseable) {
+			try {
+				((AutoCloseable) pages).close();
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new RuntimeException("can't close list items pages", e);
+			}
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package com.panxoloto.sharepoint.rest;
+
+import java.net.URI;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.panxoloto.sharepoint.rest.helper.ODataResponse;
+
+/**
+ * Lazy cursor over the pages of a list items query. Every call to {@link #next()} performs exactly one
+ * request, following the next page link returned by the previous page, so only the page being
+ * consumed is kept in memory.
+ */
+public class ListItemPageIterator implements Iterator<JSONArray> {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ListItemPageIterator.class);
+
+	/**
+	 * Performs the GET request of a single page and returns the parsed response body.
+	 */
+	@FunctionalInterface
+	public interface PageFetcher {
+		JSONObject fetch(URI page) throws Exception;
+	}
+
+	private final PageFetcher fetcher;
+	private URI nextPage;
+
+	/**
+	 * @param fetcher executes the request of each page.
+	 * @param firstPage URI of the first page of the query.
+	 */
+	public ListItemPageIterator(PageFetcher fetcher, URI firstPage) {
+		this.fetcher = fetcher;
+		this.nextPage = firstPage;
+	}
+
+	@Override
+	public boolean hasNext() {
+		return nextPage != null;
+	}
+
+	@Override
+	public JSONArray next() {
+		if (nextPage == null) {
+			throw new NoSuchElementException();
+		}
+		URI page = nextPage;
+		nextPage = null;
+		JSONObject response;
+		try {
+			response = fetcher.fetch(page);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException("can't retrieve list items page " + page, e);
+		}
+		String next = ODataResponse.nextLink(response);
+		if (next != null) {
+			LOG.debug("There's another part. Let's explore it.");
+			nextPage = URI.create(next);
+		}
+		return ODataResponse.results(response);
+	}
+}
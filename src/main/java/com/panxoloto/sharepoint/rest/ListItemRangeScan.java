@@ -0,0 +1,140 @@
+package com.panxoloto.sharepoint.rest;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.json.JSONArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads a list split in ID windows (<code>ID ge from and ID lt to</code>) fetched concurrently. Each element
+ * returned by this iterator holds every item of one window.
+ * <p>
+ * No more than <code>parallelism</code> windows are requested or buffered at the same time, a new window is
+ * submitted each time the caller takes one, so memory usage does not depend on the size of the list. When
+ * ordered, windows are returned in ascending ID order, otherwise in completion order.
+ */
+public class ListItemRangeScan implements Iterator<JSONArray>, AutoCloseable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ListItemRangeScan.class);
+
+	/**
+	 * Retrieves every item with <code>fromId &lt;= ID &lt; toId</code>.
+	 */
+	@FunctionalInterface
+	public interface WindowFetcher {
+		JSONArray fetch(long fromId, long toId) throws Exception;
+	}
+
+	private final WindowFetcher fetcher;
+	private final long maxId;
+	private final int windowSize;
+	private final boolean ordered;
+	private final Executor executor;
+	private final CompletionService<JSONArray> completionService;
+	private final Deque<Future<JSONArray>> inFlight = new ArrayDeque<>();
+	private long nextWindowStart = 1;
+	private boolean closed = false;
+
+	/**
+	 * @param fetcher retrieves the items of a window.
+	 * @param maxId highest item ID of the list, windows cover IDs 1 to maxId.
+	 * @param windowSize number of IDs covered by a window.
+	 * @param parallelism maximum number of windows requested concurrently.
+	 * @param ordered true to return the windows in ascending ID order.
+	 * @param executor executor running the window requests.
+	 */
+	public ListItemRangeScan(WindowFetcher fetcher, long maxId, int windowSize, int parallelism, boolean ordered, Executor executor) {
+		if (windowSize < 1 || parallelism < 1) {
+			throw new IllegalArgumentException("windowSize and parallelism must be greater than 0");
+		}
+		this.fetcher = fetcher;
+		this.maxId = maxId;
+		this.windowSize = windowSize;
+		this.ordered = ordered;
+		this.executor = executor;
+		this.completionService = ordered ? null : new ExecutorCompletionService<>(executor);
+		for (int i = 0; i < parallelism; i++) {
+			if (!submitNextWindow()) {
+				break;
+			}
+		}
+	}
+
+	private boolean submitNextWindow() {
+		if (closed || nextWindowStart > maxId) {
+			return false;
+		}
+		long from = nextWindowStart;
+		long to = Math.min(from + windowSize, maxId + 1);
+		nextWindowStart = to;
+		LOG.debug("Requesting items window [{}, {})", from, to);
+		Callable<JSONArray> task = () -> fetcher.fetch(from, to);
+		if (ordered) {
+			FutureTask<JSONArray> future = new FutureTask<>(task);
+			executor.execute(future);
+			inFlight.addLast(future);
+		} else {
+			inFlight.addLast(completionService.submit(task));
+		}
+		return true;
+	}
+
+	@Override
+	public boolean hasNext() {
+		return !closed && !inFlight.isEmpty();
+	}
+
+	@Override
+	public JSONArray next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		Future<JSONArray> window;
+		try {
+			if (ordered) {
+				window = inFlight.removeFirst();
+			} else {
+				window = completionService.take();
+				inFlight.remove(window);
+			}
+			JSONArray items = window.get();
+			submitNextWindow();
+			return items;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			close();
+			throw new IllegalStateException("Interrupted while waiting for a list items window", e);
+		} catch (ExecutionException | CancellationException e) {
+			close();
+			Throwable cause = e.getCause() != null ? e.getCause() : e;
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new RuntimeException("can't retrieve list items window", cause);
+		}
+	}
+
+	/**
+	 * Cancels every pending window request.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		for (Future<JSONArray> window : inFlight) {
+			window.cancel(false);
+		}
+		inFlight.clear();
+	}
+}
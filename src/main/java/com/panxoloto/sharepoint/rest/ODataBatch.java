@@ -0,0 +1,219 @@
+package com.panxoloto.sharepoint.rest;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.RequestEntity;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.web.client.RestTemplate;
+
+import com.panxoloto.sharepoint.rest.helper.AuthTokenHelperOnline;
+import com.panxoloto.sharepoint.rest.helper.HeadersHelper;
+import com.panxoloto.sharepoint.rest.helper.Permission;
+
+/**
+ * Queue of operations sent together to <code>/_api/$batch</code>, see
+ * {@link PLGSharepointClientOnline#createBatch()}. Every write is sent in its own change set so operations
+ * succeed or fail independently, and the queue is split in several batch requests when it exceeds
+ * {@link #setMaxOperationsPerRequest(int) the operations allowed in a single one}.
+ * <p>
+ * Instances are not thread safe.
+ */
+public class ODataBatch {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ODataBatch.class);
+
+	/**
+	 * Operations allowed by SharePoint Online in a single batch request.
+	 */
+	public static final int DEFAULT_MAX_OPERATIONS = 100;
+
+	private static final String CRLF = "\r\n";
+	private static final String JSON_VERBOSE = "application/json;odata=verbose";
+
+	private final RestTemplate restTemplate;
+	private final AuthTokenHelperOnline tokenHelper;
+	private final HeadersHelper headerHelper;
+	private final List<BatchOperation> operations = new ArrayList<>();
+	private int maxOperationsPerRequest = DEFAULT_MAX_OPERATIONS;
+
+	ODataBatch(RestTemplate restTemplate, AuthTokenHelperOnline tokenHelper, HeadersHelper headerHelper) {
+		this.restTemplate = restTemplate;
+		this.tokenHelper = tokenHelper;
+		this.headerHelper = headerHelper;
+	}
+
+	/**
+	 * @param maxOperationsPerRequest maximum number of operations sent in a single batch request.
+	 */
+	public void setMaxOperationsPerRequest(int maxOperationsPerRequest) {
+		if (maxOperationsPerRequest < 1) {
+			throw new IllegalArgumentException("maxOperationsPerRequest must be positive");
+		}
+		this.maxOperationsPerRequest = maxOperationsPerRequest;
+	}
+
+	/**
+	 * @return number of operations waiting for {@link #execute()}.
+	 */
+	public int size() {
+		return operations.size();
+	}
+
+	/**
+	 * Queues the creation of a list item, see {@link PLGSharepointClientOnline#createListItem(String, String, JSONObject)}.
+	 */
+	public BatchOperation createListItem(String listTitle, String itemType, JSONObject data) throws Exception {
+		return add("POST", "/_api/web/lists/GetByTitle('" + listTitle + "')/items",
+				PLGSharepointClientOnline.itemPayload(data, itemType).toString(), true);
+	}
+
+	/**
+	 * Queues the update of a list item, see {@link PLGSharepointClientOnline#updateListItem(String, int, String, JSONObject)}.
+	 */
+	public BatchOperation updateListItem(String listTitle, int itemId, String itemType, JSONObject data) throws Exception {
+		return add("PATCH", "/_api/web/lists/GetByTitle('" + listTitle + "')/items(" + itemId + ")",
+				PLGSharepointClientOnline.itemPayload(data, itemType).toString(), true);
+	}
+
+	/**
+	 * Queues the deletion of a file, see {@link PLGSharepointClientOnline#deleteFile(String)}.
+	 */
+	public BatchOperation deleteFile(String fileServerRelativeUrl) throws Exception {
+		return add("DELETE", "/_api/web/GetFileByServerRelativeUrl('" + fileServerRelativeUrl + "')", null, true);
+	}
+
+	/**
+	 * Queues the update of the fields of a file, see {@link PLGSharepointClientOnline#updateFileMetadata(String, JSONObject)}.
+	 */
+	public BatchOperation updateFileMetadata(String fileServerRelativeUrl, JSONObject jsonMetadata) throws Exception {
+		JSONObject payload = new JSONObject(jsonMetadata, JSONObject.getNames(jsonMetadata));
+		JSONObject meta = new JSONObject();
+		meta.put("type", jsonMetadata.has("type") ? jsonMetadata.get("type") : "SP.File");
+		payload.put("__metadata", meta);
+		return add("PATCH", "/_api/web/GetFileByServerRelativeUrl('" + fileServerRelativeUrl + "')/listitemallfields",
+				payload.toString(), true);
+	}
+
+	/**
+	 * Queues a role assignment on a folder, the operation sent for every user by
+	 * {@link PLGSharepointClientOnline#grantPermissionToUsers(String, List, Permission)}.
+	 *
+	 * @param folder server relative URL of the folder.
+	 * @param principalId id of the user or group.
+	 * @param permission role to assign.
+	 */
+	public BatchOperation addRoleAssignment(String folder, int principalId, Permission permission) throws Exception {
+		return add("POST", "/_api/web/GetFolderByServerRelativeUrl('" + folder + "')/ListItemAllFields/roleAssignments/addroleassignment(principalid="
+				+ principalId + ",roleDefId=" + permission + ")", null, true);
+	}
+
+	/**
+	 * Queues a read.
+	 *
+	 * @param apiPath path relative to the site, like <code>/_api/web/lists/GetByTitle('Documents')</code>.
+	 */
+	public BatchOperation get(String apiPath) throws Exception {
+		return add("GET", apiPath, null, false);
+	}
+
+	/**
+	 * Sends the queued operations and empties the queue. A failure of a whole batch request (authentication,
+	 * network...) is reported on each of its operations and doesn't prevent the next requests.
+	 *
+	 * @return the executed operations, in the order they were queued.
+	 */
+	public List<BatchOperation> execute() {
+		List<BatchOperation> executed = new ArrayList<>(operations);
+		operations.clear();
+		for (int from = 0; from < executed.size(); from += maxOperationsPerRequest) {
+			List<BatchOperation> chunk = executed.subList(from, Math.min(from + maxOperationsPerRequest, executed.size()));
+			try {
+				send(chunk);
+			} catch (Exception e) {
+				LOG.warn("Batch request of {} operations failed", chunk.size(), e);
+				for (BatchOperation operation : chunk) {
+					operation.fail("batch request failed: " + e.getMessage());
+				}
+			}
+		}
+		return Collections.unmodifiableList(executed);
+	}
+
+	private BatchOperation add(String method, String apiPath, String payload, boolean write) throws Exception {
+		BatchOperation operation = new BatchOperation(method, this.tokenHelper.getSharepointSiteUrl(apiPath).toASCIIString(), payload, write);
+		operations.add(operation);
+		return operation;
+	}
+
+	private void send(List<BatchOperation> chunk) throws Exception {
+		String boundary = "batch_" + UUID.randomUUID();
+		byte[] body = requestBody(chunk, boundary, headerHelper.getMetadata().getMediaType()).getBytes(StandardCharsets.UTF_8);
+		LOG.debug("Sending batch request with {} operations", chunk.size());
+
+		LinkedMultiValueMap<String, String> headers = headerHelper.getPostHeaders();
+		headers.remove("Accept");
+		headers.set("Content-Type", "multipart/mixed; boundary=" + boundary);
+		headers.set("Prefer", "odata.continue-on-error");
+		RequestEntity<byte[]> requestEntity = new RequestEntity<>(body, headers, HttpMethod.POST,
+				this.tokenHelper.getSharepointSiteUrl("/_api/$batch"));
+		ResponseEntity<byte[]> responseEntity = restTemplate.exchange(requestEntity, byte[].class);
+
+		MediaType contentType = responseEntity.getHeaders().getContentType();
+		byte[] responseBody = responseEntity.getBody();
+		List<BatchResponseParser.Response> responses = BatchResponseParser.parse(
+				responseBody == null ? "" : new String(responseBody, StandardCharsets.UTF_8),
+				contentType == null ? null : contentType.getParameter("boundary"));
+		for (int i = 0; i < chunk.size(); i++) {
+			if (i < responses.size()) {
+				chunk.get(i).complete(responses.get(i).status, responses.get(i).body);
+			} else {
+				chunk.get(i).fail("not executed by the server");
+			}
+		}
+	}
+
+	static String requestBody(List<BatchOperation> chunk, String boundary, String accept) {
+		StringBuilder sb = new StringBuilder();
+		for (BatchOperation operation : chunk) {
+			sb.append("--").append(boundary).append(CRLF);
+			if (operation.isWrite()) {
+				String changeset = "changeset_" + UUID.randomUUID();
+				sb.append("Content-Type: multipart/mixed; boundary=").append(changeset).append(CRLF).append(CRLF);
+				sb.append("--").append(changeset).append(CRLF);
+				appendRequest(sb, operation, accept);
+				sb.append("--").append(changeset).append("--").append(CRLF);
+			} else {
+				appendRequest(sb, operation, accept);
+			}
+		}
+		sb.append("--").append(boundary).append("--").append(CRLF);
+		return sb.toString();
+	}
+
+	private static void appendRequest(StringBuilder sb, BatchOperation operation, String accept) {
+		sb.append("Content-Type: application/http").append(CRLF);
+		sb.append("Content-Transfer-Encoding: binary").append(CRLF).append(CRLF);
+		sb.append(operation.getMethod()).append(' ').append(operation.getUrl()).append(" HTTP/1.1").append(CRLF);
+		sb.append("Accept: ").append(accept).append(CRLF);
+		if (!"GET".equals(operation.getMethod()) && !"POST".equals(operation.getMethod())) {
+			sb.append("IF-MATCH: *").append(CRLF);
+		}
+		if (operation.getPayload() != null) {
+			sb.append("Content-Type: ").append(JSON_VERBOSE).append(CRLF).append(CRLF);
+			sb.append(operation.getPayload()).append(CRLF);
+		} else {
+			sb.append(CRLF);
+		}
+		sb.append(CRLF);
+	}
+}
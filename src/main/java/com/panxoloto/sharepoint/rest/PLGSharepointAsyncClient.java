@@ -0,0 +1,184 @@
+package com.panxoloto.sharepoint.rest;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.json.JSONObject;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.ResponseEntity;
+
+import com.panxoloto.sharepoint.rest.helper.Permission;
+
+/**
+ * Asynchronous counterpart of {@link PLGSharepointClient}: every operation returns immediately and its
+ * future completes with the result of the blocking method, or exceptionally with the exception it threw.
+ * See {@link PLGSharepointAsyncClientAdapter}.
+ */
+public interface PLGSharepointAsyncClient {
+
+	/**
+	 * @see PLGSharepointClient#refreshToken()
+	 */
+	CompletableFuture<Void> refreshToken();
+
+	/**
+	 * @see PLGSharepointClient#getAllLists(String)
+	 */
+	CompletableFuture<JSONObject> getAllLists(String data);
+
+	/**
+	 * @see PLGSharepointClient#getListByTitle(String, String)
+	 */
+	CompletableFuture<JSONObject> getListByTitle(String title, String jsonExtendedAttrs);
+
+	/**
+	 * @see PLGSharepointClient#getListFields(String)
+	 */
+	CompletableFuture<JSONObject> getListFields(String title);
+
+	/**
+	 * @see PLGSharepointClient#createList(String, String)
+	 */
+	CompletableFuture<JSONObject> createList(String listTitle, String description);
+
+	/**
+	 * @see PLGSharepointClient#updateList(String, String)
+	 */
+	CompletableFuture<JSONObject> updateList(String listTitle, String newDescription);
+
+	/**
+	 * @see PLGSharepointClient#getListItems(String, String, String)
+	 */
+	CompletableFuture<JSONObject> getListItems(String title, String jsonExtendedAttrs, String filter);
+
+	/**
+	 * @see PLGSharepointClient#getListItem(String, int, String, String)
+	 */
+	CompletableFuture<JSONObject> getListItem(String title, int itemId, String jsonExtendedAttrs, String query);
+
+	/**
+	 * @see PLGSharepointClient#getFolderByRelativeUrl(String, String)
+	 */
+	CompletableFuture<JSONObject> getFolderByRelativeUrl(String folder, String jsonExtendedAttrs);
+
+	/**
+	 * @see PLGSharepointClient#getFolderFoldersByRelativeUrl(String, String)
+	 */
+	CompletableFuture<JSONObject> getFolderFoldersByRelativeUrl(String folder, String jsonExtendedAttrs);
+
+	/**
+	 * @see PLGSharepointClient#getFolderFilesByRelativeUrl(String, String)
+	 */
+	CompletableFuture<JSONObject> getFolderFilesByRelativeUrl(String folder, String jsonExtendedAttrs);
+
+	/**
+	 * @see PLGSharepointClient#deleteFile(String)
+	 */
+	CompletableFuture<Boolean> deleteFile(String fileServerRelativeUrl);
+
+	/**
+	 * @see PLGSharepointClient#getFileInfo(String)
+	 */
+	CompletableFuture<JSONObject> getFileInfo(String fileServerRelativeUrl);
+
+	/**
+	 * @see PLGSharepointClient#downloadFile(String)
+	 */
+	CompletableFuture<InputStreamResource> downloadFile(String fileServerRelativeUrl);
+
+	/**
+	 * @see PLGSharepointClient#downloadFileWithResponse(String)
+	 */
+	CompletableFuture<ResponseEntity<InputStreamResource>> downloadFileWithResponse(String fileServerRelativeUrl);
+
+	/**
+	 * @see PLGSharepointClient#uploadFile(String, Resource, JSONObject)
+	 */
+	CompletableFuture<JSONObject> uploadFile(String folder, Resource resource, JSONObject jsonMetadata);
+
+	/**
+	 * @see PLGSharepointClient#uploadFile(String, Resource, String, JSONObject)
+	 */
+	CompletableFuture<JSONObject> uploadFile(String folder, Resource resource, String fileName, JSONObject jsonMetadata);
+
+	/**
+	 * @see PLGSharepointClient#updateFileMetadata(String, JSONObject)
+	 */
+	CompletableFuture<JSONObject> updateFileMetadata(String fileServerRelatUrl, JSONObject jsonMetadata);
+
+	/**
+	 * @see PLGSharepointClient#updateFolderMetadata(String, JSONObject)
+	 */
+	CompletableFuture<JSONObject> updateFolderMetadata(String folderServerRelatUrl, JSONObject jsonMetadata);
+
+	/**
+	 * @see PLGSharepointClient#breakRoleInheritance(String)
+	 */
+	CompletableFuture<JSONObject> breakRoleInheritance(String folder);
+
+	/**
+	 * @see PLGSharepointClient#createFolder(String, String, JSONObject)
+	 */
+	CompletableFuture<JSONObject> createFolder(String baseFolderRemoteRelativeUrl, String folder, JSONObject payload);
+
+	/**
+	 * @see PLGSharepointClient#moveFolder(String, String)
+	 */
+	CompletableFuture<JSONObject> moveFolder(String sourceRelativeServerUrl, String destinyRelativeServerUrl);
+
+	/**
+	 * @see PLGSharepointClient#moveFile(String, String)
+	 */
+	CompletableFuture<JSONObject> moveFile(String sourceRelativeServerUrl, String destinyRelativeServerUrl);
+
+	/**
+	 * @see PLGSharepointClient#removeFolder(String)
+	 */
+	CompletableFuture<Boolean> removeFolder(String folderRemoteRelativeUrl);
+
+	/**
+	 * @see PLGSharepointClient#grantPermissionToUsers(String, List, Permission)
+	 */
+	CompletableFuture<Boolean> grantPermissionToUsers(String folder, List<String> users, Permission permission);
+
+	/**
+	 * @see PLGSharepointClient#getFolderPermissions(String)
+	 */
+	CompletableFuture<JSONObject> getFolderPermissions(String folder);
+
+	/**
+	 * @see PLGSharepointClient#removePermissionToFolder(String, Permission)
+	 */
+	CompletableFuture<Boolean> removePermissionToFolder(String folder, Permission permission);
+
+	/**
+	 * @see PLGSharepointClient#removePermissionToUsers(String, List, Permission)
+	 */
+	CompletableFuture<Boolean> removePermissionToUsers(String folder, List<String> users, Permission permission);
+
+	/**
+	 * @see PLGSharepointClient#getFolderFilesByRelativeUrl(String)
+	 */
+	CompletableFuture<JSONObject> getFolderFilesByRelativeUrl(String folderServerRelativeUrl);
+
+	/**
+	 * @see PLGSharepointClient#uploadBigFile(String, Resource, JSONObject, int)
+	 */
+	CompletableFuture<JSONObject> uploadBigFile(String folder, Resource resource, JSONObject jsonMetadata, int chunkFileSize);
+
+	/**
+	 * @see PLGSharepointClient#uploadBigFile(String, Resource, JSONObject, int, String)
+	 */
+	CompletableFuture<JSONObject> uploadBigFile(String folder, Resource resource, JSONObject jsonMetadata, int chunkFileSize, String fileName);
+
+	/**
+	 * @see PLGSharepointClient#updateListItem(String, int, String, JSONObject)
+	 */
+	CompletableFuture<Boolean> updateListItem(String listTitle, int itemId, String itemType, JSONObject data);
+
+	/**
+	 * @see PLGSharepointClient#createListItem(String, String, JSONObject)
+	 */
+	CompletableFuture<JSONObject> createListItem(String listTitle, String itemType, JSONObject data);
+}
@@ -0,0 +1,241 @@
+package com.panxoloto.sharepoint.rest;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.json.JSONObject;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.ResponseEntity;
+
+import com.panxoloto.sharepoint.rest.helper.Permission;
+
+/**
+ * {@link PLGSharepointAsyncClient} running the operations of a blocking {@link PLGSharepointClient} on an
+ * executor. By default every operation runs on its own virtual thread, so waiting for the server doesn't hold
+ * a platform thread and many calls can be in flight at the same time. The number of concurrent requests is
+ * still bounded by the connection pool of the wrapped client.
+ */
+public class PLGSharepointAsyncClientAdapter implements PLGSharepointAsyncClient {
+
+	private static final ExecutorService VIRTUAL_THREADS = Executors.newVirtualThreadPerTaskExecutor();
+
+	/**
+	 * Blocking call run by the executor.
+	 */
+	@FunctionalInterface
+	private interface Call<T> {
+		T call() throws Exception;
+	}
+
+	private final PLGSharepointClient client;
+	private final Executor executor;
+
+	/**
+	 * @param client client performing the requests.
+	 */
+	public PLGSharepointAsyncClientAdapter(PLGSharepointClient client) {
+		this(client, VIRTUAL_THREADS);
+	}
+
+	/**
+	 * @param client client performing the requests.
+	 * @param executor executor running the blocking calls.
+	 */
+	public PLGSharepointAsyncClientAdapter(PLGSharepointClient client, Executor executor) {
+		this.client = Objects.requireNonNull(client);
+		this.executor = Objects.requireNonNull(executor);
+	}
+
+	/**
+	 * @return the wrapped blocking client.
+	 */
+	public PLGSharepointClient getClient() {
+		return client;
+	}
+
+	private <T> CompletableFuture<T> async(Call<T> call) {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return call.call();
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new CompletionException(e);
+			}
+		}, executor);
+	}
+
+	@Override
+	public CompletableFuture<Void> refreshToken() {
+		return async(() -> {
+			client.refreshToken();
+			return null;
+		});
+	}
+
+	@Override
+	public CompletableFuture<JSONObject> getAllLists(String data) {
+		return async(() -> client.getAllLists(data));
+	}
+
+	@Override
+	public CompletableFuture<JSONObject> getListByTitle(String title, String jsonExtendedAttrs) {
+		return async(() -> client.getListByTitle(title, jsonExtendedAttrs));
+	}
+
+	@Override
+	public CompletableFuture<JSONObject> getListFields(String title) {
+		return async(() -> client.getListFields(title));
+	}
+
+	@Override
+	public CompletableFuture<JSONObject> createList(String listTitle, String description) {
+		return async(() -> client.createList(listTitle, description));
+	}
+
+	@Override
+	public CompletableFuture<JSONObject> updateList(String listTitle, String newDescription) {
+		return async(() -> client.updateList(listTitle, newDescription));
+	}
+
+	@Override
+	public CompletableFuture<JSONObject> getListItems(String title, String jsonExtendedAttrs, String filter) {
+		return async(() -> client.getListItems(title, jsonExtendedAttrs, filter));
+	}
+
+	@Override
+	public CompletableFuture<JSONObject> getListItem(String title, int itemId, String jsonExtendedAttrs, String query) {
+		return async(() -> client.getListItem(title, itemId, jsonExtendedAttrs, query));
+	}
+
+	@Override
+	public CompletableFuture<JSONObject> getFolderByRelativeUrl(String folder, String jsonExtendedAttrs) {
+		return async(() -> client.getFolderByRelativeUrl(folder, jsonExtendedAttrs));
+	}
+
+	@Override
+	public CompletableFuture<JSONObject> getFolderFoldersByRelativeUrl(String folder, String jsonExtendedAttrs) {
+		return async(() -> client.getFolderFoldersByRelativeUrl(folder, jsonExtendedAttrs));
+	}
+
+	@Override
+	public CompletableFuture<JSONObject> getFolderFilesByRelativeUrl(String folder, String jsonExtendedAttrs) {
+		return async(() -> client.getFolderFilesByRelativeUrl(folder, jsonExtendedAttrs));
+	}
+
+	@Override
+	public CompletableFuture<Boolean> deleteFile(String fileServerRelativeUrl) {
+		return async(() -> client.deleteFile(fileServerRelativeUrl));
+	}
+
+	@Override
+	public CompletableFuture<JSONObject> getFileInfo(String fileServerRelativeUrl) {
+		return async(() -> client.getFileInfo(fileServerRelativeUrl));
+	}
+
+	@Override
+	public CompletableFuture<InputStreamResource> downloadFile(String fileServerRelativeUrl) {
+		return async(() -> client.downloadFile(fileServerRelativeUrl));
+	}
+
+	@Override
+	public CompletableFuture<ResponseEntity<InputStreamResource>> downloadFileWithResponse(String fileServerRelativeUrl) {
+		return async(() -> client.downloadFileWithResponse(fileServerRelativeUrl));
+	}
+
+	@Override
+	public CompletableFuture<JSONObject> uploadFile(String folder, Resource resource, JSONObject jsonMetadata) {
+		return async(() -> client.uploadFile(folder, resource, jsonMetadata));
+	}
+
+	@Override
+	public CompletableFuture<JSONObject> uploadFile(String folder, Resource resource, String fileName, JSONObject jsonMetadata) {
+		return async(() -> client.uploadFile(folder, resource, fileName, jsonMetadata));
+	}
+
+	@Override
+	public CompletableFuture<JSONObject> updateFileMetadata(String fileServerRelatUrl, JSONObject jsonMetadata) {
+		return async(() -> client.updateFileMetadata(fileServerRelatUrl, jsonMetadata));
+	}
+
+	@Override
+	public CompletableFuture<JSONObject> updateFolderMetadata(String folderServerRelatUrl, JSONObject jsonMetadata) {
+		return async(() -> client.updateFolderMetadata(folderServerRelatUrl, jsonMetadata));
+	}
+
+	@Override
+	public CompletableFuture<JSONObject> breakRoleInheritance(String folder) {
+		return async(() -> client.breakRoleInheritance(folder));
+	}
+
+	@Override
+	public CompletableFuture<JSONObject> createFolder(String baseFolderRemoteRelativeUrl, String folder, JSONObject payload) {
+		return async(() -> client.createFolder(baseFolderRemoteRelativeUrl, folder, payload));
+	}
+
+	@Override
+	public CompletableFuture<JSONObject> moveFolder(String sourceRelativeServerUrl, String destinyRelativeServerUrl) {
+		return async(() -> client.moveFolder(sourceRelativeServerUrl, destinyRelativeServerUrl));
+	}
+
+	@Override
+	public CompletableFuture<JSONObject> moveFile(String sourceRelativeServerUrl, String destinyRelativeServerUrl) {
+		return async(() -> client.moveFile(sourceRelativeServerUrl, destinyRelativeServerUrl));
+	}
+
+	@Override
+	public CompletableFuture<Boolean> removeFolder(String folderRemoteRelativeUrl) {
+		return async(() -> client.removeFolder(folderRemoteRelativeUrl));
+	}
+
+	@Override
+	public CompletableFuture<Boolean> grantPermissionToUsers(String folder, List<String> users, Permission permission) {
+		return async(() -> client.grantPermissionToUsers(folder, users, permission));
+	}
+
+	@Override
+	public CompletableFuture<JSONObject> getFolderPermissions(String folder) {
+		return async(() -> client.getFolderPermissions(folder));
+	}
+
+	@Override
+	public CompletableFuture<Boolean> removePermissionToFolder(String folder, Permission permission) {
+		return async(() -> client.removePermissionToFolder(folder, permission));
+	}
+
+	@Override
+	public CompletableFuture<Boolean> removePermissionToUsers(String folder, List<String> users, Permission permission) {
+		return async(() -> client.removePermissionToUsers(folder, users, permission));
+	}
+
+	@Override
+	public CompletableFuture<JSONObject> getFolderFilesByRelativeUrl(String folderServerRelativeUrl) {
+		return async(() -> client.getFolderFilesByRelativeUrl(folderServerRelativeUrl));
+	}
+
+	@Override
+	public CompletableFuture<JSONObject> uploadBigFile(String folder, Resource resource, JSONObject jsonMetadata, int chunkFileSize) {
+		return async(() -> client.uploadBigFile(folder, resource, jsonMetadata, chunkFileSize));
+	}
+
+	@Override
+	public CompletableFuture<JSONObject> uploadBigFile(String folder, Resource resource, JSONObject jsonMetadata, int chunkFileSize, String fileName) {
+		return async(() -> client.uploadBigFile(folder, resource, jsonMetadata, chunkFileSize, fileName));
+	}
+
+	@Override
+	public CompletableFuture<Boolean> updateListItem(String listTitle, int itemId, String itemType, JSONObject data) {
+		return async(() -> client.updateListItem(listTitle, itemId, itemType, data));
+	}
+
+	@Override
+	public CompletableFuture<JSONObject> createListItem(String listTitle, String itemType, JSONObject data) {
+		return async(() -> client.createListItem(listTitle, itemType, data));
+	}
+}
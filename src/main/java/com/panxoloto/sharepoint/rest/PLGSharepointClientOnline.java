@@ -3,9 +3,20 @@ package com.panxoloto.sharepoint.rest;
 import java.io.InputStream;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
 import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
@@ -20,27 +31,64 @@ import org.springframework.core.io.Resource;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.RequestEntity;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.ClientHttpRequestFactory;
 import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.util.MultiValueMap;
 import org.springframework.web.client.RestTemplate;
 
 import com.panxoloto.sharepoint.rest.helper.AuthTokenHelperOnline;
+import com.panxoloto.sharepoint.rest.helper.CredentialStore;
+import com.panxoloto.sharepoint.rest.helper.FileCredentialStore;
 import com.panxoloto.sharepoint.rest.helper.HeadersHelper;
+import com.panxoloto.sharepoint.rest.helper.ODataMetadata;
+import com.panxoloto.sharepoint.rest.helper.ODataQuery;
+import com.panxoloto.sharepoint.rest.helper.ODataResponse;
 import com.panxoloto.sharepoint.rest.helper.Permission;
 
+/**
+ * Client of a SharePoint Online site. A single instance can be shared by any number of threads: requests
+ * don't share mutable state and a token refresh replaces the session atomically.
+ */
 public class PLGSharepointClientOnline implements PLGSharepointClient {
 
 	private static final Logger LOG = LoggerFactory.getLogger(PLGSharepointClientOnline.class);
 	public static final String CONTENT_LENGTH = "Content-Length";
 	public static final String CONTENT_TYPE = "Content-Type";
 	public static final String ACCEPT = "Accept";
-	private MultiValueMap<String, String> headers;
 	private RestTemplate restTemplate;
 	private String spSiteUrl;
 	private AuthTokenHelperOnline tokenHelper;
 	private HeadersHelper headerHelper;
+	private volatile Executor prefetchExecutor = PREFETCH_EXECUTOR;
+	private RetryInterceptor retryInterceptor = new RetryInterceptor();
+	private AdaptiveConcurrencyLimiter concurrencyLimiter = new AdaptiveConcurrencyLimiter();
+	private CredentialStore credentialStore;
+	private InitMode initMode = InitMode.EAGER;
+
+	/**
+	 * When a client signs in.
+	 */
+	public enum InitMode {
+		/** The constructor signs in, and fails if the sign in fails. */
+		EAGER,
+		/** The first request signs in, the constructor sends no request. */
+		LAZY,
+		/**
+		 * The constructor returns at once, the sign in and a first connection to the site run in background;
+		 * requests sent meanwhile wait for the sign in. Many clients start in parallel.
+		 */
+		BACKGROUND
+	}
 
 	private static final String METADATA = "__metadata";
+	private static final int MAX_PAGE_SIZE = 5000;
+	private static final int IDS_PER_REQUEST = 50;
+	private static final int BULK_PARALLELISM = 4;
+	private static final Executor PREFETCH_EXECUTOR = Executors.newCachedThreadPool(r -> {
+		Thread t = new Thread(r, "sharepoint-prefetch");
+		t.setDaemon(true);
+		return t;
+	});
 
 	/**
 	 * @param spSiteUr.- The sharepoint site URL like https://contoso.sharepoint.com/sites/contososite
@@ -72,30 +120,152 @@ public class PLGSharepointClientOnline implements PLGSharepointClient {
 
 	}
 
+	/**
+	 * Builds a client sending the requests of the site through the given transport, like an
+	 * {@link AsyncClientHttpRequestFactory} to share a few HTTP/2 connections between many concurrent requests.
+	 * Authentication requests outside the site still use a default blocking client.
+	 *
+	 * @param requestFactory transport of the requests of the site.
+	 */
+	public PLGSharepointClientOnline(String user, String passwd, String domain, String site, boolean useClienId,
+									 ClientHttpRequestFactory requestFactory) throws Exception {
+		super();
+		init(user, passwd, domain, site, useClienId, HttpClients::custom, requestFactory, null, null, null, null);
+	}
+
+	/**
+	 * Builds a client reusing the session or app token saved in the given store by a previous run while they
+	 * are valid, like a {@link FileCredentialStore}, and saving the new ones to it.
+	 *
+	 * @param credentialStore store of the credentials.
+	 */
+	public PLGSharepointClientOnline(String user, String passwd, String domain, String site, boolean useClienId,
+									 CredentialStore credentialStore) throws Exception {
+		super();
+		this.credentialStore = credentialStore;
+		init(user, passwd, domain, site, useClienId, HttpClients::custom, null, null, null, null);
+	}
+
+	/**
+	 * Builds a client signing in {@link InitMode#LAZY on first use} or {@link InitMode#BACKGROUND in background}
+	 * instead of in the constructor, so that clients of many sites start without waiting for each sign in.
+	 * A failed sign in is reported to the requests, and tried again by the next one.
+	 *
+	 * @param initMode when the client signs in.
+	 * @param credentialStore store of the credentials, may be null.
+	 */
+	public PLGSharepointClientOnline(String user, String passwd, String domain, String site, boolean useClienId,
+									 InitMode initMode, CredentialStore credentialStore) throws Exception {
+		super();
+		this.initMode = initMode;
+		this.credentialStore = credentialStore;
+		init(user, passwd, domain, site, useClienId, HttpClients::custom, null, null, null, null);
+	}
+
+	/**
+	 * Wires a client on an already built token helper, which must have been initialized. Throttled requests
+	 * are retried, and requests rejected for an expired session are signed in again and replayed, when the
+	 * template is a {@link StreamRestTemplate}.
+	 */
+	PLGSharepointClientOnline(RestTemplate restTemplate, AuthTokenHelperOnline tokenHelper, String spSiteUrl) {
+		super();
+		this.restTemplate = restTemplate;
+		this.spSiteUrl = spSiteUrl;
+		this.tokenHelper = tokenHelper;
+		this.headerHelper = new HeadersHelper(this.tokenHelper);
+		if (restTemplate instanceof StreamRestTemplate) {
+			((StreamRestTemplate) restTemplate).addReplayInterceptor(this.retryInterceptor);
+			((StreamRestTemplate) restTemplate).addReplayInterceptor(new ReauthenticationInterceptor(this.tokenHelper, this.headerHelper));
+			((StreamRestTemplate) restTemplate).addReplayInterceptor(this.concurrencyLimiter);
+		}
+	}
+
+	/**
+	 * Wires a client of a site of a {@link PLGSharepointSiteRegistry} on the template, the interceptors and
+	 * the token helper shared by every site of the registry.
+	 */
+	PLGSharepointClientOnline(StreamRestTemplate restTemplate, AuthTokenHelperOnline tokenHelper, String spSiteUrl,
+							  RetryInterceptor retryInterceptor, AdaptiveConcurrencyLimiter concurrencyLimiter) {
+		super();
+		this.restTemplate = restTemplate;
+		this.spSiteUrl = spSiteUrl;
+		this.tokenHelper = tokenHelper;
+		this.headerHelper = new HeadersHelper(this.tokenHelper);
+		this.retryInterceptor = retryInterceptor;
+		this.concurrencyLimiter = concurrencyLimiter;
+	}
+
+	/**
+	 * @return the site URI with a leading slash and without a trailing one.
+	 */
+	static String normalizeSiteUrl(String spSiteUrl) {
+		if (spSiteUrl.endsWith("/")) {
+			LOG.debug("spSiteUri ends with /, removing character");
+			spSiteUrl = spSiteUrl.substring(0, spSiteUrl.length() - 1);
+		}
+		if (!spSiteUrl.startsWith("/")) {
+			LOG.debug("spSiteUri doesnt start with /, adding character");
+			spSiteUrl = String.format("%s%s", "/", spSiteUrl);
+		}
+		return spSiteUrl;
+	}
+
 	private void init(String user, String passwd, String domain, String spSiteUrl, boolean useClienId,
 					  Supplier<HttpClientBuilder> httpClientBuilderSupplier,
 					  String cert, String certPasswd, String tenant, String scope) throws Exception {
 		CloseableHttpClient httpClient = httpClientBuilderSupplier.get().build();
 		HttpComponentsClientHttpRequestFactory requestFactory = new HttpComponentsClientHttpRequestFactory();
 		requestFactory.setHttpClient(httpClient);
-		this.restTemplate = new StreamRestTemplate(requestFactory);
+		init(user, passwd, domain, spSiteUrl, useClienId, httpClientBuilderSupplier, requestFactory, cert, certPasswd, tenant, scope);
+	}
 
-		this.spSiteUrl = spSiteUrl;
-		if (this.spSiteUrl.endsWith("/")) {
-			LOG.debug("spSiteUri ends with /, removing character");
-			this.spSiteUrl = this.spSiteUrl.substring(0, this.spSiteUrl.length() - 1);
-		}
-		if (!this.spSiteUrl.startsWith("/")) {
-			LOG.debug("spSiteUri doesnt start with /, adding character");
-			this.spSiteUrl = String.format("%s%s", "/", this.spSiteUrl);
-		}
+	private void init(String user, String passwd, String domain, String spSiteUrl, boolean useClienId,
+					  Supplier<HttpClientBuilder> httpClientBuilderSupplier, ClientHttpRequestFactory requestFactory,
+					  String cert, String certPasswd, String tenant, String scope) throws Exception {
+		StreamRestTemplate restTemplate = new StreamRestTemplate(requestFactory);
+		// the retries wrap the sign in again, a replay after a sign in may be throttled too
+		restTemplate.addReplayInterceptor(this.retryInterceptor);
+		this.restTemplate = restTemplate;
+
+		this.spSiteUrl = normalizeSiteUrl(spSiteUrl);
 		if (useClienId) {
 			this.tokenHelper = new AuthTokenHelperOnline(true, this.restTemplate, user, passwd, domain, spSiteUrl, httpClientBuilderSupplier, cert, certPasswd, tenant, scope);
 		} else {
 			this.tokenHelper = new AuthTokenHelperOnline(this.restTemplate, user, passwd, domain, spSiteUrl, httpClientBuilderSupplier);
 		}
-		this.tokenHelper.init();
+		this.tokenHelper.setCredentialStore(this.credentialStore);
+		if (initMode == InitMode.EAGER) {
+			this.tokenHelper.init();
+		}
 		this.headerHelper = new HeadersHelper(this.tokenHelper);
+		restTemplate.addReplayInterceptor(new ReauthenticationInterceptor(this.tokenHelper, this.headerHelper));
+		// innermost, no slot is held while waiting to retry or signing in again
+		restTemplate.addReplayInterceptor(this.concurrencyLimiter);
+		if (initMode == InitMode.BACKGROUND) {
+			initializeAsync();
+			PREFETCH_EXECUTOR.execute(this::warmUp);
+		}
+	}
+
+	/**
+	 * Starts signing in in background, unless the client is already signed in or signing in.
+	 *
+	 * @return completed once the client is signed in.
+	 */
+	public CompletableFuture<Void> initializeAsync() {
+		return this.tokenHelper.initAsync();
+	}
+
+	/**
+	 * Opens a first connection to the site, TLS handshake included, while the client signs in. The anonymous
+	 * request is expected to be rejected.
+	 */
+	private void warmUp() {
+		try {
+			restTemplate.headForHeaders(this.tokenHelper.getSharepointSiteUrl("/_api/web"));
+		} catch (Exception e) {
+			LOG.debug("Connection warm up: {}", e.getMessage());
+		}
 	}
 
 
@@ -118,7 +288,7 @@ public class PLGSharepointClientOnline implements PLGSharepointClient {
 	@Override
 	public JSONObject getAllLists(String data) throws Exception {
 		LOG.debug("getAllLists {}", data);
-	    headers = headerHelper.getGetHeaders(false);
+	    MultiValueMap<String, String> headers = headerHelper.getGetHeadersTemplate(false);
 
 	    RequestEntity<String> requestEntity = new RequestEntity<>(data, 
 	        headers, HttpMethod.GET, 
@@ -134,7 +304,7 @@ public class PLGSharepointClientOnline implements PLGSharepointClient {
     @Override
     public JSONObject getListByTitle(String title, String jsonExtendedAttrs) throws Exception {
         LOG.debug("getListByTitle {} jsonExtendedAttrs {}", title, jsonExtendedAttrs);
-        headers = headerHelper.getGetHeaders(false);
+        MultiValueMap<String, String> headers = headerHelper.getGetHeadersTemplate(false);
 
         RequestEntity<String> requestEntity = new RequestEntity<>(jsonExtendedAttrs,
                 headers, HttpMethod.GET,
@@ -148,10 +318,23 @@ public class PLGSharepointClientOnline implements PLGSharepointClient {
     }
 
 
+    /**
+     * Retrieves list info by list title.
+     *
+     * @param title Site list title to query info.
+     * @param query OData query options, like the list properties to select.
+     * @return json with list information.
+     * @throws Exception
+     */
+    public JSONObject getListByTitle(String title, ODataQuery query) throws Exception {
+        LOG.debug("getListByTitle {} query {}", title, query);
+        return getJson(this.tokenHelper.getSharepointSiteUrl("/_api/web/lists/GetByTitle('" + title + "')", query));
+    }
+
     @Override
     public JSONObject getListFields(String title) throws Exception {
         LOG.debug("getListByTitle {} ", title);
-        headers = headerHelper.getGetHeaders(false);
+        MultiValueMap<String, String> headers = headerHelper.getGetHeadersTemplate(false);
 
         RequestEntity<String> requestEntity = new RequestEntity<>("{}",
                 headers, HttpMethod.GET,
@@ -179,7 +362,7 @@ public class PLGSharepointClientOnline implements PLGSharepointClient {
         payload.put("Title", listTitle);
 
         String payloadStr = payload.toString();
-        headers = headerHelper.getPostHeaders(payloadStr);
+        MultiValueMap<String, String> headers = headerHelper.getPostHeadersTemplate();
 
         RequestEntity<String> requestEntity = new RequestEntity<>(payloadStr,
                 headers, HttpMethod.POST,
@@ -202,7 +385,7 @@ public class PLGSharepointClientOnline implements PLGSharepointClient {
         }
 
         String payloadStr = payload.toString();
-        headers = headerHelper.getUpdateHeaders(payloadStr);
+        MultiValueMap<String, String> headers = headerHelper.getUpdateHeadersTemplate();
 
         RequestEntity<String> requestEntity = new RequestEntity<>(payloadStr,
                 headers, HttpMethod.POST,
@@ -216,33 +399,398 @@ public class PLGSharepointClientOnline implements PLGSharepointClient {
     @Override
     public JSONObject getListItems(String title, String jsonExtendedAttrs, String filter) throws Exception {
         LOG.debug("getListItems from list {} jsonExtendedAttrs {}", title, jsonExtendedAttrs);
-        headers = headerHelper.getGetHeaders(true);
+        return resultsResponse(readAll(iterateListItemPages(title, filter)));
+    }
 
-        URI request = this.tokenHelper.getSharepointSiteUrl("/_api/lists/GetByTitle('" + title + "')/items", filter);
-        JSONArray results = new JSONArray();
-        while (request != null) {
-            RequestEntity<String> requestEntity = new RequestEntity<>(jsonExtendedAttrs,
-                    headers, HttpMethod.GET, request);
+    /**
+     * Get all the items from the list, following every page of the query.
+     *
+     * @param title Title of the list to query info.
+     * @param query OData query options, like the fields to select and the filter of the items.
+     * @return JSON of the list items.
+     * @throws Exception
+     */
+    public JSONObject getListItems(String title, ODataQuery query) throws Exception {
+        LOG.debug("getListItems from list {} query {}", title, query);
+        return resultsResponse(readAll(iterateListItemPages(title, query)));
+    }
 
-            ResponseEntity<String> responseEntity = restTemplate.exchange(requestEntity, String.class);
-            if (requestEntity.hasBody()) {
-                JSONObject temp = new JSONObject(Objects.requireNonNull(responseEntity.getBody())).getJSONObject("d");
-                temp.getJSONArray("results").forEach(results::put);
-                if (temp.has("__next")) {
-                    LOG.debug("There's another part. Let's explore it.");
-                    request = new URI(temp.getString("__next"));
-                } else request = null;
-            }
-            else request = null;
+    /**
+     * Lazy version of {@link #getListItems(String, String, String)}: every page of the query is requested only
+     * when the previous one has been consumed, so the first page is available after a single round trip.
+     *
+     * @param title Title of the list to query info.
+     * @param filter Filter for the items, may be null.
+     * @return iterator over the pages (results arrays) of the query.
+     * @throws Exception
+     */
+    public Iterator<JSONArray> iterateListItemPages(String title, String filter) throws Exception {
+        LOG.debug("iterateListItemPages from list {} filter {}", title, filter);
+        return new ListItemPageIterator(this::getJson, listItemsUrl(title, filter));
+    }
+
+    /**
+     * Lazy cursor over the pages of a list items query, see {@link #iterateListItemPages(String, String)}.
+     *
+     * @param title Title of the list to query info.
+     * @param query OData query options, may be null.
+     * @return iterator over the pages (results arrays) of the query.
+     * @throws Exception
+     */
+    public Iterator<JSONArray> iterateListItemPages(String title, ODataQuery query) throws Exception {
+        LOG.debug("iterateListItemPages from list {} query {}", title, query);
+        return new ListItemPageIterator(this::getJson, listItemsUrl(title, query));
+    }
+
+    /**
+     * Lazy iterator over every item of a list query.
+     *
+     * @param title Title of the list to query info.
+     * @param query OData query options, may be null.
+     * @return iterator over the list items.
+     * @throws Exception
+     */
+    public Iterator<JSONObject> iterateListItems(String title, ODataQuery query) throws Exception {
+        return new ListItemIterator(iterateListItemPages(title, query));
+    }
+
+    /**
+     * Read-ahead cursor over the pages of a list items query, see {@link #iterateListItemPages(String, String, int)}.
+     *
+     * @param title Title of the list to query info.
+     * @param query OData query options, may be null.
+     * @param readAhead maximum number of pages fetched ahead of the caller.
+     * @return closeable iterator over the pages of the query.
+     * @throws Exception
+     */
+    public PrefetchingIterator<JSONArray> iterateListItemPages(String title, ODataQuery query, int readAhead) throws Exception {
+        return new PrefetchingIterator<>(iterateListItemPages(title, query), readAhead, prefetchExecutor);
+    }
+
+    /**
+     * Lazy iterator over every item of a list query, see {@link #iterateListItemPages(String, String)}.
+     *
+     * @param title Title of the list to query info.
+     * @param filter Filter for the items, may be null.
+     * @return iterator over the list items.
+     * @throws Exception
+     */
+    public Iterator<JSONObject> iterateListItems(String title, String filter) throws Exception {
+        return new ListItemIterator(iterateListItemPages(title, filter));
+    }
+
+    /**
+     * Sequential stream over every item of a list query, pages are requested as the stream is consumed.
+     *
+     * @param title Title of the list to query info.
+     * @param filter Filter for the items, may be null.
+     * @return stream of list items.
+     * @throws Exception
+     */
+    public Stream<JSONObject> streamListItems(String title, String filter) throws Exception {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterateListItems(title, filter), Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Same as {@link #iterateListItemPages(String, String)} but pages are requested in background on the
+     * prefetch executor: as soon as a page arrives the request of the next one starts, keeping up to
+     * <code>readAhead</code> pages buffered ahead of the caller. Close the returned iterator if it is not
+     * consumed until the end.
+     *
+     * @param title Title of the list to query info.
+     * @param filter Filter for the items, may be null.
+     * @param readAhead maximum number of pages fetched ahead of the caller.
+     * @return closeable iterator over the pages of the query.
+     * @throws Exception
+     */
+    public PrefetchingIterator<JSONArray> iterateListItemPages(String title, String filter, int readAhead) throws Exception {
+        return new PrefetchingIterator<>(iterateListItemPages(title, filter), readAhead, prefetchExecutor);
+    }
+
+    /**
+     * Item iterator over {@link #iterateListItemPages(String, String, int)}. Close it if it is not consumed
+     * until the end.
+     *
+     * @param title Title of the list to query info.
+     * @param filter Filter for the items, may be null.
+     * @param readAhead maximum number of pages fetched ahead of the caller.
+     * @return closeable iterator over the list items.
+     * @throws Exception
+     */
+    public ListItemIterator iterateListItems(String title, String filter, int readAhead) throws Exception {
+        return new ListItemIterator(iterateListItemPages(title, filter, readAhead));
+    }
+
+    /**
+     * Stream over {@link #iterateListItems(String, String, int)}, closing the stream stops the prefetch.
+     *
+     * @param title Title of the list to query info.
+     * @param filter Filter for the items, may be null.
+     * @param readAhead maximum number of pages fetched ahead of the caller.
+     * @return stream of list items.
+     * @throws Exception
+     */
+    public Stream<JSONObject> streamListItems(String title, String filter, int readAhead) throws Exception {
+        ListItemIterator items = iterateListItems(title, filter, readAhead);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(items, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(items::close);
+    }
+
+    /**
+     * Reads a list concurrently, splitting it in windows of <code>windowSize</code> IDs (from 1 to the highest
+     * item ID of the list) that are requested in parallel on the prefetch executor. No more than
+     * <code>parallelism</code> windows are in flight or buffered at the same time. Close the returned iterator
+     * if it is not consumed until the end.
+     *
+     * @param title Title of the list to query info.
+     * @param filter Filter for the items, may be null. It is combined with the ID range of each window.
+     * @param windowSize number of IDs covered by each request, up to 5000 to be fetched in a single page.
+     * @param parallelism maximum number of concurrent window requests.
+     * @param ordered true to get the items in ascending ID order, false to get them as windows complete.
+     * @return closeable iterator over the list items.
+     * @throws Exception
+     */
+    public ListItemIterator scanListItems(String title, String filter, int windowSize, int parallelism, boolean ordered) throws Exception {
+        ODataQuery query = new ODataQuery();
+        if (filter != null && !filter.isEmpty()) {
+            query.filter(filter.replaceFirst("^\\$filter=", ""));
         }
-        return new JSONObject("{\"d\":{\"results\":" + results + "}}");
+        return scanListItems(title, query, windowSize, parallelism, ordered);
+    }
+
+    /**
+     * Parallel read of a list, see {@link #scanListItems(String, String, int, int, boolean)}.
+     *
+     * @param title Title of the list to query info.
+     * @param query OData query options, may be null. Its filter is combined with the ID range of each window,
+     *              $top, $orderby and $skiptoken are replaced.
+     * @param windowSize number of IDs covered by each request, up to 5000 to be fetched in a single page.
+     * @param parallelism maximum number of concurrent window requests.
+     * @param ordered true to get the items in ascending ID order, false to get them as windows complete.
+     * @return closeable iterator over the list items.
+     * @throws Exception
+     */
+    public ListItemIterator scanListItems(String title, ODataQuery query, int windowSize, int parallelism, boolean ordered) throws Exception {
+        LOG.debug("scanListItems from list {} query {} windowSize {} parallelism {}", title, query, windowSize, parallelism);
+        ODataQuery baseQuery = query == null ? new ODataQuery() : query;
+        long maxId = getMaxListItemId(title);
+        ListItemRangeScan.WindowFetcher fetcher = (fromId, toId) ->
+                readAll(new ListItemPageIterator(this::getJson, listItemsUrl(title, windowQuery(baseQuery, fromId, toId, ordered))));
+        return new ListItemIterator(new ListItemRangeScan(fetcher, maxId, windowSize, parallelism, ordered, prefetchExecutor));
+    }
+
+    /**
+     * @return the query of the items of a window: the filter of the base query restricted to the IDs of the
+     * window, its ordering replaced by the ID when ordered and no paging token.
+     */
+    static ODataQuery windowQuery(ODataQuery baseQuery, long fromId, long toId, boolean ordered) {
+        String baseFilter = baseQuery.getFilter();
+        String range = "ID ge " + fromId + " and ID lt " + toId;
+        ODataQuery windowQuery = baseQuery.copy()
+                .filter(baseFilter == null || baseFilter.isEmpty() ? range : "(" + baseFilter + ") and " + range)
+                .top((int) Math.min(toId - fromId, MAX_PAGE_SIZE))
+                .skipToken(null)
+                .clearOrderBy();
+        if (ordered) {
+            windowQuery.orderBy("ID");
+        }
+        return windowQuery;
+    }
+
+    /**
+     * Stream over {@link #scanListItems(String, String, int, int, boolean)}, closing the stream cancels the
+     * pending requests.
+     *
+     * @param title Title of the list to query info.
+     * @param filter Filter for the items, may be null.
+     * @param windowSize number of IDs covered by each request.
+     * @param parallelism maximum number of concurrent window requests.
+     * @param ordered true to get the items in ascending ID order.
+     * @return stream of list items.
+     * @throws Exception
+     */
+    public Stream<JSONObject> streamScanListItems(String title, String filter, int windowSize, int parallelism, boolean ordered) throws Exception {
+        ListItemIterator items = scanListItems(title, filter, windowSize, parallelism, ordered);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(items, (ordered ? Spliterator.ORDERED : 0) | Spliterator.NONNULL), false)
+                .onClose(items::close);
+    }
+
+    /**
+     * @param title Title of the list to query info.
+     * @return highest item ID of the list, 0 when the list is empty.
+     * @throws Exception
+     */
+    public long getMaxListItemId(String title) throws Exception {
+        JSONArray results = ODataResponse.results(getJson(listItemsUrl(title, new ODataQuery().select("ID").orderBy("ID", false).top(1))));
+        return results.isEmpty() ? 0 : results.getJSONObject(0).getLong("ID");
+    }
+
+    /**
+     * @param title Title of the list to query info.
+     * @return the current change token of the list, changes made after it can be queried with
+     * {@link #getListChanges(String, String)}.
+     * @throws Exception
+     */
+    public String getListCurrentChangeToken(String title) throws Exception {
+        LOG.debug("getListCurrentChangeToken {}", title);
+        JSONObject response = getJson(this.tokenHelper.getSharepointSiteUrl("/_api/web/lists/GetByTitle('" + title + "')/CurrentChangeToken"));
+        JSONObject token = ODataResponse.entity(response);
+        return token.optJSONObject("CurrentChangeToken", token).getString("StringValue");
+    }
+
+    /**
+     * Retrieves the item changes (add, update, delete and restore) of a list after a change token.
+     * SharePoint returns a limited number of changes per call, query again starting from the token of the
+     * last returned change until no more changes are returned.
+     *
+     * @param title Title of the list to query info.
+     * @param changeTokenStart change token to start from, exclusive.
+     * @return JSON of the changes, each one with its ChangeType, ItemId and ChangeToken.
+     * @throws Exception
+     */
+    public JSONObject getListChanges(String title, String changeTokenStart) throws Exception {
+        LOG.debug("getListChanges {} changeTokenStart {}", title, changeTokenStart);
+        JSONObject tokenMeta = new JSONObject();
+        tokenMeta.put("type", "SP.ChangeToken");
+        JSONObject token = new JSONObject();
+        token.put(METADATA, tokenMeta);
+        token.put("StringValue", changeTokenStart);
+        JSONObject queryMeta = new JSONObject();
+        queryMeta.put("type", "SP.ChangeQuery");
+        JSONObject query = new JSONObject();
+        query.put(METADATA, queryMeta);
+        query.put("Item", true);
+        query.put("Add", true);
+        query.put("Update", true);
+        query.put("DeleteObject", true);
+        query.put("Restore", true);
+        query.put("ChangeTokenStart", token);
+        JSONObject payload = new JSONObject();
+        payload.put("query", query);
+
+        String payloadStr = payload.toString();
+        MultiValueMap<String, String> headers = headerHelper.getPostHeadersTemplate();
+        RequestEntity<String> requestEntity = new RequestEntity<>(payloadStr,
+                headers, HttpMethod.POST,
+                this.tokenHelper.getSharepointSiteUrl("/_api/web/lists/GetByTitle('" + title + "')/GetChanges")
+        );
+        ResponseEntity<String> responseEntity = restTemplate.exchange(requestEntity, String.class);
+        return new JSONObject(responseEntity.getBody());
+    }
+
+    /**
+     * Retrieves the items of a list with the given IDs, items that no longer exist are not returned.
+     *
+     * @param title Title of the list to query info.
+     * @param itemIds IDs of the items to retrieve.
+     * @return array with the found items.
+     * @throws Exception
+     */
+    public JSONArray getListItemsById(String title, Collection<Integer> itemIds) throws Exception {
+        JSONArray items = new JSONArray();
+        List<Integer> ids = new ArrayList<>(itemIds);
+        for (int from = 0; from < ids.size(); from += IDS_PER_REQUEST) {
+            String filter = ids.subList(from, Math.min(from + IDS_PER_REQUEST, ids.size())).stream()
+                    .map(id -> "ID eq " + id)
+                    .collect(Collectors.joining(" or "));
+            items.putAll(readAll(iterateListItemPages(title, new ODataQuery().filter(filter))));
+        }
+        return items;
+    }
+
+    /**
+     * Creates an incremental synchronizer of a list, its change token is saved in the store under the site
+     * URL followed by <code>#</code> and the list title.
+     *
+     * @param listTitle Title of the list to synchronize.
+     * @param store store of the change tokens, like {@link FileChangeTokenStore}.
+     * @return the synchronizer of the list.
+     * @throws Exception
+     */
+    public ListDeltaSync createListDeltaSync(String listTitle, ChangeTokenStore store) throws Exception {
+        return new ListDeltaSync(this, listTitle, store, this.tokenHelper.getSharepointSiteUrl("") + "#" + listTitle);
+    }
+
+    /**
+     * @return the retry policy of throttled requests (429 and 503) of this client, to tune it or read its
+     * counters of retries and waits.
+     */
+    public RetryInterceptor getRetryInterceptor() {
+        return this.retryInterceptor;
+    }
+
+    /**
+     * @return the limiter of the requests in flight of this client, adapting the limit to the throttling and
+     * latency of the server.
+     */
+    public AdaptiveConcurrencyLimiter getConcurrencyLimiter() {
+        return this.concurrencyLimiter;
+    }
+
+    /**
+     * @param prefetchExecutor executor running the background page requests of the read-ahead iterators and
+     *                         the window requests of the list scans and the requests of the bulk operations,
+     *                         by default a shared pool of daemon threads.
+     */
+    public void setPrefetchExecutor(Executor prefetchExecutor) {
+        this.prefetchExecutor = Objects.requireNonNull(prefetchExecutor);
+    }
+
+    /**
+     * Lighter formats (minimal or no metadata) drop the <code>d</code> wrapper, <code>__metadata</code> and the
+     * deferred links of every entity, so the JSON returned by the getters changes accordingly: read it with
+     * {@link ODataResponse}. The iterators, scans and synchronization of this client handle every format.
+     *
+     * @param metadata metadata level requested in the Accept header of every request, verbose by default.
+     */
+    public void setMetadata(ODataMetadata metadata) {
+        this.headerHelper.setMetadata(Objects.requireNonNull(metadata));
+    }
+
+    public ODataMetadata getMetadata() {
+        return this.headerHelper.getMetadata();
+    }
+
+    private URI listItemsUrl(String title, String filter) throws Exception {
+        String apiPath = "/_api/lists/GetByTitle('" + title + "')/items";
+        if (filter == null || filter.isEmpty()) {
+            return this.tokenHelper.getSharepointSiteUrl(apiPath);
+        }
+        return this.tokenHelper.getSharepointSiteUrl(apiPath, filter);
+    }
+
+    private URI listItemsUrl(String title, ODataQuery query) throws Exception {
+        return this.tokenHelper.getSharepointSiteUrl("/_api/lists/GetByTitle('" + title + "')/items", query);
+    }
+
+    private static JSONArray readAll(Iterator<JSONArray> pages) {
+        JSONArray results = new JSONArray();
+        while (pages.hasNext()) {
+            results.putAll(pages.next());
+        }
+        return results;
+    }
+
+    private static JSONObject resultsResponse(JSONArray results) {
+        JSONObject d = new JSONObject();
+        d.put("results", results);
+        JSONObject response = new JSONObject();
+        response.put("d", d);
+        return response;
+    }
+
+    private JSONObject getJson(URI url) throws Exception {
+        MultiValueMap<String, String> headers = headerHelper.getGetHeadersTemplate(true);
+        RequestEntity<Void> requestEntity = new RequestEntity<>(headers, HttpMethod.GET, url);
+        ResponseEntity<String> responseEntity = restTemplate.exchange(requestEntity, String.class);
+        return new JSONObject(Objects.requireNonNull(responseEntity.getBody()));
     }
 
 
     @Override
     public JSONObject getListItem(String title, int itemId, String jsonExtendedAttrs, String query) throws Exception {
         LOG.debug("getListItem {} itemId {} jsonExtendedAttrs {} query {}", title, itemId, jsonExtendedAttrs, query);
-        MultiValueMap<String, String> headers = headerHelper.getGetHeaders(true);
+        MultiValueMap<String, String> headers = headerHelper.getGetHeadersTemplate(true);
 
         RequestEntity<String> requestEntity = new RequestEntity<>(jsonExtendedAttrs,
                 headers, HttpMethod.GET,
@@ -255,18 +803,25 @@ public class PLGSharepointClientOnline implements PLGSharepointClient {
         return new JSONObject(responseEntity.getBody());
     }
 
+    /**
+     * Get a specific item from the list.
+     *
+     * @param title Title of the list to query info.
+     * @param itemId ID of the item.
+     * @param query OData query options, like the fields to select.
+     * @return JSON of the queried item.
+     * @throws Exception
+     */
+    public JSONObject getListItem(String title, int itemId, ODataQuery query) throws Exception {
+        LOG.debug("getListItem {} itemId {} query {}", title, itemId, query);
+        return getJson(this.tokenHelper.getSharepointSiteUrl("/_api/lists/GetByTitle('" + title + "')/items(" + itemId + ")", query));
+    }
+
     @Override
     public JSONObject createListItem(String listTitle, String itemType, JSONObject data) throws Exception {
         LOG.debug("updateListItem list {} itemType {} data {}", listTitle, itemType, data);
-        JSONObject payload = new JSONObject(data, JSONObject.getNames(data));
-        if (itemType != null && !payload.has(METADATA)) {
-            JSONObject meta = new JSONObject();
-            meta.put("type", itemType);
-            payload.put(METADATA, meta);
-        }
-
-        String payloadStr = payload.toString();
-        MultiValueMap<String, String> headers = headerHelper.getPostHeaders(payloadStr);
+        String payloadStr = itemPayload(data, itemType).toString();
+        MultiValueMap<String, String> headers = headerHelper.getPostHeadersTemplate();
 
         RequestEntity<String> requestEntity = new RequestEntity<>(payloadStr,
                 headers, HttpMethod.POST,
@@ -279,15 +834,8 @@ public class PLGSharepointClientOnline implements PLGSharepointClient {
     @Override
     public boolean updateListItem(String listTitle, int itemId, String itemType, JSONObject data) throws Exception {
         LOG.debug("updateListItem list {} itemId {} itemType {} data {}", listTitle, itemId, itemType, data);
-        JSONObject payload = new JSONObject(data, JSONObject.getNames(data));
-        if (itemType != null && !payload.has(METADATA)) {
-            JSONObject meta = new JSONObject();
-            meta.put("type", itemType);
-            payload.put(METADATA, meta);
-        }
-
-        String payloadStr = payload.toString();
-        MultiValueMap<String, String> headers = headerHelper.getUpdateHeaders(payloadStr);
+        String payloadStr = itemPayload(data, itemType).toString();
+        MultiValueMap<String, String> headers = headerHelper.getUpdateHeadersTemplate();
 
         RequestEntity<String> requestEntity = new RequestEntity<>(payloadStr,
                 headers, HttpMethod.POST,
@@ -298,10 +846,64 @@ public class PLGSharepointClientOnline implements PLGSharepointClient {
     }
 
 
+    /**
+     * Creates list items with {@value #BULK_PARALLELISM} concurrent requests, see
+     * {@link #createListItems(String, String, Iterable, int)}.
+     */
+    public List<BulkItemResult> createListItems(String listTitle, String itemType, Iterable<JSONObject> items) {
+        return createListItems(listTitle, itemType, items, BULK_PARALLELISM);
+    }
+
+    /**
+     * Creates list items with a bounded number of concurrent requests. A failed item doesn't stop the others,
+     * throttled requests (429, 503) are retried by the {@link #getRetryInterceptor() retry interceptor} of the client.
+     *
+     * @param listTitle title of the list.
+     * @param itemType type of the items, like SP.Data.MyListListItem.
+     * @param items fields of each item, read as they are sent.
+     * @param parallelism maximum number of concurrent requests.
+     * @return the outcome of each item, in the order of the input, with the id of the created items.
+     */
+    public List<BulkItemResult> createListItems(String listTitle, String itemType, Iterable<JSONObject> items, int parallelism) {
+        LOG.debug("createListItems list {} itemType {} parallelism {}", listTitle, itemType, parallelism);
+        BulkWriter<JSONObject> writer = new BulkWriter<>(data -> {
+            JSONObject created = ODataResponse.entity(createListItem(listTitle, itemType, data));
+            return created.has("Id") ? created.getInt("Id") : created.optInt("ID");
+        }, 201);
+        return writer.run(items, parallelism, this.prefetchExecutor);
+    }
+
+    /**
+     * Updates list items with {@value #BULK_PARALLELISM} concurrent requests, see
+     * {@link #updateListItems(String, String, Map, int)}.
+     */
+    public List<BulkItemResult> updateListItems(String listTitle, String itemType, Map<Integer, JSONObject> items) {
+        return updateListItems(listTitle, itemType, items, BULK_PARALLELISM);
+    }
+
+    /**
+     * Updates list items with a bounded number of concurrent requests. A failed item doesn't stop the others,
+     * throttled requests (429, 503) are retried by the {@link #getRetryInterceptor() retry interceptor} of the client.
+     *
+     * @param listTitle title of the list.
+     * @param itemType type of the items, like SP.Data.MyListListItem.
+     * @param items fields to update by item id.
+     * @param parallelism maximum number of concurrent requests.
+     * @return the outcome of each item, in the iteration order of the map.
+     */
+    public List<BulkItemResult> updateListItems(String listTitle, String itemType, Map<Integer, JSONObject> items, int parallelism) {
+        LOG.debug("updateListItems list {} itemType {} parallelism {}", listTitle, itemType, parallelism);
+        BulkWriter<Map.Entry<Integer, JSONObject>> writer = new BulkWriter<>(entry -> {
+            updateListItem(listTitle, entry.getKey(), itemType, entry.getValue());
+            return entry.getKey();
+        }, 204);
+        return writer.run(items.entrySet(), parallelism, this.prefetchExecutor);
+    }
+
     @Override
     public JSONObject getFolderByRelativeUrl(String folder, String jsonExtendedAttrs) throws Exception {
         LOG.debug("getFolderByRelativeUrl {} jsonExtendedAttrs {}", folder, jsonExtendedAttrs);
-        headers = headerHelper.getGetHeaders(false);
+        MultiValueMap<String, String> headers = headerHelper.getGetHeadersTemplate(false);
 
         RequestEntity<String> requestEntity = new RequestEntity<>(jsonExtendedAttrs,
                 headers, HttpMethod.GET,
@@ -314,10 +916,21 @@ public class PLGSharepointClientOnline implements PLGSharepointClient {
         return new JSONObject(responseEntity.getBody());
     }
 
+    /**
+     * @param folder folder server relative URL to retrieve (/SITEURL/folder)
+     * @param query OData query options, like the folder properties to select.
+     * @return JSONObject representing folder info.
+     * @throws Exception
+     */
+    public JSONObject getFolderByRelativeUrl(String folder, ODataQuery query) throws Exception {
+        LOG.debug("getFolderByRelativeUrl {} query {}", folder, query);
+        return getJson(this.tokenHelper.getSharepointSiteUrl("/_api/web/GetFolderByServerRelativeUrl('" + folder + "')", query));
+    }
+
     @Override
     public JSONObject getFolderFoldersByRelativeUrl(String folder, String jsonExtendedAttrs) throws Exception {
         LOG.debug("getFolderFoldersByRelativeUrl {} jsonExtendedAttrs {}", folder, jsonExtendedAttrs);
-        headers = headerHelper.getGetHeaders(false);
+        MultiValueMap<String, String> headers = headerHelper.getGetHeadersTemplate(false);
 
         RequestEntity<String> requestEntity = new RequestEntity<>(jsonExtendedAttrs,
                 headers, HttpMethod.GET,
@@ -333,7 +946,7 @@ public class PLGSharepointClientOnline implements PLGSharepointClient {
     @Override
     public JSONObject getFolderFilesByRelativeUrl(String folderServerRelativeUrl) throws Exception {
         LOG.debug("getFolderFilesByRelativeUrl {} ", folderServerRelativeUrl);
-        headers = headerHelper.getGetHeaders(false);
+        MultiValueMap<String, String> headers = headerHelper.getGetHeadersTemplate(false);
 
         RequestEntity<String> requestEntity = new RequestEntity<>("{}",
                 headers, HttpMethod.GET,
@@ -349,7 +962,7 @@ public class PLGSharepointClientOnline implements PLGSharepointClient {
     @Override
     public JSONObject getFolderFilesByRelativeUrl(String folder, String jsonExtendedAttrs) throws Exception {
         LOG.debug("getFolderFilesByRelativeUrl {} jsonExtendedAttrs {}", folder, jsonExtendedAttrs);
-        headers = headerHelper.getGetHeaders(false);
+        MultiValueMap<String, String> headers = headerHelper.getGetHeadersTemplate(false);
 
         RequestEntity<String> requestEntity = new RequestEntity<>(jsonExtendedAttrs,
                 headers, HttpMethod.GET,
@@ -362,11 +975,22 @@ public class PLGSharepointClientOnline implements PLGSharepointClient {
         return new JSONObject(responseEntity.getBody());
     }
 
+    /**
+     * @param folder folder server relative URL to retrieve (/SITEURL/folder)
+     * @param query OData query options, like the file properties to select or a filter.
+     * @return JSONObject representing list of files.
+     * @throws Exception
+     */
+    public JSONObject getFolderFilesByRelativeUrl(String folder, ODataQuery query) throws Exception {
+        LOG.debug("getFolderFilesByRelativeUrl {} query {}", folder, query);
+        return getJson(this.tokenHelper.getSharepointSiteUrl("/_api/web/GetFolderByServerRelativeUrl('" + folder + "')/Files", query));
+    }
+
     @Override
     public Boolean deleteFile(String fileServerRelativeUrl) throws Exception {
         LOG.debug("Deleting file {} ", fileServerRelativeUrl);
 
-        headers = headerHelper.getDeleteHeaders();
+        MultiValueMap<String, String> headers = headerHelper.getDeleteHeadersTemplate();
 
         RequestEntity<String> requestEntity = new RequestEntity<>("{}",
                 headers, HttpMethod.POST,
@@ -381,7 +1005,7 @@ public class PLGSharepointClientOnline implements PLGSharepointClient {
     public JSONObject getFileInfo(String fileServerRelativeUrl) throws Exception {
         LOG.debug("Getting file info {} ", fileServerRelativeUrl);
 
-        headers = headerHelper.getGetHeaders(true);
+        MultiValueMap<String, String> headers = headerHelper.getGetHeadersTemplate(true);
 
         RequestEntity<String> requestEntity = new RequestEntity<>("",
                 headers, HttpMethod.GET,
@@ -401,7 +1025,7 @@ public class PLGSharepointClientOnline implements PLGSharepointClient {
     public ResponseEntity<InputStreamResource> downloadFileWithResponse(String fileServerRelativeUrl) throws Exception {
         LOG.debug("Downloading file {} ", fileServerRelativeUrl);
 
-        MultiValueMap<String, String> headers = headerHelper.getGetHeaders(true);
+        MultiValueMap<String, String> headers = headerHelper.getGetHeadersTemplate(true);
 
         RequestEntity<String> requestEntity = new RequestEntity<>("",
                 headers, HttpMethod.GET,
@@ -425,8 +1049,7 @@ public class PLGSharepointClientOnline implements PLGSharepointClient {
         String cleanFolderName = folder.startsWith(spSiteUrl) ? folder.substring(spSiteUrl.length() + 1) : folder;
 
         Resource tmpRes = new ByteArrayResource(new byte[0]);
-        headers = headerHelper.getPostHeaders("");
-        headers.remove("Content-Length");
+        MultiValueMap<String, String> headers = headerHelper.getPostHeadersTemplate();
 
         RequestEntity<Resource> requestEntityCreate = new RequestEntity<>(tmpRes,
                 headers, HttpMethod.POST,
@@ -442,11 +1065,9 @@ public class PLGSharepointClientOnline implements PLGSharepointClient {
         LOG.debug("Empty file created for chunked file upload");
 
         JSONObject jsonFileInfo = new JSONObject(fileInfoStr);
-        String serverRelativeUrl = jsonFileInfo.getJSONObject("d").getString("ServerRelativeUrl");
+        String serverRelativeUrl = ODataResponse.entity(jsonFileInfo).getString("ServerRelativeUrl");
 
-        headers = headerHelper.getPostHeaders("");
-        headers.remove("Content-Length");
-        headers.remove("Content-length");
+        headers = headerHelper.getPostHeaders();
         headers.remove("Accept");
         headers.remove("Content-Type");
         headers.add("Content-Type", "application/octet-stream");
@@ -459,9 +1080,7 @@ public class PLGSharepointClientOnline implements PLGSharepointClient {
             int nbrBytesRead = 0;
             while (inputStream.read(bytes) != -1) {
                 nbrBytesRead += bytes.length;
-                headers.remove("Content-Length");
                 if (firstChunk) {
-                    headers.add("Content-Length", "" + bytes.length);
                     RequestEntity<byte[]> requestEntity = new RequestEntity<>(bytes,
                             headers, HttpMethod.POST,
                             this.tokenHelper.getSharepointSiteUrl(
@@ -504,7 +1123,7 @@ public class PLGSharepointClientOnline implements PLGSharepointClient {
         }
 
         String metadata = jsonMetadata.toString();
-        headers = headerHelper.getUpdateHeaders(metadata);
+        headers = headerHelper.getUpdateHeadersTemplate();
         LOG.debug("Updating file adding metadata {}", jsonMetadata);
 
         RequestEntity<String> requestEntity1 = new RequestEntity<>(metadata,
@@ -532,8 +1151,7 @@ public class PLGSharepointClientOnline implements PLGSharepointClient {
         }
         jsonMetadata.put("__metadata", subMeta);
 
-        headers = headerHelper.getPostHeaders("");
-        headers.remove("Content-length");
+        MultiValueMap<String, String> headers = headerHelper.getPostHeaders();
         headers.remove("Content-Type");
         headers.add("Content-Type", "multipart/form-data");
 
@@ -553,11 +1171,11 @@ public class PLGSharepointClientOnline implements PLGSharepointClient {
         LOG.debug("Retrieved response from server with json");
 
         JSONObject jsonFileInfo = new JSONObject(fileInfoStr);
-        String serverRelFileUrl = jsonFileInfo.getJSONObject("d").getString("ServerRelativeUrl");
+        String serverRelFileUrl = ODataResponse.entity(jsonFileInfo).getString("ServerRelativeUrl");
 
         LOG.debug("File uploaded to URI {}", serverRelFileUrl);
         String metadata = jsonMetadata.toString();
-        headers = headerHelper.getUpdateHeaders(metadata);
+        headers = headerHelper.getUpdateHeadersTemplate();
 
         LOG.debug("Updating file adding metadata {}", jsonMetadata);
 
@@ -578,8 +1196,7 @@ public class PLGSharepointClientOnline implements PLGSharepointClient {
         subMeta.put("type", "SP.ListItem");
         jsonMetadata.put("__metadata", subMeta);
 
-        headers = headerHelper.getPostHeaders("");
-        headers.remove("Content-length");
+        MultiValueMap<String, String> headers = headerHelper.getPostHeaders();
         headers.remove("Content-Type");
         headers.add("Content-Type", "multipart/form-data");
 
@@ -599,11 +1216,11 @@ public class PLGSharepointClientOnline implements PLGSharepointClient {
         LOG.debug("Retrieved response from server with json");
 
         JSONObject jsonFileInfo = new JSONObject(fileInfoStr);
-        String serverRelFileUrl = jsonFileInfo.getJSONObject("d").getString("ServerRelativeUrl");
+        String serverRelFileUrl = ODataResponse.entity(jsonFileInfo).getString("ServerRelativeUrl");
 
         LOG.debug("File uploaded to URI {}", serverRelFileUrl);
         String metadata = jsonMetadata.toString();
-        headers = headerHelper.getUpdateHeaders(metadata);
+        headers = headerHelper.getUpdateHeadersTemplate();
 
         LOG.debug("Updating file adding metadata {}", jsonMetadata);
 
@@ -628,7 +1245,7 @@ public class PLGSharepointClientOnline implements PLGSharepointClient {
         jsonMetadata.put("__metadata", meta);
         LOG.debug("File uploaded to URI {}", fileServerRelativeUrl);
         String metadata = jsonMetadata.toString();
-        headers = headerHelper.getUpdateHeaders(metadata);
+        MultiValueMap<String, String> headers = headerHelper.getUpdateHeadersTemplate();
         LOG.debug("Updating file adding metadata {}", jsonMetadata);
 
         RequestEntity<String> requestEntity1 = new RequestEntity<>(metadata,
@@ -652,7 +1269,7 @@ public class PLGSharepointClientOnline implements PLGSharepointClient {
         jsonMetadata.put("__metadata", meta);
         LOG.debug("File uploaded to URI {}", folderServerRelativeUrl);
         String metadata = jsonMetadata.toString();
-        headers = headerHelper.getUpdateHeaders(metadata);
+        MultiValueMap<String, String> headers = headerHelper.getUpdateHeadersTemplate();
         LOG.debug("Updating file adding metadata {}", jsonMetadata);
 
         RequestEntity<String> requestEntity1 = new RequestEntity<>(metadata,
@@ -668,7 +1285,7 @@ public class PLGSharepointClientOnline implements PLGSharepointClient {
     @Override
     public JSONObject breakRoleInheritance(String folder) throws Exception {
         LOG.debug("Breaking role inheritance on folder {}", folder);
-        headers = headerHelper.getPostHeaders("");
+        MultiValueMap<String, String> headers = headerHelper.getPostHeadersTemplate();
 
         RequestEntity<String> requestEntity1 = new RequestEntity<>("",
                 headers, HttpMethod.POST,
@@ -694,7 +1311,7 @@ public class PLGSharepointClientOnline implements PLGSharepointClient {
         payload.put("__metadata", meta);
         payload.put("ServerRelativeUrl", baseFolderRemoteRelativeUrl + "/" + folder);
         String payloadStr = payload.toString();
-        headers = headerHelper.getPostHeaders(payloadStr);
+        MultiValueMap<String, String> headers = headerHelper.getPostHeadersTemplate();
 
         RequestEntity<String> requestEntity = new RequestEntity<>(payloadStr,
                 headers, HttpMethod.POST,
@@ -707,7 +1324,7 @@ public class PLGSharepointClientOnline implements PLGSharepointClient {
     @Override
     public JSONObject moveFolder(String sourceRelativeServerUrl, String destinyRelativeServerUrl) throws Exception {
         LOG.debug("createFolder sourceRelativeServerUrl {} destinyRelativeServerUrl {}", sourceRelativeServerUrl, destinyRelativeServerUrl);
-        headers = headerHelper.getPostHeaders("");
+        MultiValueMap<String, String> headers = headerHelper.getPostHeadersTemplate();
 
         RequestEntity<String> requestEntity = new RequestEntity<>("",
                 headers, HttpMethod.POST,
@@ -729,7 +1346,7 @@ public class PLGSharepointClientOnline implements PLGSharepointClient {
     @Override
     public JSONObject moveFile(String sourceRelativeServerUrl, String destinyRelativeServerUrl) throws Exception {
         LOG.debug("createFolder sourceRelativeServerUrl {} destinyRelativeServerUrl {}", sourceRelativeServerUrl, destinyRelativeServerUrl);
-        headers = headerHelper.getPostHeaders("");
+        MultiValueMap<String, String> headers = headerHelper.getPostHeadersTemplate();
 
         RequestEntity<String> requestEntity = new RequestEntity<>("",
                 headers, HttpMethod.POST,
@@ -745,7 +1362,7 @@ public class PLGSharepointClientOnline implements PLGSharepointClient {
     @Override
     public Boolean removeFolder(String folderRemoteRelativeUrl) throws Exception {
         LOG.debug("Deleting folder {}", folderRemoteRelativeUrl);
-        headers = headerHelper.getDeleteHeaders();
+        MultiValueMap<String, String> headers = headerHelper.getDeleteHeadersTemplate();
 
         RequestEntity<String> requestEntity = new RequestEntity<>("",
                 headers, HttpMethod.POST,
@@ -759,7 +1376,7 @@ public class PLGSharepointClientOnline implements PLGSharepointClient {
     public Boolean grantPermissionToUsers(String folder, List<String> users, Permission permission) throws Exception {
         LOG.debug("Granting {} permission to users {} in folder {}", permission, users, folder);
 
-        headers = headerHelper.getGetHeaders(false);
+        MultiValueMap<String, String> headers = headerHelper.getGetHeadersTemplate(false);
 
         List<Integer> userIds = new ArrayList<>();
         for (String user : users) {
@@ -770,11 +1387,11 @@ public class PLGSharepointClientOnline implements PLGSharepointClient {
             ResponseEntity<String> responseEntity = restTemplate.exchange(requestEntity, String.class);
             JSONObject objJson = new JSONObject(responseEntity.getBody());
             LOG.debug("json object retrieved for user {}", user);
-            Integer userId = (Integer) objJson.getJSONObject("d").get("Id");
+            Integer userId = (Integer) ODataResponse.entity(objJson).get("Id");
             userIds.add(userId);
         }
 
-        headers = headerHelper.getPostHeaders("{}");
+        headers = headerHelper.getPostHeadersTemplate();
 
         for (Integer userId : userIds) {
             RequestEntity<String> requestEntity1 = new RequestEntity<>("{}",
@@ -789,7 +1406,7 @@ public class PLGSharepointClientOnline implements PLGSharepointClient {
 
     @Override
     public JSONObject getFolderPermissions(String folder) throws Exception {
-        headers = headerHelper.getGetHeaders(false);
+        MultiValueMap<String, String> headers = headerHelper.getGetHeadersTemplate(false);
         RequestEntity<String> requestEntity1 = new RequestEntity<>("{}",
                 headers, HttpMethod.GET,
                 this.tokenHelper.getSharepointSiteUrl("/_api/web/GetFolderByServerRelativeUrl('" + folder + "')/ListItemAllFields/roleAssignments")
@@ -804,7 +1421,7 @@ public class PLGSharepointClientOnline implements PLGSharepointClient {
     public Boolean removePermissionToFolder(String folder, Permission permission) throws Exception {
         List<Integer> userIds = new ArrayList<>();
         JSONObject permissions = getFolderPermissions(folder);
-        JSONArray results = permissions.getJSONObject("d").getJSONArray("results");
+        JSONArray results = ODataResponse.results(permissions);
         for (int i = 0; i < results.length(); i++) {
             JSONObject jObj = results.getJSONObject(i);
             Integer principalId = jObj.getInt("PrincipalId");
@@ -815,7 +1432,7 @@ public class PLGSharepointClientOnline implements PLGSharepointClient {
             LOG.debug("JSON payload retrieved from server for user {}", "");
         }
 
-        headers = headerHelper.getDeleteHeaders();
+        MultiValueMap<String, String> headers = headerHelper.getDeleteHeadersTemplate();
         for (Integer userId : userIds) {
             RequestEntity<String> requestEntity1 = new RequestEntity<>("{}",
                     headers, HttpMethod.POST,
@@ -831,7 +1448,7 @@ public class PLGSharepointClientOnline implements PLGSharepointClient {
     public Boolean removePermissionToUsers(String folder, List<String> users, Permission permission) throws Exception {
         LOG.debug("Revoking {} permission to users {} in folder {}", permission, users, folder);
 
-        headers = headerHelper.getGetHeaders(false);
+        MultiValueMap<String, String> headers = headerHelper.getGetHeadersTemplate(false);
 
         List<Integer> userIds = new ArrayList<>();
         for (String user : users) {
@@ -842,11 +1459,11 @@ public class PLGSharepointClientOnline implements PLGSharepointClient {
             ResponseEntity<String> responseEntity = restTemplate.exchange(requestEntity, String.class);
             LOG.debug("JSON payload retrieved from server for user {}", user);
             JSONObject objJson = new JSONObject(responseEntity.getBody());
-            Integer userId = (Integer) objJson.getJSONObject("d").get("Id");
+            Integer userId = (Integer) ODataResponse.entity(objJson).get("Id");
             userIds.add(userId);
         }
 
-        headers = headerHelper.getDeleteHeaders();
+        headers = headerHelper.getDeleteHeadersTemplate();
         for (Integer userId : userIds) {
             RequestEntity<String> requestEntity1 = new RequestEntity<>("{}",
                     headers, HttpMethod.POST,
@@ -859,7 +1476,25 @@ public class PLGSharepointClientOnline implements PLGSharepointClient {
     }
 
     public final ChunkFileUploader createChunkFileUploader() {
-        return new ChunkFileUploader(this.tokenHelper);
+        return new ChunkFileUploader(this.tokenHelper, this.restTemplate);
+    }
+
+    /**
+     * @return an empty batch sending its operations to <code>/_api/$batch</code> with the credentials of this
+     * client.
+     */
+    public ODataBatch createBatch() {
+        return new ODataBatch(this.restTemplate, this.tokenHelper, this.headerHelper);
+    }
+
+    static JSONObject itemPayload(JSONObject data, String itemType) {
+        JSONObject payload = new JSONObject(data, JSONObject.getNames(data));
+        if (itemType != null && !payload.has(METADATA)) {
+            JSONObject meta = new JSONObject();
+            meta.put("type", itemType);
+            payload.put(METADATA, meta);
+        }
+        return payload;
     }
 
 }
@@ -21,6 +21,7 @@ import org.springframework.util.MultiValueMap;
 import com.panxoloto.sharepoint.rest.helper.AuthTokenHelperOnPremises;
 import com.panxoloto.sharepoint.rest.helper.HeadersOnPremiseHelper;
 import com.panxoloto.sharepoint.rest.helper.HttpProtocols;
+import com.panxoloto.sharepoint.rest.helper.ODataResponse;
 import com.panxoloto.sharepoint.rest.helper.Permission;
 
 
@@ -78,8 +79,8 @@ public class PLGSharepointOnPremisesClient implements PLGSharepointClient {
 		ResponseEntity<String> response = restTemplate.exchange(requestEntity, String.class);
 
 		JSONObject body = new JSONObject(response.getBody());
-		JSONObject d =  body.getJSONObject("d");
-		JSONObject info =  d.getJSONObject("GetContextWebInformation");
+		JSONObject d =  ODataResponse.entity(body);
+		JSONObject info =  d.has("GetContextWebInformation") ? d.getJSONObject("GetContextWebInformation") : d;
 
 		digestKey = (String) info.get("FormDigestValue");
 		Integer expiration = (Integer) info.get("FormDigestTimeoutSeconds");
@@ -499,7 +500,7 @@ public class PLGSharepointOnPremisesClient implements PLGSharepointClient {
 	    LOG.debug("Retrieved response from server with json");
 	    
 	    JSONObject jsonFileInfo = new JSONObject(fileInfoStr);
-	    String serverRelFileUrl = jsonFileInfo.getJSONObject("d").getString("ServerRelativeUrl");
+	    String serverRelFileUrl = ODataResponse.entity(jsonFileInfo).getString("ServerRelativeUrl");
 
 	    LOG.debug("File uploaded to URI", serverRelFileUrl);
 	    String metadata = jsonMetadata.toString();
@@ -550,7 +551,7 @@ public class PLGSharepointOnPremisesClient implements PLGSharepointClient {
 	    LOG.debug("Retrieved response from server with json");
 	    
 	    JSONObject jsonFileInfo = new JSONObject(fileInfoStr);
-	    String serverRelFileUrl = jsonFileInfo.getJSONObject("d").getString("ServerRelativeUrl");
+	    String serverRelFileUrl = ODataResponse.entity(jsonFileInfo).getString("ServerRelativeUrl");
 
 	    LOG.debug("File uploaded to URI", serverRelFileUrl);
 	    String metadata = jsonMetadata.toString();
@@ -764,7 +765,7 @@ public class PLGSharepointOnPremisesClient implements PLGSharepointClient {
 	    	ResponseEntity<String> responseEntity =  restTemplate.exchange(requestEntity, String.class);
 	    	JSONObject objJson = new JSONObject(responseEntity.getBody());
 	    	LOG.debug("json object retrieved for user {}", user);
-	    	Integer userId = (Integer) objJson.getJSONObject("d").get("Id");
+	    	Integer userId = (Integer) ODataResponse.entity(objJson).get("Id");
 	    	userIds.add(userId);
 	    }
 	    
@@ -809,7 +810,7 @@ public class PLGSharepointOnPremisesClient implements PLGSharepointClient {
 	public Boolean removePermissionToFolder(String folder, Permission permission) throws Exception {
 	    List<Integer> userIds = new ArrayList<>();
 	    JSONObject permissions = getFolderPermissions(folder);
-	    JSONArray results = permissions.getJSONObject("d").getJSONArray("results");
+	    JSONArray results = ODataResponse.results(permissions);
 	    for (int i = 0 ; i < results.length() ; i++) {
     		JSONObject jObj = results.getJSONObject(i);
     		Integer principalId = jObj.getInt("PrincipalId");
@@ -853,7 +854,7 @@ public class PLGSharepointOnPremisesClient implements PLGSharepointClient {
 	    	ResponseEntity<String> responseEntity =  restTemplate.exchange(requestEntity, String.class);
 	    	LOG.debug("JSON payload retrieved from server for user {}", user);
 	    	JSONObject objJson = new JSONObject(responseEntity.getBody());
-	    	Integer userId = (Integer) objJson.getJSONObject("d").get("Id");
+	    	Integer userId = (Integer) ODataResponse.entity(objJson).get("Id");
 	    	userIds.add(userId);
 	    }
 	    
@@ -0,0 +1,129 @@
+package com.panxoloto.sharepoint.rest;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+
+import com.panxoloto.sharepoint.rest.helper.AuthTokenHelperOnline;
+import com.panxoloto.sharepoint.rest.helper.HeadersHelper;
+import com.panxoloto.sharepoint.rest.helper.PooledConnectionConfig;
+import com.panxoloto.sharepoint.rest.helper.SiteTokenHelper;
+
+/**
+ * Clients of the sites of a tenant sharing a single transport, sign in and set of replay interceptors: the
+ * clients only differ by their site URI, so the connections, the logins and the memory don't grow with the
+ * number of sites. Throttling is per tenant, so the retries and the concurrency limit are shared too.
+ * <p>
+ * The tenant signs in in background from the constructor, requests sent meanwhile wait for the sign in.
+ */
+public class PLGSharepointSiteRegistry implements AutoCloseable {
+
+	private final StreamRestTemplate restTemplate;
+	private final AuthTokenHelperOnline tokenHelper;
+	private final RetryInterceptor retryInterceptor = new RetryInterceptor();
+	private final AdaptiveConcurrencyLimiter concurrencyLimiter = new AdaptiveConcurrencyLimiter();
+	private final ConcurrentMap<String, PLGSharepointClientOnline> sites = new ConcurrentHashMap<>();
+	private final PooledConnectionConfig ownedPool;
+
+	/**
+	 * Registry on a connection pool of its own, closed with the registry.
+	 *
+	 * @param user - The user email, or the client id when useClientId is true.
+	 * @param passwd - the user password, or the client secret.
+	 * @param domain - the domain without protocol and no uri like contoso.sharepoint.com
+	 */
+	public PLGSharepointSiteRegistry(String user, String passwd, String domain, boolean useClientId) {
+		this(user, passwd, domain, useClientId, new PooledConnectionConfig());
+	}
+
+	/**
+	 * @param connectionConfig pool of the connections, closed with the registry.
+	 */
+	public PLGSharepointSiteRegistry(String user, String passwd, String domain, boolean useClientId, PooledConnectionConfig connectionConfig) {
+		this(new StreamRestTemplate(requestFactory(connectionConfig)), user, passwd, domain, useClientId, connectionConfig);
+	}
+
+	/**
+	 * @param requestFactory transport of every site, like an {@link AsyncClientHttpRequestFactory}. Not closed
+	 * with the registry.
+	 */
+	public PLGSharepointSiteRegistry(String user, String passwd, String domain, boolean useClientId, ClientHttpRequestFactory requestFactory) {
+		this(new StreamRestTemplate(requestFactory), user, passwd, domain, useClientId, null);
+	}
+
+	private PLGSharepointSiteRegistry(StreamRestTemplate restTemplate, String user, String passwd, String domain, boolean useClientId,
+									  PooledConnectionConfig ownedPool) {
+		this(restTemplate, new AuthTokenHelperOnline(useClientId, restTemplate, user, passwd, domain, "",
+				ownedPool == null ? HttpClients::custom : ownedPool.httpClientBuilderSupplier()), ownedPool);
+		this.tokenHelper.initAsync();
+	}
+
+	/**
+	 * Registry on an already built token helper of the tenant, signed in on first use.
+	 */
+	PLGSharepointSiteRegistry(StreamRestTemplate restTemplate, AuthTokenHelperOnline tokenHelper, PooledConnectionConfig ownedPool) {
+		this.restTemplate = restTemplate;
+		this.tokenHelper = tokenHelper;
+		this.ownedPool = ownedPool;
+		restTemplate.addReplayInterceptor(this.retryInterceptor);
+		restTemplate.addReplayInterceptor(new ReauthenticationInterceptor(tokenHelper, new HeadersHelper(tokenHelper)));
+		restTemplate.addReplayInterceptor(this.concurrencyLimiter);
+	}
+
+	private static ClientHttpRequestFactory requestFactory(PooledConnectionConfig connectionConfig) {
+		HttpComponentsClientHttpRequestFactory requestFactory = new HttpComponentsClientHttpRequestFactory();
+		requestFactory.setHttpClient(connectionConfig.httpClientBuilderSupplier().get().build());
+		return requestFactory;
+	}
+
+	/**
+	 * @param spSiteUrl - The sharepoint site URI like /sites/contososite
+	 * @return the client of the site, created on first call. It sends no request until used.
+	 */
+	public PLGSharepointClientOnline site(String spSiteUrl) {
+		return sites.computeIfAbsent(PLGSharepointClientOnline.normalizeSiteUrl(spSiteUrl), site ->
+				new PLGSharepointClientOnline(restTemplate, new SiteTokenHelper(tokenHelper, site), site, retryInterceptor, concurrencyLimiter));
+	}
+
+	/**
+	 * @return number of site clients created.
+	 */
+	public int size() {
+		return sites.size();
+	}
+
+	/**
+	 * @return completed once the tenant is signed in.
+	 */
+	public CompletableFuture<Void> initializeAsync() {
+		return tokenHelper.initAsync();
+	}
+
+	public AuthTokenHelperOnline getTokenHelper() {
+		return tokenHelper;
+	}
+
+	public RetryInterceptor getRetryInterceptor() {
+		return retryInterceptor;
+	}
+
+	public AdaptiveConcurrencyLimiter getConcurrencyLimiter() {
+		return concurrencyLimiter;
+	}
+
+	/**
+	 * Releases the token getter of the tenant, and the connection pool when the registry created it.
+	 */
+	@Override
+	public void close() throws Exception {
+		sites.clear();
+		tokenHelper.close();
+		if (ownedPool != null) {
+			ownedPool.close();
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package com.panxoloto.sharepoint.rest;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Drains a delegate iterator on a background task and hands its elements over through a bounded queue,
+ * so that the delegate (typically a {@link ListItemPageIterator}) requests page N+1 while page N is being
+ * consumed. At most <code>readAhead</code> elements wait in the queue, and the background task holds one more
+ * while it waits for room: the delegate is at most <code>readAhead + 1</code> elements ahead of the consumer.
+ * <p>
+ * The iterator should be closed when it is abandoned before being exhausted, so the background task stops
+ * requesting pages nobody will read.
+ *
+ * @param <T> element type.
+ */
+public class PrefetchingIterator<T> implements Iterator<T>, AutoCloseable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(PrefetchingIterator.class);
+	private static final Object END = new Object();
+	private static final long POLL_TIMEOUT_MS = 200;
+
+	private final BlockingQueue<Object> queue;
+	private final AtomicBoolean closed = new AtomicBoolean(false);
+	/** Set when the background task is interrupted, it may have no room left in the queue to publish it. */
+	private volatile Failure interrupted;
+	private Object next;
+
+	/**
+	 * @param delegate iterator to drain in background, it is only accessed from the background task.
+	 * @param readAhead maximum number of elements waiting for the consumer, at least 1. One more is fetched
+	 * while the queue is full.
+	 * @param executor executor running the background task.
+	 */
+	public PrefetchingIterator(Iterator<T> delegate, int readAhead, Executor executor) {
+		if (readAhead < 1) {
+			throw new IllegalArgumentException("readAhead must be greater than 0");
+		}
+		this.queue = new ArrayBlockingQueue<>(readAhead);
+		executor.execute(() -> produce(delegate));
+	}
+
+	private void produce(Iterator<T> delegate) {
+		try {
+			while (!closed.get() && delegate.hasNext()) {
+				if (!publish(delegate.next())) {
+					return;
+				}
+			}
+			publish(END);
+		} catch (InterruptedException e) {
+			interrupt(e);
+		} catch (Throwable e) {
+			LOG.debug("Prefetch failed, error will be raised to the consumer", e);
+			try {
+				publish(new Failure(e));
+			} catch (InterruptedException ie) {
+				interrupt(e);
+			}
+		}
+	}
+
+	/**
+	 * Hands the failure of an interrupted background task (e.g. its executor shut down) over to the consumer
+	 * without waiting for room in the queue, and restores the interrupt flag.
+	 */
+	private void interrupt(Throwable e) {
+		LOG.debug("Prefetch interrupted, error will be raised to the consumer", e);
+		Failure failure = new Failure(e);
+		interrupted = failure;
+		queue.offer(failure);
+		Thread.currentThread().interrupt();
+	}
+
+	private boolean publish(Object element) throws InterruptedException {
+		while (!queue.offer(element, POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+			if (closed.get()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (next == null) {
+			if (closed.get()) {
+				return false;
+			}
+			try {
+				next = take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting for the next element", e);
+			}
+		}
+		if (next instanceof Failure) {
+			Throwable error = ((Failure) next).error;
+			if (error instanceof RuntimeException) {
+				throw (RuntimeException) error;
+			}
+			if (error instanceof Error) {
+				throw (Error) error;
+			}
+			throw new IllegalStateException("Prefetch failed", error);
+		}
+		return next != END;
+	}
+
+	private Object take() throws InterruptedException {
+		Object element;
+		while ((element = queue.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS)) == null) {
+			Failure failure = interrupted;
+			if (failure != null) {
+				element = queue.poll();
+				return element != null ? element : failure;
+			}
+		}
+		return element;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public T next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		T element = (T) next;
+		next = null;
+		return element;
+	}
+
+	/**
+	 * Stops the background task and discards every buffered element.
+	 */
+	@Override
+	public void close() {
+		if (closed.compareAndSet(false, true)) {
+			queue.clear();
+		}
+	}
+
+	private static final class Failure {
+		private final Throwable error;
+
+		private Failure(Throwable error) {
+			this.error = error;
+		}
+	}
+}
@@ -0,0 +1,176 @@
+package com.panxoloto.sharepoint.rest;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Locale;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.support.HttpRequestWrapper;
+
+import com.panxoloto.sharepoint.rest.helper.AuthTokenHelperOnline;
+import com.panxoloto.sharepoint.rest.helper.HeadersHelper;
+
+/**
+ * Replay interceptor of {@link StreamRestTemplate} signing in again when the session of a request is rejected,
+ * and sending the request once more with the headers of the new session. Concurrent requests rejected for the
+ * same session share a single sign in.
+ * <p>
+ * A request sent with the cookies (or app token) of an older sign in is replayed with the current session. A
+ * 401 received with the current sign in triggers a new one, unless this interceptor signed in less than
+ * {@link #MIN_RENEWAL_INTERVAL} ago: it is then returned as is. A 403 received with the current sign in is a
+ * rejected session only when SharePoint reports an invalid form digest (security validation error), and is
+ * replayed without signing in when the digest has been renewed since; any other 403 is a permission error and
+ * is returned untouched. The form digests renewed in background don't make a request stale.
+ * <p>
+ * SharePoint checks the credentials before processing a request, so a rejected request hasn't been executed
+ * and is replayed whatever its method. Only requests carrying the session headers of {@link HeadersHelper}
+ * are handled, the sign in requests themselves pass through.
+ */
+public class ReauthenticationInterceptor implements ClientHttpRequestInterceptor {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ReauthenticationInterceptor.class);
+
+	/**
+	 * A 401 received with the current sign in within this time after a sign in by this interceptor doesn't
+	 * trigger another one.
+	 */
+	static final Duration MIN_RENEWAL_INTERVAL = Duration.ofSeconds(30);
+
+	/** Error code of SharePoint for an invalid or expired form digest. */
+	static final String SECURITY_VALIDATION_ERROR_CODE = "-2130575251";
+
+	private final AuthTokenHelperOnline tokenHelper;
+	private final HeadersHelper headerHelper;
+	private volatile Instant lastRenewal = Instant.MIN;
+
+	public ReauthenticationInterceptor(AuthTokenHelperOnline tokenHelper, HeadersHelper headerHelper) {
+		this.tokenHelper = tokenHelper;
+		this.headerHelper = headerHelper;
+	}
+
+	@Override
+	public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution) throws IOException {
+		String sentDigest = sentFormDigest(request.getHeaders());
+		ClientHttpResponse response = execution.execute(request, body);
+		if (sentDigest == null) {
+			return response;
+		}
+		int status = response.getStatusCode().value();
+		if (status == HttpStatus.FORBIDDEN.value()) {
+			// the body tells a rejected digest from a missing permission, it is kept for the caller
+			response = new BufferedResponse(response);
+		}
+		// read before comparing the headers: a sign in in between makes them stale rather than current
+		long generation = tokenHelper.getSignInGeneration();
+		boolean currentSignIn = headerHelper.isCurrentSignIn(request.getHeaders());
+		if (!isSessionRejected(response, status, currentSignIn)) {
+			return response;
+		}
+		response.close();
+
+		// a digest rejected after being renewed in background is fixed by the renewed one
+		if (currentSignIn && (status == HttpStatus.UNAUTHORIZED.value() || sentDigest.equals(tokenHelper.getFormDigestValue()))) {
+			try {
+				if (tokenHelper.renewRejectedSession(generation)) {
+					lastRenewal = Instant.now();
+				}
+			} catch (Exception e) {
+				throw new IOException("Unable to sign in again after the session was rejected", e);
+			}
+		}
+		HttpHeaders headers = new HttpHeaders();
+		headers.addAll(request.getHeaders());
+		headerHelper.refreshSessionHeaders(headers);
+		LOG.debug("Replaying {} {} with the new session", request.getMethod(), request.getURI());
+		return execution.execute(new HttpRequestWrapper(request) {
+			@Override
+			public HttpHeaders getHeaders() {
+				return headers;
+			}
+		}, body);
+	}
+
+	private boolean isSessionRejected(ClientHttpResponse response, int status, boolean currentSignIn) throws IOException {
+		if (status != HttpStatus.UNAUTHORIZED.value() && status != HttpStatus.FORBIDDEN.value()) {
+			return false;
+		}
+		if (!currentSignIn) {
+			// sent with a session older than the last sign in
+			return true;
+		}
+		if (status == HttpStatus.FORBIDDEN.value()) {
+			return isSecurityValidationError(((BufferedResponse) response).body);
+		}
+		// a 401 with the sign in just done is not fixed by signing in again
+		return Instant.now().isAfter(lastRenewal.plus(MIN_RENEWAL_INTERVAL));
+	}
+
+	static boolean isSecurityValidationError(byte[] body) {
+		String text = new String(body, StandardCharsets.UTF_8);
+		return text.contains(SECURITY_VALIDATION_ERROR_CODE) || text.toLowerCase(Locale.ROOT).contains("security validation");
+	}
+
+	private static String sentFormDigest(HttpHeaders headers) {
+		String digest = headers.getFirst("X-RequestDigest");
+		if (digest != null) {
+			return digest;
+		}
+		String authorization = headers.getFirst(HttpHeaders.AUTHORIZATION);
+		if (authorization != null && authorization.startsWith("Bearer ")) {
+			return authorization.substring("Bearer ".length());
+		}
+		return null;
+	}
+
+	/**
+	 * Response whose body has been read, to be inspected before being returned to the caller.
+	 */
+	private static class BufferedResponse implements ClientHttpResponse {
+		private final ClientHttpResponse delegate;
+		private final byte[] body;
+
+		BufferedResponse(ClientHttpResponse delegate) throws IOException {
+			this.delegate = delegate;
+			try (InputStream is = delegate.getBody()) {
+				this.body = is.readAllBytes();
+			}
+		}
+
+		@Override
+		public HttpStatusCode getStatusCode() throws IOException {
+			return delegate.getStatusCode();
+		}
+
+		@Override
+		public String getStatusText() throws IOException {
+			return delegate.getStatusText();
+		}
+
+		@Override
+		public HttpHeaders getHeaders() {
+			return delegate.getHeaders();
+		}
+
+		@Override
+		public InputStream getBody() {
+			return new ByteArrayInputStream(body);
+		}
+
+		@Override
+		public void close() {
+			delegate.close();
+		}
+	}
+}
@@ -0,0 +1,228 @@
+package com.panxoloto.sharepoint.rest;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+/**
+ * Replay interceptor of {@link StreamRestTemplate} retrying the requests throttled by SharePoint (429 and
+ * 503). The wait is the <code>Retry-After</code> header of the response when present, an exponential backoff
+ * with jitter otherwise, and every request sent through the interceptor waits for it too so the whole client
+ * slows down instead of being throttled again.
+ * <p>
+ * A throttled request has not been executed by the server, so requests of any method are retried, including
+ * the chunks of an upload whose offset is part of the URL. Requests failing without a response (connection
+ * reset, timeout) are retried only when they are reads, as a write may have been executed.
+ * <p>
+ * Counters of retries and waits are kept for monitoring. Settings can be changed at any time.
+ */
+public class RetryInterceptor implements ClientHttpRequestInterceptor {
+
+	private static final Logger LOG = LoggerFactory.getLogger(RetryInterceptor.class);
+
+	private volatile int maxRetries = 5;
+	private volatile Duration baseDelay = Duration.ofSeconds(1);
+	private volatile Duration maxBackoff = Duration.ofSeconds(60);
+	private volatile Duration maxRetryAfter = Duration.ofMinutes(5);
+
+	private final Object lock = new Object();
+	private long pausedUntil;
+
+	private final LongAdder throttledResponses = new LongAdder();
+	private final LongAdder retries = new LongAdder();
+	private final LongAdder exhausted = new LongAdder();
+	private final LongAdder waitMillis = new LongAdder();
+
+	/** Retries of the requests sent by each thread, for the callers reporting the retries of a request. */
+	private static final ThreadLocal<int[]> threadRetries = ThreadLocal.withInitial(() -> new int[1]);
+
+	/**
+	 * @param maxRetries maximum retries of a request, 5 by default.
+	 */
+	public RetryInterceptor setMaxRetries(int maxRetries) {
+		if (maxRetries < 0) {
+			throw new IllegalArgumentException("maxRetries can't be negative");
+		}
+		this.maxRetries = maxRetries;
+		return this;
+	}
+
+	public int getMaxRetries() {
+		return maxRetries;
+	}
+
+	/**
+	 * @param baseDelay wait before the first retry without <code>Retry-After</code>, doubled on every retry,
+	 * 1 second by default.
+	 * @param maxBackoff longest wait without <code>Retry-After</code>, 60 seconds by default.
+	 */
+	public RetryInterceptor setBackoff(Duration baseDelay, Duration maxBackoff) {
+		this.baseDelay = baseDelay;
+		this.maxBackoff = maxBackoff;
+		return this;
+	}
+
+	/**
+	 * @param maxRetryAfter longest <code>Retry-After</code> waited for, a longer one is returned to the caller
+	 * without retrying. 5 minutes by default.
+	 */
+	public RetryInterceptor setMaxRetryAfter(Duration maxRetryAfter) {
+		this.maxRetryAfter = maxRetryAfter;
+		return this;
+	}
+
+	/**
+	 * @return 429 and 503 responses received.
+	 */
+	public long getThrottledResponseCount() {
+		return throttledResponses.sum();
+	}
+
+	/**
+	 * @return requests sent again, after a throttled response or a failure.
+	 */
+	public long getRetryCount() {
+		return retries.sum();
+	}
+
+	/**
+	 * @return requests given up after their last retry, or whose <code>Retry-After</code> was too long.
+	 */
+	public long getExhaustedCount() {
+		return exhausted.sum();
+	}
+
+	/**
+	 * @return time spent by all requests waiting before being sent.
+	 */
+	public Duration getTotalWaitTime() {
+		return Duration.ofMillis(waitMillis.sum());
+	}
+
+	@Override
+	public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution) throws IOException {
+		for (int attempt = 0; ; attempt++) {
+			awaitPause();
+			ClientHttpResponse response;
+			try {
+				response = execution.execute(request, body);
+			} catch (IOException e) {
+				if (attempt >= maxRetries || !isRead(request)) {
+					throw e;
+				}
+				long delay = backoff(attempt);
+				LOG.debug("{} {} failed, retrying in {} ms", request.getMethod(), request.getURI(), delay, e);
+				countRetry();
+				sleep(delay);
+				continue;
+			}
+
+			int status = response.getStatusCode().value();
+			if (status != 429 && status != 503) {
+				return response;
+			}
+			throttledResponses.increment();
+			long retryAfter = retryAfterMillis(response.getHeaders());
+			if (attempt >= maxRetries || retryAfter > maxRetryAfter.toMillis()) {
+				exhausted.increment();
+				LOG.warn("{} {} throttled with status {}, giving up after {} retries", request.getMethod(), request.getURI(), status, attempt);
+				return response;
+			}
+			long delay = retryAfter >= 0 ? retryAfter : backoff(attempt);
+			response.close();
+			LOG.debug("{} {} throttled with status {}, retrying in {} ms", request.getMethod(), request.getURI(), status, delay);
+			countRetry();
+			pause(delay);
+		}
+	}
+
+	private void countRetry() {
+		retries.increment();
+		threadRetries.get()[0]++;
+	}
+
+	/**
+	 * @return retries of the requests sent by the current thread through any interceptor, the difference
+	 * before and after a request being its retries.
+	 */
+	static int threadRetryCount() {
+		return threadRetries.get()[0];
+	}
+
+	private static boolean isRead(HttpRequest request) {
+		HttpMethod method = request.getMethod();
+		return (HttpMethod.GET.equals(method) || HttpMethod.HEAD.equals(method) || HttpMethod.OPTIONS.equals(method))
+				&& !request.getHeaders().containsKey("X-HTTP-Method");
+	}
+
+	/**
+	 * @return exponential backoff of the given attempt with equal jitter: between half and the whole delay.
+	 */
+	long backoff(int attempt) {
+		long delay = Math.min(maxBackoff.toMillis(), baseDelay.toMillis() << Math.min(attempt, 20));
+		return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+	}
+
+	private void pause(long delay) {
+		synchronized (lock) {
+			pausedUntil = Math.max(pausedUntil, System.currentTimeMillis() + delay);
+		}
+	}
+
+	private void awaitPause() throws IOException {
+		long wait;
+		synchronized (lock) {
+			wait = pausedUntil - System.currentTimeMillis();
+		}
+		sleep(wait);
+	}
+
+	private void sleep(long wait) throws IOException {
+		if (wait <= 0) {
+			return;
+		}
+		waitMillis.add(wait);
+		try {
+			Thread.sleep(wait);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while waiting to retry");
+		}
+	}
+
+	/**
+	 * @return milliseconds of the <code>Retry-After</code> header (delay in seconds or HTTP date), -1 when
+	 * it is missing or can't be parsed.
+	 */
+	static long retryAfterMillis(HttpHeaders headers) {
+		String retryAfter = headers == null ? null : headers.getFirst(HttpHeaders.RETRY_AFTER);
+		if (retryAfter == null) {
+			return -1;
+		}
+		try {
+			return Math.max(0, Long.parseLong(retryAfter.trim()) * 1000);
+		} catch (NumberFormatException e) {
+			try {
+				ZonedDateTime date = ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+				return Math.max(0, date.toInstant().toEpochMilli() - System.currentTimeMillis());
+			} catch (DateTimeParseException ignored) {
+				LOG.debug("Unparseable Retry-After header {}", retryAfter);
+				return -1;
+			}
+		}
+	}
+}
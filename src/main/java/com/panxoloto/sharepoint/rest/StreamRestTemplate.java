@@ -25,17 +25,24 @@ import org.springframework.web.client.RestTemplate;
 
 import com.google.common.collect.Lists;
 
+/**
+ * RestTemplate able to return streamed responses. Besides the usual interceptors, it runs a chain of
+ * {@link #addReplayInterceptor(ClientHttpRequestInterceptor) replay interceptors} after them, which may
+ * execute the request more than once.
+ */
 public class StreamRestTemplate extends RestTemplate {
 	private static final DeferredCloseClientHttpRequestInterceptor deferredCloseClientHttpRequestInterceptor =
 			new DeferredCloseClientHttpRequestInterceptor();
 
+	private final ReplayChainInterceptor replayChain = new ReplayChainInterceptor();
+
 	public StreamRestTemplate() {
-		super.setInterceptors(Lists.newArrayList(deferredCloseClientHttpRequestInterceptor));
+		super.setInterceptors(Lists.newArrayList(deferredCloseClientHttpRequestInterceptor, replayChain));
 	}
 
 	public StreamRestTemplate(ClientHttpRequestFactory requestFactory) {
 		super(requestFactory);
-		super.setInterceptors(Lists.newArrayList(deferredCloseClientHttpRequestInterceptor));
+		super.setInterceptors(Lists.newArrayList(deferredCloseClientHttpRequestInterceptor, replayChain));
 		List<HttpMessageConverter<?>> msgConverters = getMessageConverters();
 		List<HttpMessageConverter<?>> toRemove = new ArrayList<>();
 		for (HttpMessageConverter<?> converter : msgConverters) {
@@ -49,23 +56,43 @@ public class StreamRestTemplate extends RestTemplate {
 
 	@Override
 	public void setInterceptors(List<ClientHttpRequestInterceptor> interceptors) {
-		super.setInterceptors(addInterceptorAtBeginning(interceptors));
+		super.setInterceptors(addInterceptorsAtEnds(interceptors));
 	}
 
-	private List<ClientHttpRequestInterceptor> addInterceptorAtBeginning(List<ClientHttpRequestInterceptor> interceptors) {
-		boolean interceptorExists = interceptors.contains(deferredCloseClientHttpRequestInterceptor);
-		if (interceptorExists && interceptors.get(0) == deferredCloseClientHttpRequestInterceptor) {
+	private List<ClientHttpRequestInterceptor> addInterceptorsAtEnds(List<ClientHttpRequestInterceptor> interceptors) {
+		int size = interceptors.size();
+		if (size >= 2 && interceptors.get(0) == deferredCloseClientHttpRequestInterceptor
+				&& interceptors.get(size - 1) == replayChain) {
 			return interceptors;
 		}
 		LinkedList<ClientHttpRequestInterceptor> newInterceptors = Lists.newLinkedList();
 		newInterceptors.addAll(interceptors);
-		if (interceptorExists) {
-			newInterceptors.remove(deferredCloseClientHttpRequestInterceptor);
-		}
+		newInterceptors.remove(deferredCloseClientHttpRequestInterceptor);
+		newInterceptors.remove(replayChain);
 		newInterceptors.addFirst(deferredCloseClientHttpRequestInterceptor);
+		// only the last interceptor of a RestTemplate can execute the request several times
+		newInterceptors.addLast(replayChain);
 		return newInterceptors;
 	}
 
+	/**
+	 * Adds an interceptor allowed to execute the request several times, like to retry it. Replay interceptors
+	 * run after the other interceptors, in the order they were added, so the first one added wraps the
+	 * following ones. Request bodies are buffered, every execution sends the whole body again.
+	 *
+	 * @param interceptor interceptor to add at the end of the replay chain.
+	 */
+	public void addReplayInterceptor(ClientHttpRequestInterceptor interceptor) {
+		replayChain.add(interceptor);
+	}
+
+	/**
+	 * @return the replay interceptors, in execution order.
+	 */
+	public List<ClientHttpRequestInterceptor> getReplayInterceptors() {
+		return replayChain.interceptors;
+	}
+
 	@Override
 	public <T> ResponseExtractor<ResponseEntity<T>> responseEntityExtractor(Type responseType) {
 		ResponseExtractor<ResponseEntity<T>> responseEntityResponseExtractor = super.responseEntityExtractor(responseType);
@@ -73,6 +100,45 @@ public class StreamRestTemplate extends RestTemplate {
 		return new StreamResponseExtractor<>(isStream, responseEntityResponseExtractor);
 	}
 
+	private static class ReplayChainInterceptor implements ClientHttpRequestInterceptor {
+		private volatile List<ClientHttpRequestInterceptor> interceptors = Collections.emptyList();
+
+		private synchronized void add(ClientHttpRequestInterceptor interceptor) {
+			List<ClientHttpRequestInterceptor> newInterceptors = new ArrayList<>(interceptors);
+			newInterceptors.add(interceptor);
+			interceptors = Collections.unmodifiableList(newInterceptors);
+		}
+
+		@Override
+		public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution) throws IOException {
+			return new ReplayExecution(interceptors, 0, execution).execute(request, body);
+		}
+	}
+
+	/**
+	 * Step of the replay chain, unlike the executions of RestTemplate it can be executed several times: the
+	 * last step creates a new request on every call.
+	 */
+	private static class ReplayExecution implements ClientHttpRequestExecution {
+		private final List<ClientHttpRequestInterceptor> interceptors;
+		private final int index;
+		private final ClientHttpRequestExecution request;
+
+		private ReplayExecution(List<ClientHttpRequestInterceptor> interceptors, int index, ClientHttpRequestExecution request) {
+			this.interceptors = interceptors;
+			this.index = index;
+			this.request = request;
+		}
+
+		@Override
+		public ClientHttpResponse execute(HttpRequest httpRequest, byte[] body) throws IOException {
+			if (index < interceptors.size()) {
+				return interceptors.get(index).intercept(httpRequest, body, new ReplayExecution(interceptors, index + 1, request));
+			}
+			return request.execute(httpRequest, body);
+		}
+	}
+
 	private static class DeferredCloseClientHttpRequestInterceptor implements ClientHttpRequestInterceptor {
 		@Override
 		public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution) throws IOException {
@@ -1,17 +1,24 @@
 package com.panxoloto.sharepoint.rest.helper;
 
 import java.io.IOException;
+import java.net.HttpCookie;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import java.util.function.Supplier;
-import java.util.stream.Collectors;
 
 import javax.xml.transform.TransformerException;
 
 import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
 import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.slf4j.Logger;
@@ -23,16 +30,35 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.util.CollectionUtils;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestTemplate;
 
-public class AuthTokenHelperOnline {
+public class AuthTokenHelperOnline implements AutoCloseable {
 
 	private static final Logger LOG = LoggerFactory.getLogger(AuthTokenHelperOnline.class);
-	private MultiValueMap<String, String> headers;
+
+	/**
+	 * Time before the expiration of the form digest when a new one is requested, 5 minutes.
+	 */
+	public static final Duration DEFAULT_FORM_DIGEST_REFRESH_AHEAD = Duration.ofMinutes(5);
+	private static final int DEFAULT_FORM_DIGEST_TIMEOUT = 1800;
+	private static final Duration FORM_DIGEST_EXPIRATION_MARGIN = Duration.ofSeconds(30);
+
 	private String spSiteUri;
-	private String formDigestValue ;
+	private volatile Session session = new Session(null, null, 0);
+	private volatile boolean initialized;
+	private final Object initLock = new Object();
+	/**
+	 * Serializes the sign ins. Never held while waiting for the form digest refresher, whose fetch takes it
+	 * to sign in again when the cookies are rejected.
+	 */
+	private final Object signInLock = new Object();
+	/** Generation of the last sign in, guarded by {@link #signInLock}. */
+	private long signInGeneration;
+	private CompletableFuture<Void> initialization;
+	private final TokenRefresher<Session> formDigest = new TokenRefresher<>(this::renewFormDigest, DEFAULT_FORM_DIGEST_REFRESH_AHEAD);
 	private String domain;
-	private List<String> cookies;
+	private HttpProtocols protocol = HttpProtocols.HTTPS;
 	private final String TOKEN_LOGIN_URL = "https://login.microsoftonline.com/extSTS.srf";
 	private String payload = "<s:Envelope xmlns:s=\"http://www.w3.org/2003/05/soap-envelope\"\n"
 			+ "      xmlns:a=\"http://www.w3.org/2005/08/addressing\"\n"
@@ -76,13 +102,89 @@ public class AuthTokenHelperOnline {
 	private String sharepointScope;
 
 
-	private CloudTokenForClientIdGetter cloudTokenGetter = null;
+	private volatile CloudTokenForClientIdGetter cloudTokenGetter = null;
+	private CloudTokenCache cloudTokenCache = CloudTokenCache.shared();
+	private CredentialStore credentialStore;
 	private Supplier<HttpClientBuilder> httpClientBuilderSupplier;
 
+	/**
+	 * Cookies and form digest of a sign in, replaced as a whole so concurrent requests never mix the values
+	 * of two sign ins. The generation numbers the sign ins, the form digests renewed for the same cookies
+	 * keep it.
+	 */
+	private static final class Session {
+		private final List<String> cookies;
+		private final String formDigestValue;
+		private final long generation;
+
+		private Session(List<String> cookies, String formDigestValue, long generation) {
+			this.cookies = cookies == null ? null : Collections.unmodifiableList(new ArrayList<>(cookies));
+			this.formDigestValue = formDigestValue;
+			this.generation = generation;
+		}
+	}
+
 	public boolean isUseClientId() {
 		return useClientId;
 	}
 
+	/**
+	 * @param protocol protocol of the site and sign in URLs, https by default.
+	 */
+	public void setProtocol(HttpProtocols protocol) {
+		this.protocol = protocol;
+	}
+
+	public HttpProtocols getProtocol() {
+		return protocol;
+	}
+
+	/**
+	 * @return host of the tenant, like contoso.sharepoint.com.
+	 */
+	public String getDomain() {
+		return domain;
+	}
+
+	/**
+	 * @param cloudTokenCache cache of the app token when signing in with a client id, shared with the other
+	 * clients of the tenant. {@link CloudTokenCache#shared()} by default, to be set before {@link #init()}.
+	 */
+	public void setCloudTokenCache(CloudTokenCache cloudTokenCache) {
+		this.cloudTokenCache = cloudTokenCache;
+	}
+
+	public CloudTokenCache getCloudTokenCache() {
+		return cloudTokenCache;
+	}
+
+	/**
+	 * @param credentialStore store the sign in session (cookies and form digest) or the app token is saved to,
+	 * so that {@link #init()} reuses them after a restart while they are valid. None by default, to be set
+	 * before {@link #init()}.
+	 */
+	public void setCredentialStore(CredentialStore credentialStore) {
+		this.credentialStore = credentialStore;
+	}
+
+	public CredentialStore getCredentialStore() {
+		return credentialStore;
+	}
+
+	/**
+	 * Releases the HTTP client of the app token getter, if any.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (cloudTokenGetter != null) {
+			cloudTokenGetter.close();
+		}
+	}
+
+	private String getProtocolString() {
+		return protocol == HttpProtocols.HTTPS ? "https" : "http";
+	}
+
 	/**
 	 * Helper class to manage login against SharepointOnline and retrieve auth token and cookies to
 	 * perform calls to rest API.
@@ -137,11 +239,13 @@ public class AuthTokenHelperOnline {
 		}
 	}
 
-	protected String getSecurityTokenUsingClientId() {
+	protected synchronized String getSecurityTokenUsingClientId() {
 		if (cloudTokenGetter == null) {
 			try {
 				cloudTokenGetter = new CloudTokenForClientIdGetter(user, passwd, getSharepointSiteUrl("").toString(), httpClientBuilderSupplier,
 																   certificatePath, certificatePassword, clientTenant, sharepointScope);
+				cloudTokenGetter.setTokenCache(cloudTokenCache);
+				cloudTokenGetter.setCredentialStore(credentialStore);
 			} catch (URISyntaxException e) {
 				throw new RuntimeException("can't get security token", e);
 			}
@@ -169,7 +273,7 @@ public class AuthTokenHelperOnline {
 		}
 
 		RequestEntity<String> requestEntity = new RequestEntity<>(securityToken, HttpMethod.POST,
-				new URI(String.format("https://%s/_forms/default.aspx?wa=wsignin1.0", this.domain)));
+				new URI(String.format("%s://%s/_forms/default.aspx?wa=wsignin1.0", getProtocolString(), this.domain)));
 
 		ResponseEntity<String> responseEntity = restTemplate.exchange(requestEntity, String.class);
 		HttpHeaders headers = responseEntity.getHeaders();
@@ -186,31 +290,294 @@ public class AuthTokenHelperOnline {
 		if (useClientId) {
 			return cloudTokenGetter.getToken();
 		}
+		return requestFormDigest(cookies, 0).value.formDigestValue;
+	}
 
-		headers = new LinkedMultiValueMap<>();
-		headers.add("Cookie",  cookies.stream().collect(Collectors.joining(";")) );
+	/**
+	 * Requests a form digest for the cookies of a sign in, valid for the FormDigestTimeoutSeconds of the
+	 * response.
+	 *
+	 * @param generation generation of the sign in of the cookies.
+	 */
+	private TokenRefresher.Expiring<Session> requestFormDigest(List<String> cookies, long generation) throws URISyntaxException {
+		MultiValueMap<String, String> headers = new LinkedMultiValueMap<>();
+		headers.add("Cookie",  String.join(";", cookies));
 		headers.add("Accept", "application/json;odata=verbose");
 		headers.add("X-ClientService-ClientTag", "SDK-JAVA");
 
 		RequestEntity<String> requestEntity = new RequestEntity<>(headers, HttpMethod.POST,
-				new URI(String.format("https://%s/_api/contextinfo", this.domain)));
+				new URI(String.format("%s://%s/_api/contextinfo", getProtocolString(), this.domain)));
 
+		Instant requestTime = Instant.now();
 		ResponseEntity<String> responseEntity = restTemplate.exchange(requestEntity, String.class);
-		String body = responseEntity.getBody();
-		JSONObject json = new JSONObject(body);
+		JSONObject d = ODataResponse.entity(new JSONObject(responseEntity.getBody()));
+		JSONObject info = d.has("GetContextWebInformation") ? d.getJSONObject("GetContextWebInformation") : d;
+
+		int timeout = info.optInt("FormDigestTimeoutSeconds", DEFAULT_FORM_DIGEST_TIMEOUT);
+		if (timeout < 30 || timeout > 24 * 3600) {
+			timeout = DEFAULT_FORM_DIGEST_TIMEOUT;
+		}
+		Instant expiresAt = requestTime.plusSeconds(timeout).minus(FORM_DIGEST_EXPIRATION_MARGIN);
+		LOG.debug("Got form digest, expiration: {}", expiresAt);
+		return new TokenRefresher.Expiring<>(new Session(cookies, info.getString("FormDigestValue"), generation), expiresAt);
+	}
 
-		return json.getJSONObject("d").getJSONObject("GetContextWebInformation").getString("FormDigestValue");
+	/**
+	 * Renews the form digest of the current sign in, signing in again only if the cookies are no longer
+	 * accepted.
+	 */
+	private TokenRefresher.Expiring<Session> renewFormDigest() throws Exception {
+		Session rejected = session;
+		try {
+			TokenRefresher.Expiring<Session> renewed = requestFormDigest(rejected.cookies, rejected.generation);
+			storeSession(renewed);
+			return renewed;
+		} catch (HttpClientErrorException.Unauthorized | HttpClientErrorException.Forbidden e) {
+			LOG.info("Session cookies rejected renewing the form digest, signing in again");
+			synchronized (signInLock) {
+				Session current = session;
+				if (current != rejected) {
+					// signed in by another thread meanwhile
+					return requestFormDigest(current.cookies, current.generation);
+				}
+				TokenRefresher.Expiring<Session> signedIn = signIn();
+				storeSession(signedIn);
+				formDigest.set(signedIn);
+				session = signedIn.value;
+				return signedIn;
+			}
+		}
 	}
-	
+
+	/**
+	 * Called holding {@link #signInLock}.
+	 */
+	private TokenRefresher.Expiring<Session> signIn() throws Exception {
+		String securityToken = receiveSecurityToken();
+		List<String> cookies = getSignInCookies(securityToken);
+		if (useClientId) {
+			return new TokenRefresher.Expiring<>(new Session(cookies, getFormDigestValue(cookies), ++signInGeneration), Instant.MAX);
+		}
+		return requestFormDigest(cookies, ++signInGeneration);
+	}
+
 	/**
+	 * Signs in, or reuses the session of the {@link #setCredentialStore(CredentialStore) credential store}
+	 * while it is valid. Concurrent calls are serialized, requests sent meanwhile keep using the previous
+	 * session.
+	 *
 	 * @throws Exception
 	 */
 	public void init() throws Exception {
-		String securityToken = receiveSecurityToken();
-		this.cookies = getSignInCookies(securityToken);
-		formDigestValue = getFormDigestValue(this.cookies);
+		synchronized (signInLock) {
+			TokenRefresher.Expiring<Session> signedIn = useClientId ? null : restoreSession();
+			if (signedIn == null) {
+				signedIn = signIn();
+				storeSession(signedIn);
+			}
+			formDigest.set(signedIn);
+			session = signedIn.value;
+			initialized = true;
+		}
+	}
+
+	/**
+	 * Starts signing in in background, unless it is already started or done.
+	 *
+	 * @return completed once signed in. A failed sign in is started again by the next call.
+	 */
+	public CompletableFuture<Void> initAsync() {
+		return initAsync(TokenRefresher.DEFAULT_EXECUTOR);
+	}
+
+	/**
+	 * @param executor runs the sign in.
+	 * @see #initAsync()
+	 */
+	public CompletableFuture<Void> initAsync(Executor executor) {
+		synchronized (initLock) {
+			if (initialized && initialization == null) {
+				initialization = CompletableFuture.completedFuture(null);
+			}
+			if (initialization == null || initialization.isCompletedExceptionally()) {
+				initialization = CompletableFuture.runAsync(() -> {
+					try {
+						init();
+					} catch (Exception e) {
+						throw new CompletionException(e);
+					}
+				}, executor);
+			}
+			return initialization;
+		}
+	}
+
+	/**
+	 * @return whether a session is available, signed in by {@link #init()} or {@link #initAsync()}.
+	 */
+	public boolean isSignedIn() {
+		return initialized;
+	}
+
+	/**
+	 * Signs in on first use when neither {@link #init()} nor {@link #initAsync()} has completed yet, concurrent
+	 * callers wait for the same sign in.
+	 */
+	private void ensureSignedIn() {
+		if (initialized) {
+			return;
+		}
+		try {
+			initAsync().join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException("can't sign in to Sharepoint online", e.getCause());
+		}
+	}
+
+	private String sessionKey() {
+		return String.join("|", "session", domain, user, CloudTokenForClientIdGetter.fingerprint(passwd));
+	}
+
+	/**
+	 * Called holding {@link #signInLock}, a restored session counts as a sign in.
+	 *
+	 * @return the stored session, with a new form digest if the stored one has expired. Null when there is
+	 * no stored session or its cookies are rejected.
+	 */
+	private TokenRefresher.Expiring<Session> restoreSession() {
+		if (credentialStore == null) {
+			return null;
+		}
+		try {
+			CredentialStore.Entry entry = credentialStore.load(sessionKey());
+			if (entry == null) {
+				return null;
+			}
+			JSONObject stored = new JSONObject(entry.getValue());
+			List<String> cookies = new ArrayList<>();
+			stored.getJSONArray("cookies").forEach(cookie -> cookies.add((String) cookie));
+			Instant formDigestExpiresAt = Instant.ofEpochMilli(stored.getLong("formDigestExpiresAt"));
+			if (Instant.now().isBefore(formDigestExpiresAt)) {
+				LOG.debug("Reusing the stored session, form digest expiration: {}", formDigestExpiresAt);
+				return new TokenRefresher.Expiring<>(new Session(cookies, stored.getString("formDigest"), ++signInGeneration), formDigestExpiresAt);
+			}
+			LOG.debug("Stored form digest expired, requesting a new one for the stored session");
+			TokenRefresher.Expiring<Session> renewed = requestFormDigest(cookies, ++signInGeneration);
+			storeSession(renewed);
+			return renewed;
+		} catch (HttpClientErrorException.Unauthorized | HttpClientErrorException.Forbidden e) {
+			LOG.info("Stored session rejected, signing in");
+			removeStoredSession();
+			return null;
+		} catch (Exception e) {
+			LOG.warn("Can't restore the stored session", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Saves the session until the first of its cookies expires, or until the form digest expires when the
+	 * cookies have no expiration.
+	 */
+	private void storeSession(TokenRefresher.Expiring<Session> signedIn) {
+		if (credentialStore == null || useClientId) {
+			return;
+		}
+		Instant expiresAt = null;
+		Instant now = Instant.now();
+		for (String cookie : signedIn.value.cookies) {
+			try {
+				for (HttpCookie parsed : HttpCookie.parse(cookie)) {
+					if (parsed.getMaxAge() > 0) {
+						Instant cookieExpiresAt = now.plusSeconds(parsed.getMaxAge());
+						expiresAt = expiresAt == null || cookieExpiresAt.isBefore(expiresAt) ? cookieExpiresAt : expiresAt;
+					}
+				}
+			} catch (IllegalArgumentException e) {
+				LOG.debug("Unparseable cookie, ignoring its expiration");
+			}
+		}
+		JSONObject stored = new JSONObject()
+				.put("cookies", new JSONArray(signedIn.value.cookies))
+				.put("formDigest", signedIn.value.formDigestValue)
+				.put("formDigestExpiresAt", signedIn.expiresAt.toEpochMilli());
+		try {
+			credentialStore.save(sessionKey(), new CredentialStore.Entry(stored.toString(), expiresAt == null ? signedIn.expiresAt : expiresAt));
+		} catch (Exception e) {
+			LOG.warn("Can't save the session to the credential store", e);
+		}
+	}
+
+	private void removeStoredSession() {
+		if (credentialStore == null || useClientId) {
+			return;
+		}
+		try {
+			credentialStore.remove(sessionKey());
+		} catch (Exception e) {
+			LOG.warn("Can't remove the session from the credential store", e);
+		}
+	}
+
+	/**
+	 * @return generation of the sign in of the current session, incremented by every sign in but not by the
+	 * renewals of the form digest. Never waits for a sign in or a form digest.
+	 */
+	public long getSignInGeneration() {
+		return session.generation;
+	}
+
+	/**
+	 * Signs in again after the server rejected the session of a request, unless another thread already did
+	 * it since that request was sent. Concurrent calls for the same rejected sign in sign in once.
+	 *
+	 * @param rejectedGeneration {@link #getSignInGeneration() generation} of the sign in of the rejected
+	 * request.
+	 * @return whether this call signed in, false when the rejected sign in had already been replaced.
+	 * @throws Exception
+	 */
+	public boolean renewRejectedSession(long rejectedGeneration) throws Exception {
+		synchronized (signInLock) {
+			if (session.generation != rejectedGeneration) {
+				return false;
+			}
+			if (useClientId && cloudTokenGetter != null) {
+				cloudTokenGetter.invalidateToken();
+			}
+			LOG.info("Session rejected by the server, signing in again");
+			removeStoredSession();
+			init();
+			return true;
+		}
+	}
+
+	/**
+	 * @param refreshAhead time before the expiration of the form digest when a new one is requested in
+	 * background, {@link #DEFAULT_FORM_DIGEST_REFRESH_AHEAD} by default. Only the digest is renewed, the
+	 * sign in cookies are kept.
+	 */
+	public void setFormDigestRefreshAhead(Duration refreshAhead) {
+		formDigest.setRefreshAhead(refreshAhead);
 	}
 
+	public Duration getFormDigestRefreshAhead() {
+		return formDigest.getRefreshAhead();
+	}
+
+	/**
+	 * @return the session of the last sign in, with a valid form digest once signed in with user and password.
+	 */
+	private Session currentSession() {
+		ensureSignedIn();
+		Session signedIn = session;
+		if (useClientId || signedIn.cookies == null) {
+			return signedIn;
+		}
+		return formDigest.get();
+	}
 
 	/**
 	 * The security token to use in Authorization Bearer  header or X-RequestDigest header 
@@ -220,11 +587,10 @@ public class AuthTokenHelperOnline {
 	 */
 	public String getFormDigestValue() {
 		if (useClientId) {
+			ensureSignedIn();
 			return cloudTokenGetter.getToken();
 		}
-
-
-		return formDigestValue;
+		return currentSession().formDigestValue;
 	}
 
 	/**
@@ -233,7 +599,7 @@ public class AuthTokenHelperOnline {
 	 * @return
 	 */
 	public List<String> getCookies() {
-		return this.cookies;
+		return currentSession().cookies;
 	}
 	
 	/**
@@ -243,9 +609,10 @@ public class AuthTokenHelperOnline {
 	 * @throws URISyntaxException 
 	 */
 	public URI getSharepointSiteUrl(String apiPath) throws URISyntaxException {
-		return new URI("https",
+		return new URI(getProtocolString(),
 				this.domain,
 				this.spSiteUri + apiPath,
+				null,
 				null
 				);
 	}
@@ -257,15 +624,29 @@ public class AuthTokenHelperOnline {
 	 * @throws URISyntaxException
 	 */
 	public URI getSharepointSiteUrl(String apiPath, String query) throws URISyntaxException {
-		if (!query.startsWith("$filter=")) {
+		if (!query.startsWith("$")) {
 			LOG.debug("Missing $filter in query string, adding");
 			query = String.format("%s%s", "$filter=", query);
 		}
-		return new URI("https",
+		return new URI(getProtocolString(),
 				this.domain,
 				this.spSiteUri + apiPath,
 				query,
 				null
 				);
 	}
+
+	/**
+	 * @param apiPath
+	 * @param query OData query options, encoded into the query string.
+	 * @return
+	 * @throws URISyntaxException
+	 */
+	public URI getSharepointSiteUrl(String apiPath, ODataQuery query) throws URISyntaxException {
+		URI url = getSharepointSiteUrl(apiPath);
+		if (query == null || query.isEmpty()) {
+			return url;
+		}
+		return new URI(url.toASCIIString() + "?" + query.toQueryString());
+	}
 }
@@ -8,23 +8,50 @@ public class AuthenticationException
 	private static final long serialVersionUID = 1L;
 
 	public final transient SOAPFault reason;
+
+	/**
+	 * Innermost code of the fault, like <code>wst:FailedAuthentication</code>, null when not a fault.
+	 */
+	public final String faultCode;
+
+	/**
+	 * Texts of the detail of the fault, like the AADSTS error, null when there is none.
+	 */
+	public final String faultDetail;
 	
 	public AuthenticationException( final String message, final Throwable cause ) 
 	{
 		super(message, cause);
 		this.reason = null;
+		this.faultCode = null;
+		this.faultDetail = null;
 	}
 
 	public AuthenticationException(final String message) 
 	{
 		super(message);
 		this.reason = null;
+		this.faultCode = null;
+		this.faultDetail = null;
 	}
 	
 	public AuthenticationException( final SOAPFault fault ) 
 	{
 		super("Authentication has failed : " + fault.getFaultString());
 		this.reason = fault;
+		this.faultCode = fault.getFaultCode();
+		this.faultDetail = null;
+	}
+
+	/**
+	 * Fault read from the response without building the SOAP message, {@link #reason} is null.
+	 */
+	public AuthenticationException( final String faultReason, final String faultCode, final String faultDetail )
+	{
+		super("Authentication has failed : " + faultReason);
+		this.reason = null;
+		this.faultCode = faultCode;
+		this.faultDetail = faultDetail;
 	}
 	
 }
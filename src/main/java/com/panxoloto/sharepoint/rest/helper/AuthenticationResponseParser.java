@@ -1,23 +1,19 @@
 package com.panxoloto.sharepoint.rest.helper;
 
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
-import java.io.InputStream;
+import java.io.StringReader;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 
 import javax.xml.namespace.QName;
-import jakarta.xml.soap.MessageFactory;
-import jakarta.xml.soap.SOAPBody;
-import jakarta.xml.soap.SOAPConstants;
-import jakarta.xml.soap.SOAPException;
-import jakarta.xml.soap.SOAPFault;
-import jakarta.xml.soap.SOAPMessage;
-
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
+/**
+ * Extracts the security token, or the fault, of the SAML response of the sign in with a single streaming
+ * pass (StAX), without building the SOAP message.
+ */
 public class AuthenticationResponseParser
 {
 	public static final Charset utf8 = StandardCharsets.UTF_8;
@@ -25,47 +21,151 @@ public class AuthenticationResponseParser
 	(
 		"http://docs.oasis-open.org/wss/2004/01/oasis-200401-wss-wssecurity-secext-1.0.xsd", "BinarySecurityToken"
 	);
+	public static final String soapEnvelopeNamespace = "http://www.w3.org/2003/05/soap-envelope";
+
+	private static final XMLInputFactory inputFactory = newInputFactory();
 
 	private AuthenticationResponseParser() {
 	}
 
+	/**
+	 * No DTD nor external entity is resolved, the response comes from the network.
+	 */
+	private static XMLInputFactory newInputFactory()
+	{
+		final XMLInputFactory factory = XMLInputFactory.newFactory();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+		return factory;
+	}
+
 	public static String  parseAuthenticationResponse(final String response )
-		throws AuthenticationException 
+		throws AuthenticationException
 	{
-		try ( final InputStream is = new ByteArrayInputStream(response.getBytes(utf8)) )
+		XMLStreamReader reader = null;
+		try
 		{
-			final MessageFactory	f		= MessageFactory.newInstance(SOAPConstants.SOAP_1_2_PROTOCOL);
-			final SOAPMessage		m		= f.createMessage(null, is);
-			final SOAPBody			body	= m.getSOAPBody();
-			final SOAPFault			fault	= body.getFault();
-			if ( fault!=null )
+			reader = inputFactory.createXMLStreamReader(new StringReader(response));
+			reader.nextTag();
+			if ( !isSoap(reader, "Envelope") )
 			{
-				throw new AuthenticationException(fault);
+				throw new AuthenticationException("Could not parse authentication response : Unable to create envelope from given source: ");
 			}
-			return token(body);
+			return token(reader);
 		}
-		catch( final SOAPException soapExc )
+		catch( final XMLStreamException xmlExc )
 		{
-			throw new AuthenticationException("Could not parse authentication response : " + soapExc.getMessage(), soapExc);
+			throw new AuthenticationException("Could not parse authentication response : " + xmlExc.getMessage(), xmlExc);
 		}
-		catch( final IOException ioExc )
+		finally
 		{
-			throw new AuthenticationException("Unexpected IO exception occured", ioExc);
+			close(reader);
 		}
 	}
-	
-	private static String token( final SOAPBody body )
+
+	/**
+	 * @return text of the first security token of the body.
+	 * @throws AuthenticationException with the reason of the fault when the body is a fault.
+	 */
+	private static String token( final XMLStreamReader reader )
+		throws XMLStreamException
 	{
-		final NodeList list=body.getElementsByTagNameNS(binarySecurityTokenName.getNamespaceURI(), binarySecurityTokenName.getLocalPart());
-		if ( list.getLength()>0 )
+		boolean inBody = false;
+		while ( reader.hasNext() )
 		{
-			final Node node = list.item(0);
-			if ( node instanceof Element )
+			final int event = reader.next();
+			if ( event==XMLStreamConstants.START_ELEMENT )
+			{
+				if ( isSoap(reader, "Body") )
+				{
+					inBody = true;
+				}
+				else if ( inBody && isSoap(reader, "Fault") )
+				{
+					throw fault(reader);
+				}
+				else if ( inBody && binarySecurityTokenName.getNamespaceURI().equals(reader.getNamespaceURI())
+					&& binarySecurityTokenName.getLocalPart().equals(reader.getLocalName()) )
+				{
+					return reader.getElementText();
+				}
+			}
+			else if ( event==XMLStreamConstants.END_ELEMENT && isSoap(reader, "Body") )
 			{
-				final Element tokenEl = (Element)node;
-				return tokenEl.getTextContent();
+				break;
 			}
 		}
 		throw new AuthenticationException("Authentication response does not contain mandatory element " + binarySecurityTokenName);
 	}
+
+	/**
+	 * Reads the fault up to its end: the first reason text, the innermost code value and the texts of the
+	 * detail, like the AADSTS error of Azure AD.
+	 */
+	private static AuthenticationException fault( final XMLStreamReader reader )
+		throws XMLStreamException
+	{
+		String reason = null;
+		String code = null;
+		final StringBuilder detail = new StringBuilder();
+		boolean inDetail = false;
+		int depth = 1;
+		while ( depth>0 && reader.hasNext() )
+		{
+			final int event = reader.next();
+			if ( event==XMLStreamConstants.START_ELEMENT )
+			{
+				depth++;
+				if ( isSoap(reader, "Detail") )
+				{
+					inDetail = true;
+				}
+				else if ( isSoap(reader, "Value") )
+				{
+					code = reader.getElementText().trim();
+					depth--;
+				}
+				else if ( isSoap(reader, "Text") && reason==null )
+				{
+					reason = reader.getElementText().trim();
+					depth--;
+				}
+				else if ( inDetail && "text".equals(reader.getLocalName()) )
+				{
+					detail.append(detail.length()>0 ? " " : "").append(reader.getElementText().trim());
+					depth--;
+				}
+			}
+			else if ( event==XMLStreamConstants.END_ELEMENT )
+			{
+				depth--;
+				if ( isSoap(reader, "Detail") )
+				{
+					inDetail = false;
+				}
+			}
+		}
+		return new AuthenticationException(reason, code, detail.length()>0 ? detail.toString() : null);
+	}
+
+	private static boolean isSoap( final XMLStreamReader reader, final String localName )
+	{
+		return localName.equals(reader.getLocalName()) && soapEnvelopeNamespace.equals(reader.getNamespaceURI());
+	}
+
+	private static void close( final XMLStreamReader reader )
+	{
+		if ( reader!=null )
+		{
+			try
+			{
+				reader.close();
+			}
+			catch( final XMLStreamException ignored )
+			{
+				// nothing held, the source is a string
+			}
+		}
+	}
 }
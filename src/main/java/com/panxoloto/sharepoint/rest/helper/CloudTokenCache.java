@@ -0,0 +1,96 @@
+package com.panxoloto.sharepoint.rest.helper;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Access tokens and realms of app registrations shared by every {@link CloudTokenForClientIdGetter} of the
+ * cache. Clients of sites of the same tenant using the same app registration discover the realm once and
+ * share a single token, renewed once for all of them.
+ * <p>
+ * Every getter uses the {@link #shared() JVM wide cache} unless given another one.
+ */
+public final class CloudTokenCache {
+
+	private static final CloudTokenCache SHARED = new CloudTokenCache();
+
+	/**
+	 * Realm and SharePoint principal of a tenant, from the <code>WWW-Authenticate</code> header of an anonymous
+	 * request.
+	 */
+	static final class Realm {
+		final String realm;
+		final String principal;
+
+		Realm(String realm, String principal) {
+			this.realm = realm;
+			this.principal = principal;
+		}
+	}
+
+	private final ConcurrentMap<String, CloudTokenForClientIdGetter.SharedToken> tokens = new ConcurrentHashMap<>();
+	/** Realm of each host, discovered outside of the map so that a slow discovery does not lock its bin. */
+	private final ConcurrentMap<String, CompletableFuture<Realm>> realms = new ConcurrentHashMap<>();
+
+	/**
+	 * @return cache shared by the whole JVM.
+	 */
+	public static CloudTokenCache shared() {
+		return SHARED;
+	}
+
+	/**
+	 * @param key tenant, client id, resource and credential of the token.
+	 * @return token of the key, created by the factory the first time.
+	 */
+	CloudTokenForClientIdGetter.SharedToken token(String key, Supplier<CloudTokenForClientIdGetter.SharedToken> factory) {
+		return tokens.computeIfAbsent(key, k -> factory.get());
+	}
+
+	/**
+	 * @param host host of the tenant sites.
+	 * @return realm of the host, discovered by the loader the first time. Concurrent callers wait for the same
+	 * discovery, a failed discovery is not kept.
+	 */
+	Realm realm(String host, Callable<Realm> loader) throws Exception {
+		CompletableFuture<Realm> created = new CompletableFuture<>();
+		CompletableFuture<Realm> realm = realms.computeIfAbsent(host, h -> created);
+		if (realm == created) {
+			try {
+				created.complete(loader.call());
+			} catch (Exception | Error e) {
+				realms.remove(host, created);
+				created.completeExceptionally(e);
+				throw e;
+			}
+		}
+		try {
+			return realm.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw cause instanceof Exception ? (Exception) cause : e;
+		}
+	}
+
+	/**
+	 * @return number of tokens in the cache.
+	 */
+	public int size() {
+		return tokens.size();
+	}
+
+	/**
+	 * Forgets every token and realm, the getters already using a token keep it.
+	 */
+	public void clear() {
+		tokens.clear();
+		realms.clear();
+	}
+}
@@ -1,16 +1,25 @@
 package com.panxoloto.sharepoint.rest.helper;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringReader;
 import java.net.MalformedURLException;
+import java.net.URI;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
-import java.time.LocalDateTime;
-import java.time.ZoneId;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HexFormat;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
@@ -42,7 +51,34 @@ import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import com.google.gson.stream.JsonReader;
 
-public class CloudTokenForClientIdGetter {
+/**
+ * Access token of an app registration (client id and secret, or certificate). The token is requested once
+ * and renewed in background {@link #setRefreshAhead(Duration) some time} before it expires, so requests
+ * don't wait for it. Safe to share between threads.
+ * <p>
+ * Realms and tokens are kept in a {@link CloudTokenCache}, the {@link CloudTokenCache#shared() JVM wide one}
+ * by default: getters of sites of the same tenant with the same app registration and resource share the
+ * realm discovery and the token.
+ * <p>
+ * The getter owns a single HTTP client, with its connection pool, and parses the certificate once. Close it
+ * when it is no longer used to release the connections.
+ */
+public class CloudTokenForClientIdGetter implements AutoCloseable {
+
+	/**
+	 * Time before the expiration of the token when a new one is requested, 5 minutes.
+	 */
+	public static final Duration DEFAULT_REFRESH_AHEAD = Duration.ofMinutes(5);
+
+	/**
+	 * The token is considered expired this long before the expiration given by the server.
+	 */
+	private static final Duration EXPIRATION_MARGIN = Duration.ofMinutes(1);
+
+	/**
+	 * Time a realm discovered is kept in the {@link CredentialStore}.
+	 */
+	private static final Duration STORED_REALM_LIFETIME = Duration.ofDays(30);
 
 	private final Logger LOG = LoggerFactory.getLogger(this.getClass());
 
@@ -62,7 +98,7 @@ public class CloudTokenForClientIdGetter {
 									   String certificatePassword,
 									   String clientTenant,
 									   String sharepointScope) {
-		this(clientId, clientSecret, siteURL, HttpClients::custom);
+		this(clientId, clientSecret, siteURL, httpClientBuilderSupplier);
 		this.certificatePath = certificatePath;
 		this.certificatePassword = certificatePassword;
 		this.clientTenant = clientTenant;
@@ -73,70 +109,282 @@ public class CloudTokenForClientIdGetter {
 		this.clientId = clientId;
 		this.clientSecret = clientSecret;
 		this.siteURL = siteURL;
-		this.httpClientBuilderSupplier = httpClientBuilderSupplier;
+		this.httpClientBuilderSupplier = httpClientBuilderSupplier == null ? HttpClients::custom : httpClientBuilderSupplier;
+	}
+
+	/**
+	 * Token of the {@link CloudTokenCache}, fetched by any open getter using it.
+	 */
+	static final class SharedToken {
+		final TokenRefresher<String> refresher = new TokenRefresher<>(this::fetch, DEFAULT_REFRESH_AHEAD);
+		private final List<CloudTokenForClientIdGetter> getters = new CopyOnWriteArrayList<>();
+
+		private TokenRefresher.Expiring<String> fetch() throws Exception {
+			for (CloudTokenForClientIdGetter getter : getters) {
+				if (!getter.closed) {
+					return getter.getBearerToken();
+				}
+			}
+			throw new IllegalStateException("every getter of the token is closed");
+		}
 	}
 
 	private String spOnlineRealm = null;
 	private String spOnlineClientId;
-	private String spOnlineToken = null;
-	private String spOnlineTokenType;
-	private LocalDateTime spOnlineTokenExpiration = LocalDateTime.now().minusMinutes(1);
+	private volatile CloudTokenCache tokenCache = CloudTokenCache.shared();
+	private volatile SharedToken token;
+	private volatile CredentialStore credentialStore;
+
+	private CloseableHttpClient httpClient;
+	private ClientCertificateCredential certificateCredential;
+	private volatile boolean closed;
+
+	private final LongAdder refreshes = new LongAdder();
+	private final LongAdder refreshNanos = new LongAdder();
+	private volatile Duration lastRefreshDuration = Duration.ZERO;
+
+	/**
+	 * @param tokenCache cache of the realm and token, a new {@link CloudTokenCache} keeps them to this getter.
+	 * {@link CloudTokenCache#shared()} by default.
+	 */
+	public synchronized void setTokenCache(CloudTokenCache tokenCache) {
+		if (token != null) {
+			token.getters.remove(this);
+		}
+		this.tokenCache = tokenCache;
+		this.token = null;
+	}
+
+	public CloudTokenCache getTokenCache() {
+		return tokenCache;
+	}
+
+	/**
+	 * @param credentialStore store the token and realm are saved to and reused from after a restart, none by
+	 * default.
+	 */
+	public void setCredentialStore(CredentialStore credentialStore) {
+		this.credentialStore = credentialStore;
+	}
+
+	public CredentialStore getCredentialStore() {
+		return credentialStore;
+	}
+
+	/**
+	 * @param refreshAhead time before the expiration of the token when a new one is requested in background,
+	 * {@link #DEFAULT_REFRESH_AHEAD} by default. Applies to every getter sharing the token.
+	 */
+	public void setRefreshAhead(Duration refreshAhead) {
+		token().setRefreshAhead(refreshAhead);
+	}
+
+	public Duration getRefreshAhead() {
+		return token().getRefreshAhead();
+	}
+
+	/**
+	 * @return token of the cache for the tenant, client id, resource and credential of this getter.
+	 */
+	TokenRefresher<String> token() {
+		SharedToken current = token;
+		if (current == null) {
+			synchronized (this) {
+				current = token;
+				if (current == null) {
+					current = tokenCache.token(cacheKey(), SharedToken::new);
+					current.getters.add(this);
+					token = current;
+				}
+			}
+		}
+		return current.refresher;
+	}
+
+	private String cacheKey() {
+		if (StringUtils.isBlank(certificatePath)) {
+			return String.join("|", "acs", URI.create(siteURL).getHost(), clientId, fingerprint(clientSecret));
+		}
+		return String.join("|", "certificate", clientTenant, clientId, sharepointScope, fingerprint(certificatePath + "|" + certificatePassword));
+	}
+
+	/**
+	 * @return hash of a credential, so that the key tells credentials apart without holding them.
+	 */
+	static String fingerprint(String credential) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			return HexFormat.of().formatHex(digest.digest(String.valueOf(credential).getBytes(StandardCharsets.UTF_8)));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
 
+	/**
+	 * Discards the current token after it has been rejected, the next call to {@link #getToken()} requests a
+	 * new one.
+	 */
+	public void invalidateToken() {
+		token().invalidate();
+		removeStored(cacheKey());
+	}
+
+	/**
+	 * @return a valid token. Only the first call, or a call after the token has expired, waits for the
+	 * token request; otherwise the token is renewed in background before it expires.
+	 */
 	public String getToken() {
+		if (closed) {
+			throw new IllegalStateException("token getter closed");
+		}
 		try {
-			if (spOnlineRealm == null) {
-				getTenantId();
+			return token().get();
+		} catch (CompletionException e) {
+			throw new RuntimeException("can't authenticate to Sharepoint online", e.getCause());
+		}
+	}
+
+	/**
+	 * @return token requests sent by this getter, tokens reused from the credential store excluded.
+	 */
+	public long getRefreshCount() {
+		return refreshes.sum();
+	}
+
+	/**
+	 * @return time spent by this getter in token requests, realm discovery included.
+	 */
+	public Duration getTotalRefreshTime() {
+		return Duration.ofNanos(refreshNanos.sum());
+	}
+
+	/**
+	 * @return duration of the last token request, zero before the first one.
+	 */
+	public Duration getLastRefreshDuration() {
+		return lastRefreshDuration;
+	}
+
+	/**
+	 * Closes the HTTP client. The getters sharing the token keep renewing it.
+	 */
+	@Override
+	public void close() throws IOException {
+		CloseableHttpClient client;
+		synchronized (this) {
+			if (closed) {
+				return;
 			}
-			if (spOnlineToken == null || LocalDateTime.now().isAfter(spOnlineTokenExpiration)) {
-				getBearerToken();
+			closed = true;
+			if (token != null) {
+				token.getters.remove(this);
 			}
-		} catch (Exception e) {
-			throw new RuntimeException("can't authenticate to Sharepoint online", e);
+			client = httpClient;
+			httpClient = null;
+			certificateCredential = null;
+		}
+		if (client != null) {
+			client.close();
+		}
+	}
+
+	private synchronized CloseableHttpClient httpClient() {
+		if (closed) {
+			throw new IllegalStateException("token getter closed");
+		}
+		if (httpClient == null) {
+			httpClient = httpClientBuilderSupplier.get().build();
 		}
-		return spOnlineToken;
+		return httpClient;
 	}
 
 
 	private void getTenantId() throws Exception {
+		CloudTokenCache.Realm realm = tokenCache.realm(URI.create(siteURL).getHost(), this::loadRealm);
+		spOnlineRealm = realm.realm;
+		spOnlineClientId = realm.principal;
+	}
+
+	private CloudTokenCache.Realm loadRealm() throws Exception {
+		String key = "realm|" + URI.create(siteURL).getHost();
+		CredentialStore.Entry stored = loadStored(key);
+		if (stored != null) {
+			String[] values = stored.getValue().split("\\|", 2);
+			return new CloudTokenCache.Realm(values[0], values[1]);
+		}
+		CloudTokenCache.Realm realm = discoverRealm();
+		saveStored(key, new CredentialStore.Entry(realm.realm + "|" + realm.principal, Instant.now().plus(STORED_REALM_LIFETIME)));
+		return realm;
+	}
+
+	private CloudTokenCache.Realm discoverRealm() throws Exception {
+		String realm = null;
+		String principal = null;
 		String url = siteURL+"/_vti_bin/client.svc/";
 		HttpGet get = new HttpGet(url);
 		get.setHeader(HttpHeaders.AUTHORIZATION, "Bearer");
-		CloseableHttpClient httpClient = httpClientBuilderSupplier.get().build();
 
-		try (CloseableHttpResponse response = httpClient.execute(get, (org.apache.hc.core5.http.protocol.HttpContext) null)) {
+		try (CloseableHttpResponse response = httpClient().execute(get, (org.apache.hc.core5.http.protocol.HttpContext) null)) {
 			Set<Header> headers = Arrays.stream(response.getHeaders("WWW-Authenticate")[0].getValue().split(","))
 										.map(kv -> new BasicHeader(kv.split("=")[0], kv.split("=")[1].replace("\"", "")))
 										.collect(Collectors.toSet());
 			for (Header h : headers) {
 
 					if ("Bearer realm".equals(h.getName())) {
-						spOnlineRealm = h.getValue();
+						realm = h.getValue();
 					}
 					if ("client_id".equals(h.getName())) {
-						spOnlineClientId = h.getValue();
+						principal = h.getValue();
 					}
 				}
 			}
+		return new CloudTokenCache.Realm(realm, principal);
+	}
 
+	/**
+	 * @return the stored token when it is not due for renewal, a new token otherwise.
+	 */
+	private TokenRefresher.Expiring<String> getBearerToken() throws Exception {
+		CredentialStore.Entry stored = loadStored(cacheKey());
+		if (stored != null && Instant.now().isBefore(stored.getExpiresAt().minus(getRefreshAhead()))) {
+			LOG.debug("Reusing the stored SPonline token, expiration: {}", stored.getExpiresAt());
+			return new TokenRefresher.Expiring<>(stored.getValue(), stored.getExpiresAt());
+		}
+		long start = System.nanoTime();
+		TokenRefresher.Expiring<String> requested;
+		try {
+			requested = requestBearerToken();
+		} finally {
+			long elapsed = System.nanoTime() - start;
+			refreshes.increment();
+			refreshNanos.add(elapsed);
+			lastRefreshDuration = Duration.ofNanos(elapsed);
+		}
+		LOG.debug("SPonline token request took {} ms", lastRefreshDuration.toMillis());
+		saveStored(cacheKey(), new CredentialStore.Entry(requested.value, requested.expiresAt));
+		return requested;
 	}
 
-	private void getBearerToken() throws Exception {
+	private TokenRefresher.Expiring<String> requestBearerToken() throws Exception {
+		if (spOnlineRealm == null) {
+			getTenantId();
+		}
 
 		AccessToken spToken = getSharepointAccessToken();
+		String spOnlineToken;
+		Instant spOnlineTokenExpiration;
 
 		if (spToken != null) {
 			spOnlineToken = spToken.getToken();
-			spOnlineTokenType = spToken.getTokenType();
-			spOnlineTokenExpiration = spToken.getExpiresAt().atZoneSameInstant(ZoneId.systemDefault()).toLocalDateTime().minusMinutes(1);
+			spOnlineTokenExpiration = spToken.getExpiresAt().toInstant().minus(EXPIRATION_MARGIN);
 		} else {
 			String url = "https://accounts.accesscontrol.windows.net/" + spOnlineRealm + "/tokens/OAuth/2";
 			HttpPost post = new HttpPost(url);
 			HttpEntity multipart = fillInSPOnlineTokenRequestData();
 			post.setEntity(multipart);
 
-			CloseableHttpClient httpClient = httpClientBuilderSupplier.get().build();
 			Date reqDate = new Date();
-			try (CloseableHttpResponse response = httpClient.execute(post, (HttpContext) null)) {
+			try (CloseableHttpResponse response = httpClient().execute(post, (HttpContext) null)) {
 				HttpEntity entity = response.getEntity();
 				InputStream instream = entity.getContent();
 				String json = IOUtils.toString(instream, StandardCharsets.UTF_8.name());
@@ -146,12 +394,49 @@ public class CloudTokenForClientIdGetter {
 				jr.setLenient(true);
 				JsonObject reply = jp.parse(jr).getAsJsonObject();
 				spOnlineToken = reply.get("access_token").getAsString();
-				spOnlineTokenType = reply.get("token_type").getAsString();
-				spOnlineTokenExpiration = LocalDateTime.now().plusSeconds(reply.get("expires_in").getAsLong()).minusMinutes(1);
+				spOnlineTokenExpiration = reqDate.toInstant().plusSeconds(reply.get("expires_in").getAsLong()).minus(EXPIRATION_MARGIN);
 			}
 		}
 
-		LOG.debug("got SPonline token", "token: " + spOnlineToken.substring(0, 15) + "..., expiration: " + spOnlineTokenExpiration);
+		LOG.debug("got SPonline token {}..., expiration: {}", spOnlineToken.substring(0, Math.min(15, spOnlineToken.length())), spOnlineTokenExpiration);
+		return new TokenRefresher.Expiring<>(spOnlineToken, spOnlineTokenExpiration);
+	}
+
+	private CredentialStore.Entry loadStored(String key) {
+		CredentialStore store = credentialStore;
+		if (store == null) {
+			return null;
+		}
+		try {
+			return store.load(key);
+		} catch (Exception e) {
+			LOG.warn("Can't load from the credential store", e);
+			return null;
+		}
+	}
+
+	private void saveStored(String key, CredentialStore.Entry entry) {
+		CredentialStore store = credentialStore;
+		if (store == null) {
+			return;
+		}
+		try {
+			store.save(key, entry);
+		} catch (Exception e) {
+			LOG.warn("Can't save to the credential store", e);
+		}
+	}
+
+	private void removeStored(String key) {
+		CredentialStore store = credentialStore;
+		if (store == null) {
+			return;
+		}
+		try {
+			store.remove(key);
+		} catch (Exception e) {
+			LOG.warn("Can't remove from the credential store", e);
+		}
 	}
 
 	private HttpEntity fillInSPOnlineTokenRequestData() throws MalformedURLException {
@@ -195,12 +480,18 @@ public class CloudTokenForClientIdGetter {
 		}
 		URL certPrivateKeyPathUrl = new URL("file://" + certificatePath);
 
-		if(certPrivateKeyPathUrl != null) {
-				ClientCertificateCredential certificateCredential
-						= getClientCertCredential(clientId, clientTenant, certificatePassword, certPrivateKeyPathUrl.getPath());
-				return getAccessToken(certificateCredential, sharepointScope);
+		ClientCertificateCredential credential;
+		synchronized (this) {
+			if (closed) {
+				throw new IllegalStateException("token getter closed");
+			}
+			if (certificateCredential == null) {
+				// parsing the certificate is costly, the credential is kept for the lifetime of the getter
+				certificateCredential = getClientCertCredential(clientId, clientTenant, certificatePassword, certPrivateKeyPathUrl.getPath());
+			}
+			credential = certificateCredential;
 		}
-		return null;
+		return getAccessToken(credential, sharepointScope);
 	}
 
 }
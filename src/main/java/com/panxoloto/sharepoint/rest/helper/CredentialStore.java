@@ -0,0 +1,51 @@
+package com.panxoloto.sharepoint.rest.helper;
+
+import java.time.Instant;
+
+/**
+ * Persists sign in sessions, app tokens and realms between runs, so a restarted process reuses the ones
+ * still valid instead of signing in again. See {@link FileCredentialStore}.
+ */
+public interface CredentialStore {
+
+	/**
+	 * Stored value and the instant it stops being valid.
+	 */
+	final class Entry {
+		private final String value;
+		private final Instant expiresAt;
+
+		public Entry(String value, Instant expiresAt) {
+			this.value = value;
+			this.expiresAt = expiresAt;
+		}
+
+		public String getValue() {
+			return value;
+		}
+
+		public Instant getExpiresAt() {
+			return expiresAt;
+		}
+	}
+
+	/**
+	 * @param key identifier of the credential.
+	 * @return the saved entry, null when there is none or it has expired.
+	 * @throws Exception
+	 */
+	Entry load(String key) throws Exception;
+
+	/**
+	 * @param key identifier of the credential.
+	 * @param entry credential to reuse until it expires.
+	 * @throws Exception
+	 */
+	void save(String key, Entry entry) throws Exception;
+
+	/**
+	 * @param key identifier of a credential no longer valid.
+	 * @throws Exception
+	 */
+	void remove(String key) throws Exception;
+}
@@ -0,0 +1,187 @@
+package com.panxoloto.sharepoint.rest.helper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Properties;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link CredentialStore} keeping every credential in a single file encrypted with AES-GCM, either with a
+ * given key or with a key derived from a passphrase (PBKDF2). The file is rewritten through a temporary file,
+ * readable only by its owner on POSIX systems, and an atomic move. Expired credentials are dropped on save.
+ * <p>
+ * The store is a cache: a file that can't be read or decrypted, like one written with another key, is
+ * treated as empty and replaced on the next save.
+ */
+public class FileCredentialStore implements CredentialStore {
+
+	private static final Logger LOG = LoggerFactory.getLogger(FileCredentialStore.class);
+
+	private static final String CIPHER = "AES/GCM/NoPadding";
+	private static final int SALT_LENGTH = 16;
+	private static final int IV_LENGTH = 12;
+	private static final int TAG_BITS = 128;
+	private static final int KEY_BITS = 256;
+	private static final int PBKDF2_ITERATIONS = 210_000;
+
+	private final SecureRandom random = new SecureRandom();
+	private final Path file;
+	private final SecretKey key;
+	private final char[] passphrase;
+	private byte[] salt;
+	private SecretKey derivedKey;
+
+	/**
+	 * @param file encrypted file holding the credentials, created on first save.
+	 * @param key AES key, see {@link #generateKey()}.
+	 */
+	public FileCredentialStore(Path file, SecretKey key) {
+		this.file = file;
+		this.key = key;
+		this.passphrase = null;
+	}
+
+	/**
+	 * @param file encrypted file holding the credentials, created on first save.
+	 * @param passphrase passphrase the key is derived from.
+	 */
+	public FileCredentialStore(Path file, char[] passphrase) {
+		this.file = file;
+		this.key = null;
+		this.passphrase = passphrase.clone();
+	}
+
+	/**
+	 * @return a new random AES key.
+	 */
+	public static SecretKey generateKey() throws GeneralSecurityException {
+		KeyGenerator generator = KeyGenerator.getInstance("AES");
+		generator.init(KEY_BITS);
+		return generator.generateKey();
+	}
+
+	@Override
+	public synchronized Entry load(String key) throws IOException {
+		String stored = read().getProperty(key);
+		if (stored == null) {
+			return null;
+		}
+		Entry entry = parse(stored);
+		return Instant.now().isBefore(entry.getExpiresAt()) ? entry : null;
+	}
+
+	@Override
+	public synchronized void save(String key, Entry entry) throws IOException {
+		Properties credentials = read();
+		credentials.setProperty(key, entry.getExpiresAt().toEpochMilli() + ":" + entry.getValue());
+		write(credentials);
+	}
+
+	@Override
+	public synchronized void remove(String key) throws IOException {
+		Properties credentials = read();
+		if (credentials.remove(key) != null) {
+			write(credentials);
+		}
+	}
+
+	private static Entry parse(String stored) {
+		int separator = stored.indexOf(':');
+		return new Entry(stored.substring(separator + 1), Instant.ofEpochMilli(Long.parseLong(stored.substring(0, separator))));
+	}
+
+	private Properties read() throws IOException {
+		Properties credentials = new Properties();
+		if (!Files.exists(file)) {
+			return credentials;
+		}
+		byte[] content = Files.readAllBytes(file);
+		try {
+			if (content.length < SALT_LENGTH + IV_LENGTH) {
+				throw new GeneralSecurityException("truncated file");
+			}
+			ByteBuffer buffer = ByteBuffer.wrap(content);
+			byte[] fileSalt = new byte[SALT_LENGTH];
+			byte[] iv = new byte[IV_LENGTH];
+			buffer.get(fileSalt).get(iv);
+			Cipher cipher = Cipher.getInstance(CIPHER);
+			cipher.init(Cipher.DECRYPT_MODE, key(fileSalt), new GCMParameterSpec(TAG_BITS, iv));
+			byte[] plain = cipher.doFinal(content, SALT_LENGTH + IV_LENGTH, content.length - SALT_LENGTH - IV_LENGTH);
+			credentials.load(new ByteArrayInputStream(plain));
+		} catch (GeneralSecurityException | IllegalArgumentException e) {
+			LOG.warn("Can't read the credential store {}, ignoring it: {}", file, e.toString());
+			credentials.clear();
+		}
+		return credentials;
+	}
+
+	private void write(Properties credentials) throws IOException {
+		Instant now = Instant.now();
+		credentials.entrySet().removeIf(e -> !now.isBefore(parse((String) e.getValue()).getExpiresAt()));
+
+		ByteArrayOutputStream plain = new ByteArrayOutputStream();
+		credentials.store(plain, null);
+		byte[] content;
+		try {
+			if (salt == null) {
+				salt = new byte[SALT_LENGTH];
+				random.nextBytes(salt);
+			}
+			byte[] iv = new byte[IV_LENGTH];
+			random.nextBytes(iv);
+			Cipher cipher = Cipher.getInstance(CIPHER);
+			cipher.init(Cipher.ENCRYPT_MODE, key(salt), new GCMParameterSpec(TAG_BITS, iv));
+			byte[] encrypted = cipher.doFinal(plain.toByteArray());
+			content = ByteBuffer.allocate(SALT_LENGTH + IV_LENGTH + encrypted.length).put(salt).put(iv).put(encrypted).array();
+		} catch (GeneralSecurityException e) {
+			throw new IOException("Can't encrypt the credential store", e);
+		}
+
+		Path parent = file.toAbsolutePath().getParent();
+		Files.createDirectories(parent);
+		Path tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+		try {
+			Files.write(tmp, content);
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	/**
+	 * @return the given key, or the key derived from the passphrase with the salt of the file. The derived
+	 * key is kept as long as the salt does not change.
+	 */
+	private SecretKey key(byte[] fileSalt) throws GeneralSecurityException {
+		if (key != null) {
+			salt = fileSalt;
+			return key;
+		}
+		if (derivedKey == null || !Arrays.equals(salt, fileSalt)) {
+			SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+			byte[] derived = factory.generateSecret(new PBEKeySpec(passphrase, fileSalt, PBKDF2_ITERATIONS, KEY_BITS)).getEncoded();
+			derivedKey = new SecretKeySpec(derived, "AES");
+			salt = fileSalt.clone();
+		}
+		return derivedKey;
+	}
+}
@@ -1,77 +1,233 @@
 package com.panxoloto.sharepoint.rest.helper;
 
-import java.util.stream.Collectors;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
 
+import org.springframework.http.HttpHeaders;
 import org.springframework.util.LinkedMultiValueMap;
 
+/**
+ * Headers of the requests to the REST API. The header sets of each kind of request are built once per
+ * session (cookies and token) and metadata level, and reused until one of them changes. Content-length is
+ * not part of them, it is set by the message converter writing the body.
+ */
 public class HeadersHelper {
 
 	private AuthTokenHelperOnline tokenHelper;
+	private volatile ODataMetadata metadata = ODataMetadata.VERBOSE;
+	private volatile Templates templates;
+
+	/**
+	 * Read-only header sets of a session, compared by reference to the current session values.
+	 */
+	private static final class Templates {
+		private final List<String> cookies;
+		private final String token;
+		private final ODataMetadata metadata;
+		private final HttpHeaders get;
+		private final HttpHeaders getWithAuth;
+		private final HttpHeaders post;
+		private final HttpHeaders update;
+		private final HttpHeaders delete;
+
+		private Templates(List<String> cookies, String token, ODataMetadata metadata, boolean useClientId) {
+			this.cookies = cookies;
+			this.token = token;
+			this.metadata = metadata;
+			String cookie = cookies == null ? "" : String.join(";", cookies);
+			String bearer = "Bearer " + token;
+
+			HttpHeaders base = new HttpHeaders();
+			base.add("Cookie", cookie);
+			base.add("Accept", metadata.getMediaType());
+
+			HttpHeaders getWithAuth = copy(base);
+			getWithAuth.add("X-ClientService-ClientTag", "SDK-JAVA");
+			getWithAuth.add("Authorization", bearer);
+			this.getWithAuth = HttpHeaders.readOnlyHttpHeaders(getWithAuth);
+			if (useClientId) {
+				this.get = this.getWithAuth;
+			} else {
+				HttpHeaders get = copy(base);
+				get.add("X-ClientService-ClientTag", "SDK-JAVA");
+				get.add("X-RequestDigest", token);
+				this.get = HttpHeaders.readOnlyHttpHeaders(get);
+			}
+
+			HttpHeaders post = copy(base);
+			post.add("Content-Type", "application/json;odata=verbose");
+			post.add("X-ClientService-ClientTag", "SDK-JAVA");
+			post.add("Authorization", bearer);
+			this.post = HttpHeaders.readOnlyHttpHeaders(post);
+
+			HttpHeaders update = copy(base);
+			update.add("Content-Type", "application/json;odata=verbose");
+			update.add("X-ClientService-ClientTag", "SDK-JAVA");
+			update.add("X-HTTP-Method", "MERGE");
+			update.add("IF-Match", "*");
+			update.add("Authorization", bearer);
+			this.update = HttpHeaders.readOnlyHttpHeaders(update);
+
+			HttpHeaders delete = copy(base);
+			delete.add("X-ClientService-ClientTag", "SDK-JAVA");
+			delete.add("Authorization", bearer);
+			delete.add("X-HTTP-Method", "DELETE");
+			delete.add("IF-Match", "*");
+			this.delete = HttpHeaders.readOnlyHttpHeaders(delete);
+		}
+
+		private static HttpHeaders copy(HttpHeaders headers) {
+			HttpHeaders copy = new HttpHeaders();
+			copy.addAll(headers);
+			return copy;
+		}
+	}
 
 	public HeadersHelper(AuthTokenHelperOnline tokenHelper) {
 		this.tokenHelper = tokenHelper;
 	}
-	
+
+	/**
+	 * @param metadata metadata level requested in the Accept header of every request, verbose by default.
+	 * Request payloads are still sent as verbose JSON.
+	 */
+	public void setMetadata(ODataMetadata metadata) {
+		this.metadata = metadata;
+	}
+
+	public ODataMetadata getMetadata() {
+		return metadata;
+	}
+
+	private Templates templates() {
+		List<String> cookies;
+		String token;
+		do {
+			// a sign in between both reads would pair the cookies with the digest of another session
+			cookies = tokenHelper.getCookies();
+			token = tokenHelper.getFormDigestValue();
+		} while (cookies != tokenHelper.getCookies());
+		ODataMetadata metadata = this.metadata;
+		Templates current = templates;
+		if (current == null || current.cookies != cookies || current.token != token || current.metadata != metadata) {
+			// a concurrent rebuild of the same session is harmless, both are equal
+			current = new Templates(cookies, token, metadata, tokenHelper.isUseClientId());
+			templates = current;
+		}
+		return current;
+	}
+
+	/**
+	 * @return read-only headers of a GET request, shared by every request of the session.
+	 */
+	public HttpHeaders getGetHeadersTemplate(boolean includeAuthHeader) {
+		Templates t = templates();
+		return includeAuthHeader ? t.getWithAuth : t.get;
+	}
+
+	/**
+	 * @return read-only headers of a POST request with a JSON body, shared by every request of the session.
+	 */
+	public HttpHeaders getPostHeadersTemplate() {
+		return templates().post;
+	}
+
+	/**
+	 * @return read-only headers of a MERGE request with a JSON body, shared by every request of the session.
+	 */
+	public HttpHeaders getUpdateHeadersTemplate() {
+		return templates().update;
+	}
+
+	/**
+	 * @return read-only headers of a DELETE request, shared by every request of the session.
+	 */
+	public HttpHeaders getDeleteHeadersTemplate() {
+		return templates().delete;
+	}
+
+	/**
+	 * Replaces the session headers of a request (cookies, Authorization and X-RequestDigest) by the ones of
+	 * the current session, the other headers are kept.
+	 *
+	 * @param headers headers of a request built with this helper.
+	 */
+	public void refreshSessionHeaders(HttpHeaders headers) {
+		Templates t = templates();
+		if (headers.containsKey("Cookie")) {
+			headers.set("Cookie", t.getWithAuth.getFirst("Cookie"));
+		}
+		if (headers.containsKey("Authorization")) {
+			headers.set("Authorization", t.getWithAuth.getFirst("Authorization"));
+		}
+		if (headers.containsKey("X-RequestDigest")) {
+			headers.set("X-RequestDigest", t.token);
+		}
+	}
+
+	/**
+	 * @param headers headers of a request built with this helper.
+	 * @return whether they carry the sign in of the current session: its cookies, or its app token when
+	 * signing in with a client id. A form digest renewed since doesn't make them stale.
+	 */
+	public boolean isCurrentSignIn(HttpHeaders headers) {
+		Templates t = templates();
+		String name = tokenHelper.isUseClientId() ? "Authorization" : "Cookie";
+		return Objects.equals(headers.getFirst(name), t.getWithAuth.getFirst(name));
+	}
+
 	/**
 	 * @return
 	 */
 	public LinkedMultiValueMap<String, String> getGetHeaders(boolean includeAuthHeader) {
-		LinkedMultiValueMap<String, String> headers = new LinkedMultiValueMap<>();
-		headers.add("Cookie",  this.tokenHelper.getCookies().stream().collect(Collectors.joining(";")) );
-		headers.add("Accept", "application/json;odata=verbose");
-		headers.add("X-ClientService-ClientTag", "SDK-JAVA");
-	    if (includeAuthHeader || tokenHelper.isUseClientId()) {
-	    	headers.add("Authorization", "Bearer " + this.tokenHelper.getFormDigestValue());
-	    } else {
-	    	headers.add("X-RequestDigest", this.tokenHelper.getFormDigestValue());
-	    }
-	    return headers;
-	}
-	
+		return mutableCopy(getGetHeadersTemplate(includeAuthHeader));
+	}
+
 	/**
-	 * @param payloadStr
 	 * @return
 	 */
+	public LinkedMultiValueMap<String, String> getPostHeaders() {
+		return mutableCopy(getPostHeadersTemplate());
+	}
+
+	/**
+	 * @param payloadStr not used anymore, the length of the body is set when it is written.
+	 * @return
+	 * @deprecated use {@link #getPostHeaders()}.
+	 */
+	@Deprecated
 	public LinkedMultiValueMap<String, String> getPostHeaders(String payloadStr) {
-		LinkedMultiValueMap<String, String> headers = new LinkedMultiValueMap<>();
-		headers.add("Cookie",  this.tokenHelper.getCookies().stream().collect(Collectors.joining(";")) );
-		headers.add("Accept", "application/json;odata=verbose");
-		headers.add("Content-Type", "application/json;odata=verbose");
-		headers.add("Content-length", "" + payloadStr.getBytes().length);
-		headers.add("X-ClientService-ClientTag", "SDK-JAVA");
-	    headers.add("Authorization", "Bearer " + this.tokenHelper.getFormDigestValue());
-	    return headers;
-	}
-	
+		return getPostHeaders();
+	}
+
 	/**
-	 * @param payloadStr
 	 * @return
 	 */
+	public LinkedMultiValueMap<String, String> getUpdateHeaders() {
+		return mutableCopy(getUpdateHeadersTemplate());
+	}
+
+	/**
+	 * @param payloadStr not used anymore, the length of the body is set when it is written.
+	 * @return
+	 * @deprecated use {@link #getUpdateHeaders()}.
+	 */
+	@Deprecated
 	public LinkedMultiValueMap<String, String> getUpdateHeaders(String payloadStr) {
-		LinkedMultiValueMap<String, String> headers = new LinkedMultiValueMap<>();
-		headers.add("Cookie",  this.tokenHelper.getCookies().stream().collect(Collectors.joining(";")) );
-		headers.add("Accept", "application/json;odata=verbose");
-		headers.add("Content-Type", "application/json;odata=verbose");
-		headers.add("Content-length", "" + payloadStr.getBytes().length);
-		headers.add("X-ClientService-ClientTag", "SDK-JAVA");
-		headers.add("X-HTTP-Method", "MERGE");
-		headers.add("IF-Match", "*");
-	    headers.add("Authorization", "Bearer " + this.tokenHelper.getFormDigestValue());
-	    return headers;
-	}
-	
+		return getUpdateHeaders();
+	}
+
 	/**
 	 * @return
 	 */
 	public LinkedMultiValueMap<String, String> getDeleteHeaders() {
-		LinkedMultiValueMap<String, String> headers = new LinkedMultiValueMap<>();
-		headers.add("Cookie",  this.tokenHelper.getCookies().stream().collect(Collectors.joining(";")) );
-		headers.add("Accept", "application/json;odata=verbose");
-		headers.add("X-ClientService-ClientTag", "SDK-JAVA");
-	    headers.add("Authorization", "Bearer " + this.tokenHelper.getFormDigestValue());
-	    headers.add("X-HTTP-Method", "DELETE");
-	    headers.add("IF-Match", "*");
-	    return headers;
-	}
-	
+		return mutableCopy(getDeleteHeadersTemplate());
+	}
+
+	private static LinkedMultiValueMap<String, String> mutableCopy(HttpHeaders template) {
+		LinkedMultiValueMap<String, String> headers = new LinkedMultiValueMap<>(template.size() + 2);
+		template.forEach((name, values) -> headers.put(name, new ArrayList<>(values)));
+		return headers;
+	}
 }
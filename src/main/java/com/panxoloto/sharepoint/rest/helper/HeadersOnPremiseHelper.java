@@ -10,13 +10,25 @@ import com.panxoloto.sharepoint.rest.PLGSharepointOnPremisesClient;
 public class HeadersOnPremiseHelper {
 
 	PLGSharepointOnPremisesClient client;
+	private ODataMetadata metadata = ODataMetadata.VERBOSE;
 
 	public HeadersOnPremiseHelper(PLGSharepointOnPremisesClient client) {
 		this.client = client;
 	}
 
+	/**
+	 * @param metadata metadata level requested in the Accept header of every request, verbose by default.
+	 */
+	public void setMetadata(ODataMetadata metadata) {
+		this.metadata = metadata;
+	}
+
+	public ODataMetadata getMetadata() {
+		return metadata;
+	}
+
 	private void addAcceptJson(LinkedMultiValueMap<String, String> headers) {
-		headers.add("Accept", "application/json;odata=verbose");
+		headers.add("Accept", metadata.getMediaType());
 	}
 
 	private void addClientHeader(LinkedMultiValueMap<String, String> headers) {
@@ -0,0 +1,26 @@
+package com.panxoloto.sharepoint.rest.helper;
+
+/**
+ * Amount of OData metadata requested in JSON responses (Accept header). Verbose responses wrap everything in
+ * a <code>d</code> object and add <code>__metadata</code> and deferred links to every entity, which doubles
+ * or triples the size of list item pages. Use {@link ODataResponse} to read responses in any format.
+ */
+public enum ODataMetadata {
+
+	VERBOSE("application/json;odata=verbose"),
+	MINIMAL("application/json;odata=minimalmetadata"),
+	NONE("application/json;odata=nometadata");
+
+	private final String mediaType;
+
+	ODataMetadata(String mediaType) {
+		this.mediaType = mediaType;
+	}
+
+	/**
+	 * @return value of the Accept header requesting this format.
+	 */
+	public String getMediaType() {
+		return mediaType;
+	}
+}
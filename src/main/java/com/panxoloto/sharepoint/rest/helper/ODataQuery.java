@@ -0,0 +1,157 @@
+package com.panxoloto.sharepoint.rest.helper;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * OData query options ($select, $expand, $filter, $orderby, $top and $skiptoken) sent in the query string of
+ * a request. Values are percent encoded, so filters may contain any character (quotes, ampersands, non ASCII
+ * text...).
+ * <p>
+ * Selecting only the needed columns is the easiest way to reduce the size of list item responses:
+ * <pre>
+ * new ODataQuery().select("ID", "Title", "Author/Title").expand("Author").filter("Status eq 'Open'").top(500)
+ * </pre>
+ */
+public class ODataQuery {
+
+	private final List<String> select = new ArrayList<>();
+	private final List<String> expand = new ArrayList<>();
+	private final List<String> orderBy = new ArrayList<>();
+	private String filter;
+	private Integer top;
+	private String skipToken;
+
+	/**
+	 * @param fields fields to retrieve, lookup fields as <code>Lookup/Field</code> together with {@link #expand(String...)}.
+	 * @return this query.
+	 */
+	public ODataQuery select(String... fields) {
+		select.addAll(Arrays.asList(fields));
+		return this;
+	}
+
+	/**
+	 * @param fields lookup or navigation fields to expand.
+	 * @return this query.
+	 */
+	public ODataQuery expand(String... fields) {
+		expand.addAll(Arrays.asList(fields));
+		return this;
+	}
+
+	/**
+	 * @param filter filter expression without the <code>$filter=</code> prefix, like <code>Title eq 'Doc'</code>.
+	 * @return this query.
+	 */
+	public ODataQuery filter(String filter) {
+		this.filter = filter;
+		return this;
+	}
+
+	/**
+	 * Adds an ascending sort field.
+	 *
+	 * @param field field to sort by.
+	 * @return this query.
+	 */
+	public ODataQuery orderBy(String field) {
+		return orderBy(field, true);
+	}
+
+	/**
+	 * @param field field to sort by.
+	 * @param ascending sort direction.
+	 * @return this query.
+	 */
+	public ODataQuery orderBy(String field, boolean ascending) {
+		orderBy.add(ascending ? field : field + " desc");
+		return this;
+	}
+
+	/**
+	 * Removes every sort field, to replace the ordering of a query.
+	 *
+	 * @return this query.
+	 */
+	public ODataQuery clearOrderBy() {
+		orderBy.clear();
+		return this;
+	}
+
+	/**
+	 * @param top maximum number of results per page (5000 at most for list items).
+	 * @return this query.
+	 */
+	public ODataQuery top(int top) {
+		this.top = top;
+		return this;
+	}
+
+	/**
+	 * @param skipToken paging token, like <code>Paged=TRUE&amp;p_ID=100</code>, not encoded.
+	 * @return this query.
+	 */
+	public ODataQuery skipToken(String skipToken) {
+		this.skipToken = skipToken;
+		return this;
+	}
+
+	public String getFilter() {
+		return filter;
+	}
+
+	/**
+	 * @return a copy of this query that can be modified without altering this one.
+	 */
+	public ODataQuery copy() {
+		ODataQuery copy = new ODataQuery();
+		copy.select.addAll(select);
+		copy.expand.addAll(expand);
+		copy.orderBy.addAll(orderBy);
+		copy.filter = filter;
+		copy.top = top;
+		copy.skipToken = skipToken;
+		return copy;
+	}
+
+	public boolean isEmpty() {
+		return toQueryString().isEmpty();
+	}
+
+	/**
+	 * @return the encoded query string, without the leading <code>?</code>.
+	 */
+	public String toQueryString() {
+		StringBuilder query = new StringBuilder();
+		append(query, "$select", String.join(",", select));
+		append(query, "$expand", String.join(",", expand));
+		append(query, "$filter", filter);
+		append(query, "$orderby", String.join(",", orderBy));
+		append(query, "$top", top == null ? null : top.toString());
+		append(query, "$skiptoken", skipToken);
+		return query.toString();
+	}
+
+	private static void append(StringBuilder query, String option, String value) {
+		if (value == null || value.isEmpty()) {
+			return;
+		}
+		if (query.length() > 0) {
+			query.append('&');
+		}
+		query.append(option).append('=').append(encode(value));
+	}
+
+	static String encode(String value) {
+		return URLEncoder.encode(value, StandardCharsets.UTF_8).replace("+", "%20");
+	}
+
+	@Override
+	public String toString() {
+		return toQueryString();
+	}
+}
@@ -0,0 +1,51 @@
+package com.panxoloto.sharepoint.rest.helper;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Reads JSON responses of the REST API regardless of the requested {@link ODataMetadata} level: verbose
+ * responses (<code>d</code>, <code>results</code>, <code>__next</code>) as well as light ones
+ * (<code>value</code>, <code>odata.nextLink</code>).
+ */
+public class ODataResponse {
+
+	private ODataResponse() {
+	}
+
+	/**
+	 * @param response parsed response body.
+	 * @return the returned entity: the <code>d</code> object of verbose responses, the body itself otherwise.
+	 */
+	public static JSONObject entity(JSONObject response) {
+		JSONObject d = response.optJSONObject("d");
+		return d != null ? d : response;
+	}
+
+	/**
+	 * @param response parsed response body of a collection.
+	 * @return the entities of the collection, empty when the response has none.
+	 */
+	public static JSONArray results(JSONObject response) {
+		JSONObject d = response.optJSONObject("d");
+		if (d != null) {
+			JSONArray results = d.optJSONArray("results");
+			return results != null ? results : new JSONArray();
+		}
+		JSONArray value = response.optJSONArray("value");
+		return value != null ? value : new JSONArray();
+	}
+
+	/**
+	 * @param response parsed response body of a collection.
+	 * @return the URL of the next page of the collection, null when this is the last one.
+	 */
+	public static String nextLink(JSONObject response) {
+		JSONObject d = response.optJSONObject("d");
+		if (d != null) {
+			return d.optString("__next", null);
+		}
+		String next = response.optString("odata.nextLink", null);
+		return next != null ? next : response.optString("@odata.nextLink", null);
+	}
+}
@@ -0,0 +1,175 @@
+package com.panxoloto.sharepoint.rest.helper;
+
+import java.time.Duration;
+import java.util.function.Supplier;
+
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.IdleConnectionEvictor;
+import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+
+/**
+ * Connection pool shared by every HTTP client built from {@link #httpClientBuilderSupplier()}, to pass to the
+ * clients and token getters taking a <code>Supplier&lt;HttpClientBuilder&gt;</code>. The library defaults of
+ * httpclient5 (5 connections per host, no idle eviction, no timeouts) make parallel workloads queue for a
+ * connection. The pool statistics tell whether requests are waiting for one.
+ * <p>
+ * Settings can only be changed until the pool is created by the first client.
+ */
+public class PooledConnectionConfig implements AutoCloseable {
+
+	private int maxConnectionsPerRoute = 20;
+	private int maxConnectionsTotal = 50;
+	private Duration connectTimeout = Duration.ofSeconds(10);
+	private Duration connectionRequestTimeout = Duration.ofSeconds(30);
+	private Duration responseTimeout = Duration.ofMinutes(2);
+	private Duration keepAlive = Duration.ofSeconds(30);
+	private Duration maxIdleTime = Duration.ofSeconds(30);
+	private Duration timeToLive = Duration.ofMinutes(5);
+
+	private PoolingHttpClientConnectionManager connectionManager;
+	private IdleConnectionEvictor evictor;
+
+	/**
+	 * @param maxConnectionsPerRoute maximum connections to a single host, 20 by default.
+	 */
+	public PooledConnectionConfig maxConnectionsPerRoute(int maxConnectionsPerRoute) {
+		checkNotStarted();
+		this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+		return this;
+	}
+
+	/**
+	 * @param maxConnectionsTotal maximum connections of the pool, 50 by default.
+	 */
+	public PooledConnectionConfig maxConnectionsTotal(int maxConnectionsTotal) {
+		checkNotStarted();
+		this.maxConnectionsTotal = maxConnectionsTotal;
+		return this;
+	}
+
+	/**
+	 * @param connectTimeout timeout of the TCP and TLS connection, 10 seconds by default.
+	 */
+	public PooledConnectionConfig connectTimeout(Duration connectTimeout) {
+		checkNotStarted();
+		this.connectTimeout = connectTimeout;
+		return this;
+	}
+
+	/**
+	 * @param connectionRequestTimeout maximum wait for a free connection of the pool, 30 seconds by default.
+	 */
+	public PooledConnectionConfig connectionRequestTimeout(Duration connectionRequestTimeout) {
+		checkNotStarted();
+		this.connectionRequestTimeout = connectionRequestTimeout;
+		return this;
+	}
+
+	/**
+	 * @param responseTimeout maximum inactivity while waiting for the response, 2 minutes by default.
+	 */
+	public PooledConnectionConfig responseTimeout(Duration responseTimeout) {
+		checkNotStarted();
+		this.responseTimeout = responseTimeout;
+		return this;
+	}
+
+	/**
+	 * @param keepAlive time a connection is kept for reuse when the server doesn't state it (Keep-Alive
+	 *                  header), 30 seconds by default.
+	 */
+	public PooledConnectionConfig keepAlive(Duration keepAlive) {
+		checkNotStarted();
+		this.keepAlive = keepAlive;
+		return this;
+	}
+
+	/**
+	 * @param maxIdleTime idle time after which a pooled connection is closed in background, 30 seconds by
+	 *                    default.
+	 */
+	public PooledConnectionConfig maxIdleTime(Duration maxIdleTime) {
+		checkNotStarted();
+		this.maxIdleTime = maxIdleTime;
+		return this;
+	}
+
+	/**
+	 * @param timeToLive maximum life of a connection, 5 minutes by default.
+	 */
+	public PooledConnectionConfig timeToLive(Duration timeToLive) {
+		checkNotStarted();
+		this.timeToLive = timeToLive;
+		return this;
+	}
+
+	/**
+	 * @return supplier of builders of clients sharing the pool of this configuration, which is created by
+	 * the first call.
+	 */
+	public Supplier<HttpClientBuilder> httpClientBuilderSupplier() {
+		return () -> HttpClients.custom()
+				.setConnectionManager(getConnectionManager())
+				.setConnectionManagerShared(true)
+				.setDefaultRequestConfig(RequestConfig.custom()
+						.setConnectionRequestTimeout(Timeout.of(connectionRequestTimeout))
+						.setResponseTimeout(Timeout.of(responseTimeout))
+						.setConnectionKeepAlive(TimeValue.of(keepAlive))
+						.build());
+	}
+
+	/**
+	 * @return the pool, created on first use.
+	 */
+	public synchronized PoolingHttpClientConnectionManager getConnectionManager() {
+		if (connectionManager == null) {
+			connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+					.setMaxConnPerRoute(maxConnectionsPerRoute)
+					.setMaxConnTotal(maxConnectionsTotal)
+					.setDefaultConnectionConfig(ConnectionConfig.custom()
+							.setConnectTimeout(Timeout.of(connectTimeout))
+							.setTimeToLive(TimeValue.of(timeToLive))
+							.setValidateAfterInactivity(TimeValue.ofSeconds(2))
+							.build())
+					.build();
+			// clients built on a shared pool don't evict its connections themselves
+			TimeValue maxIdle = TimeValue.of(maxIdleTime);
+			evictor = new IdleConnectionEvictor(connectionManager, maxIdle, maxIdle);
+			evictor.start();
+		}
+		return connectionManager;
+	}
+
+	/**
+	 * @return leased (in use), pending (requests waiting for a connection), available (idle) and max
+	 * connections of the whole pool.
+	 */
+	public PoolStats getPoolStats() {
+		return getConnectionManager().getTotalStats();
+	}
+
+	/**
+	 * Closes the pool and every connection, the clients built from this configuration can't be used anymore.
+	 */
+	@Override
+	public synchronized void close() {
+		if (connectionManager != null) {
+			evictor.shutdown();
+			connectionManager.close(CloseMode.GRACEFUL);
+		}
+	}
+
+	private synchronized void checkNotStarted() {
+		if (connectionManager != null) {
+			throw new IllegalStateException("the connection pool has already been created");
+		}
+	}
+}
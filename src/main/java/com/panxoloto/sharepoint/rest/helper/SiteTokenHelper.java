@@ -0,0 +1,82 @@
+package com.panxoloto.sharepoint.rest.helper;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Token helper of a site using the session of the token helper of its tenant: the sign in cookies, the form
+ * digest and the app token are those of the tenant, only the site URL differs. Any number of sites share a
+ * single sign in and its renewals.
+ */
+public class SiteTokenHelper extends AuthTokenHelperOnline {
+
+	private final AuthTokenHelperOnline tenant;
+
+	/**
+	 * @param tenant token helper signing in to the tenant.
+	 * @param spSiteUri URI of the site like /sites/contososite.
+	 */
+	public SiteTokenHelper(AuthTokenHelperOnline tenant, String spSiteUri) {
+		super(tenant.isUseClientId(), null, null, null, tenant.getDomain(), spSiteUri);
+		this.tenant = tenant;
+		setProtocol(tenant.getProtocol());
+	}
+
+	public AuthTokenHelperOnline getTenant() {
+		return tenant;
+	}
+
+	@Override
+	public void init() throws Exception {
+		tenant.init();
+	}
+
+	@Override
+	public CompletableFuture<Void> initAsync(Executor executor) {
+		return tenant.initAsync(executor);
+	}
+
+	@Override
+	public boolean isSignedIn() {
+		return tenant.isSignedIn();
+	}
+
+	@Override
+	public long getSignInGeneration() {
+		return tenant.getSignInGeneration();
+	}
+
+	@Override
+	public boolean renewRejectedSession(long rejectedGeneration) throws Exception {
+		return tenant.renewRejectedSession(rejectedGeneration);
+	}
+
+	@Override
+	public String getFormDigestValue() {
+		return tenant.getFormDigestValue();
+	}
+
+	@Override
+	public List<String> getCookies() {
+		return tenant.getCookies();
+	}
+
+	@Override
+	public void setFormDigestRefreshAhead(Duration refreshAhead) {
+		tenant.setFormDigestRefreshAhead(refreshAhead);
+	}
+
+	@Override
+	public Duration getFormDigestRefreshAhead() {
+		return tenant.getFormDigestRefreshAhead();
+	}
+
+	/**
+	 * Does nothing, the session belongs to the tenant helper.
+	 */
+	@Override
+	public void close() {
+	}
+}
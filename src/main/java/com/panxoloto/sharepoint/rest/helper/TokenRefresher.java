@@ -0,0 +1,164 @@
+package com.panxoloto.sharepoint.rest.helper;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps a value with an expiration, like an access token, and fetches a new one in background a given time
+ * before it expires. Callers never wait while the current value is valid, and concurrent callers share a
+ * single fetch in flight. Only when there is no valid value do callers wait for the fetch.
+ *
+ * @param <T> type of the value.
+ */
+class TokenRefresher<T> {
+
+	private static final Logger LOG = LoggerFactory.getLogger(TokenRefresher.class);
+
+	/**
+	 * Minimum time between two background fetches after a failed one, the current value is still valid.
+	 */
+	static final Duration RETRY_AFTER_FAILURE = Duration.ofSeconds(5);
+
+	static final ExecutorService DEFAULT_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "sharepoint-token-refresh");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * Fetches a new value, called by a single thread at a time.
+	 */
+	interface Fetcher<T> {
+		Expiring<T> fetch() throws Exception;
+	}
+
+	/**
+	 * Value and the instant it stops being valid.
+	 */
+	static final class Expiring<T> {
+		final T value;
+		final Instant expiresAt;
+
+		Expiring(T value, Instant expiresAt) {
+			this.value = value;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	private final Fetcher<T> fetcher;
+	private final Executor executor;
+	private final Clock clock;
+	private volatile Duration refreshAhead;
+	private volatile Expiring<T> current;
+	private volatile Instant lastFailure = Instant.MIN;
+	private CompletableFuture<Expiring<T>> inFlight;
+
+	TokenRefresher(Fetcher<T> fetcher, Duration refreshAhead) {
+		this(fetcher, refreshAhead, DEFAULT_EXECUTOR, Clock.systemUTC());
+	}
+
+	TokenRefresher(Fetcher<T> fetcher, Duration refreshAhead, Executor executor, Clock clock) {
+		this.fetcher = fetcher;
+		this.refreshAhead = refreshAhead;
+		this.executor = executor;
+		this.clock = clock;
+	}
+
+	void setRefreshAhead(Duration refreshAhead) {
+		if (refreshAhead.isNegative()) {
+			throw new IllegalArgumentException("refreshAhead can't be negative");
+		}
+		this.refreshAhead = refreshAhead;
+	}
+
+	Duration getRefreshAhead() {
+		return refreshAhead;
+	}
+
+	/**
+	 * @return the current value, waiting for a fetch only when there is no valid one. Callers must not hold a
+	 * lock the fetcher takes.
+	 * @throws CompletionException with the cause of the failed fetch.
+	 */
+	T get() {
+		Expiring<T> value = current;
+		Instant now = clock.instant();
+		if (value != null && now.isBefore(value.expiresAt)) {
+			if (!now.isBefore(value.expiresAt.minus(refreshAhead)) && !now.isBefore(lastFailure.plus(RETRY_AFTER_FAILURE))) {
+				refresh();
+			}
+			return value.value;
+		}
+		return refresh().join().value;
+	}
+
+	/**
+	 * @return the current value, even expired, without ever waiting for a fetch. Null when there is none.
+	 */
+	T peek() {
+		Expiring<T> value = current;
+		return value == null ? null : value.value;
+	}
+
+	/**
+	 * Replaces the current value, like one obtained when signing in.
+	 */
+	void set(Expiring<T> value) {
+		current = value;
+	}
+
+	/**
+	 * Discards the current value, the next call to {@link #get()} waits for a new one.
+	 */
+	void invalidate() {
+		current = null;
+	}
+
+	/**
+	 * @return the fetch in flight, started if there is none.
+	 */
+	synchronized CompletableFuture<Expiring<T>> refresh() {
+		if (inFlight != null) {
+			return inFlight;
+		}
+		CompletableFuture<Expiring<T>> future = new CompletableFuture<>();
+		inFlight = future;
+		try {
+			executor.execute(() -> fetch(future));
+		} catch (RuntimeException e) {
+			inFlight = null;
+			throw e;
+		}
+		return future;
+	}
+
+	private void fetch(CompletableFuture<Expiring<T>> future) {
+		Expiring<T> value = null;
+		Exception error = null;
+		try {
+			value = fetcher.fetch();
+			current = value;
+		} catch (Exception e) {
+			lastFailure = clock.instant();
+			LOG.warn("Token refresh failed", e);
+			error = e;
+		}
+		synchronized (this) {
+			inFlight = null;
+		}
+		if (error == null) {
+			future.complete(value);
+		} else {
+			future.completeExceptionally(error);
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package com.panxoloto.sharepoint.rest;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.web.client.HttpClientErrorException;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class AdaptiveConcurrencyLimiterTest
+{
+	private static final int THREADS = 24;
+
+	private final AtomicInteger concurrent = new AtomicInteger();
+	private final AtomicInteger maxConcurrent = new AtomicInteger();
+	private volatile int capacity;
+	private HttpServer server;
+	private ExecutorService serverExecutor;
+	private AdaptiveConcurrencyLimiter limiter;
+	private StreamRestTemplate restTemplate;
+
+	@BeforeMethod
+	public final void start()
+		throws Exception
+	{
+		concurrent.set(0);
+		maxConcurrent.set(0);
+		serverExecutor = Executors.newCachedThreadPool();
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 128);
+		server.setExecutor(serverExecutor);
+		server.createContext("/", this::handle);
+		server.start();
+		limiter = new AdaptiveConcurrencyLimiter();
+		restTemplate = new StreamRestTemplate(new SimpleClientHttpRequestFactory());
+		restTemplate.addReplayInterceptor(limiter);
+	}
+
+	@AfterMethod
+	public final void stop()
+	{
+		server.stop(0);
+		serverExecutor.shutdownNow();
+	}
+
+	@Test
+	public final void limit_drops_when_the_server_throttles()
+		throws Exception
+	{
+		capacity = 4;
+		final AtomicInteger throttled = new AtomicInteger();
+		run(60, throttled);
+
+		assertTrue(throttled.get() > 0);
+		assertTrue(limiter.getLimit() < 20, "limit " + limiter.getLimit());
+		assertEquals(limiter.getInFlight(), 0);
+	}
+
+	@Test
+	public final void limit_grows_while_responses_are_healthy()
+		throws Exception
+	{
+		capacity = Integer.MAX_VALUE;
+		limiter.setLimits(4, 1, 50).setLatencyTolerance(1000);
+		final AtomicInteger throttled = new AtomicInteger();
+		run(60, throttled);
+
+		assertEquals(throttled.get(), 0);
+		assertTrue(limiter.getLimit() > 4, "limit " + limiter.getLimit());
+		assertTrue(maxConcurrent.get() <= limiter.getLimit(), maxConcurrent.get() + " in flight over limit " + limiter.getLimit());
+	}
+
+	private void run(final int requestsPerThread, final AtomicInteger throttled)
+		throws Exception
+	{
+		final URI uri = new URI("http://127.0.0.1:" + server.getAddress().getPort() + "/");
+		final ExecutorService workers = Executors.newFixedThreadPool(THREADS);
+		try
+		{
+			final List<Future<?>> results = new ArrayList<>();
+			for (int t = 0; t < THREADS; t++)
+			{
+				results.add(workers.submit(() ->
+				{
+					for (int i = 0; i < requestsPerThread; i++)
+					{
+						try
+						{
+							restTemplate.getForObject(uri, String.class);
+						}
+						catch (final HttpClientErrorException.TooManyRequests e)
+						{
+							throttled.incrementAndGet();
+						}
+					}
+					return null;
+				}));
+			}
+			for (final Future<?> result : results)
+			{
+				result.get(60, TimeUnit.SECONDS);
+			}
+		}
+		finally
+		{
+			workers.shutdownNow();
+		}
+	}
+
+	private void handle(final HttpExchange exchange)
+		throws IOException
+	{
+		final int current = concurrent.incrementAndGet();
+		maxConcurrent.accumulateAndGet(current, Math::max);
+		try
+		{
+			if (current > capacity)
+			{
+				exchange.sendResponseHeaders(429, -1);
+				return;
+			}
+			Thread.sleep(3);
+			final byte[] bytes = "ok".getBytes();
+			exchange.sendResponseHeaders(200, bytes.length);
+			exchange.getResponseBody().write(bytes);
+		}
+		catch (final InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		finally
+		{
+			concurrent.decrementAndGet();
+			exchange.close();
+		}
+	}
+}
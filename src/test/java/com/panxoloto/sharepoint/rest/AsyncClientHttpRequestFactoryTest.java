@@ -0,0 +1,146 @@
+package com.panxoloto.sharepoint.rest;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.RequestEntity;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.web.client.RestTemplate;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class AsyncClientHttpRequestFactoryTest
+{
+	private static final int LARGE_BODY = 5 * 1024 * 1024;
+
+	private HttpServer server;
+	private AsyncClientHttpRequestFactory factory;
+	private String base;
+
+	@BeforeClass
+	public final void start()
+		throws Exception
+	{
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/echo", exchange ->
+		{
+			final byte[] body = exchange.getRequestBody().readAllBytes();
+			final String reply = exchange.getRequestMethod() + " " + exchange.getRequestHeaders().getFirst("Content-Type") + " " + new String(body, StandardCharsets.UTF_8);
+			final byte[] bytes = reply.getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().add("Content-Type", "text/plain;charset=utf-8");
+			exchange.sendResponseHeaders(201, bytes.length);
+			exchange.getResponseBody().write(bytes);
+			exchange.close();
+		});
+		server.createContext("/large", exchange ->
+		{
+			exchange.sendResponseHeaders(200, LARGE_BODY);
+			final byte[] block = new byte[8192];
+			Arrays.fill(block, (byte) 'x');
+			try (OutputStream out = exchange.getResponseBody())
+			{
+				for (int sent = 0; sent < LARGE_BODY; sent += block.length)
+				{
+					out.write(block);
+				}
+			}
+			catch (final Exception e)
+			{
+				// the client may abort the download
+			}
+		});
+		server.start();
+		base = "http://127.0.0.1:" + server.getAddress().getPort();
+		factory = AsyncClientHttpRequestFactory.create();
+	}
+
+	@AfterClass
+	public final void stop()
+	{
+		factory.close();
+		server.stop(0);
+	}
+
+	@Test
+	public final void sends_body_and_headers()
+		throws Exception
+	{
+		final RestTemplate restTemplate = new StreamRestTemplate(factory);
+		final HttpHeaders headers = new HttpHeaders();
+		headers.add("Content-Type", "application/json;odata=verbose");
+		headers.add("Content-length", "11");
+		final ResponseEntity<String> response = restTemplate.exchange
+		(
+			new RequestEntity<>("{\"a\":\"ñ\"}", headers, HttpMethod.POST, new URI(base + "/echo")),
+			String.class
+		);
+
+		assertEquals(response.getStatusCode().value(), 201);
+		assertEquals(response.getHeaders().getContentType(), MediaType.parseMediaType("text/plain;charset=utf-8"));
+		assertEquals(response.getBody(), "POST application/json;odata=verbose {\"a\":\"ñ\"}");
+	}
+
+	@Test
+	public final void large_body_is_streamed()
+		throws Exception
+	{
+		assertEquals(download(factory), LARGE_BODY);
+	}
+
+	@Test(timeOut = 30000)
+	public final void closing_early_aborts_the_download()
+		throws Exception
+	{
+		// a single connection: an aborted exchange holding it would block the next request
+		try (AsyncClientHttpRequestFactory single = AsyncClientHttpRequestFactory.create(HttpVersionPolicy.FORCE_HTTP_1, 1))
+		{
+			for (int i = 0; i < 20; i++)
+			{
+				final ClientHttpRequest request = single.createRequest(new URI(base + "/large"), HttpMethod.GET);
+				try (ClientHttpResponse response = request.execute())
+				{
+					assertEquals(response.getBody().read(new byte[100]), 100);
+				}
+
+				// the client is still usable right after each abort
+				assertEquals(download(single), LARGE_BODY);
+				final ClientHttpRequest echo = single.createRequest(new URI(base + "/echo"), HttpMethod.GET);
+				try (ClientHttpResponse response = echo.execute())
+				{
+					assertEquals(new String(response.getBody().readAllBytes(), StandardCharsets.UTF_8), "GET null ");
+				}
+			}
+		}
+	}
+
+	private long download(final AsyncClientHttpRequestFactory factory)
+		throws Exception
+	{
+		final ClientHttpRequest request = factory.createRequest(new URI(base + "/large"), HttpMethod.GET);
+		long total = 0;
+		try (ClientHttpResponse response = request.execute(); InputStream body = response.getBody())
+		{
+			final byte[] buffer = new byte[10000];
+			for (int read; (read = body.read(buffer)) >= 0;)
+			{
+				total += read;
+			}
+		}
+		return total;
+	}
+}
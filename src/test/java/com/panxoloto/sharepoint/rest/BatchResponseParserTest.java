@@ -0,0 +1,109 @@
+package com.panxoloto.sharepoint.rest;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+public class BatchResponseParserTest
+{
+	private static final String RESPONSE = String.join
+	(
+		"\r\n",
+		"--batchresponse_1",
+		"Content-Type: multipart/mixed; boundary=changesetresponse_a",
+		"",
+		"--changesetresponse_a",
+		"Content-Type: application/http",
+		"Content-Transfer-Encoding: binary",
+		"",
+		"HTTP/1.1 201 Created",
+		"CONTENT-TYPE: application/json;odata=verbose;charset=utf-8",
+		"",
+		"{\"d\":{\"Id\":12,\"Title\":\"ñ\"}}",
+		"--changesetresponse_a--",
+		"--batchresponse_1",
+		"Content-Type: multipart/mixed; boundary=changesetresponse_b",
+		"",
+		"--changesetresponse_b",
+		"Content-Type: application/http",
+		"Content-Transfer-Encoding: binary",
+		"",
+		"HTTP/1.1 204 No Content",
+		"",
+		"",
+		"--changesetresponse_b--",
+		"--batchresponse_1",
+		"Content-Type: application/http",
+		"Content-Transfer-Encoding: binary",
+		"",
+		"HTTP/1.1 404 Not Found",
+		"CONTENT-TYPE: application/json;odata=verbose;charset=utf-8",
+		"",
+		"{\"error\":{\"code\":\"-2130575338\"}}",
+		"--batchresponse_1--",
+		""
+	);
+
+	@Test
+	public final void responses_are_flattened_in_order()
+	{
+		final List<BatchResponseParser.Response> responses = BatchResponseParser.parse(RESPONSE, "batchresponse_1");
+
+		assertEquals(responses.size(), 3);
+		assertEquals(responses.get(0).status, 201);
+		assertEquals(responses.get(0).body, "{\"d\":{\"Id\":12,\"Title\":\"ñ\"}}");
+		assertEquals(responses.get(1).status, 204);
+		assertEquals(responses.get(1).body, "");
+		assertEquals(responses.get(2).status, 404);
+		assertEquals(responses.get(2).body, "{\"error\":{\"code\":\"-2130575338\"}}");
+	}
+
+	@Test
+	public final void boundary_is_read_from_body_when_missing()
+	{
+		assertEquals(BatchResponseParser.parse(RESPONSE, null).size(), 3);
+		assertEquals(BatchResponseParser.boundary("multipart/mixed; boundary=\"batchresponse_1\""), "batchresponse_1");
+	}
+
+	@Test
+	public final void operations_are_completed_with_their_response()
+	{
+		final BatchOperation created = new BatchOperation("POST", "https://host/_api/web/lists/GetByTitle('L')/items", "{}", true);
+		final BatchOperation missing = new BatchOperation("GET", "https://host/_api/web/lists/GetByTitle('X')", null, false);
+		final List<BatchResponseParser.Response> responses = BatchResponseParser.parse(RESPONSE, null);
+
+		created.complete(responses.get(0).status, responses.get(0).body);
+		missing.complete(responses.get(2).status, responses.get(2).body);
+
+		assertTrue(created.isSuccessful());
+		assertEquals(created.getJson().getJSONObject("d").getInt("Id"), 12);
+		assertTrue(missing.isDone());
+		assertFalse(missing.isSuccessful());
+		assertEquals(missing.getStatusCode(), 404);
+	}
+
+	@Test
+	public final void writes_are_sent_in_their_own_changeset()
+	{
+		final String body = ODataBatch.requestBody
+		(
+			Arrays.asList
+			(
+				new BatchOperation("POST", "https://host/_api/web/lists/GetByTitle('L')/items", "{\"Title\":\"a\"}", true),
+				new BatchOperation("GET", "https://host/_api/web/lists/GetByTitle('L')", null, false)
+			),
+			"batch_1",
+			"application/json;odata=verbose"
+		);
+
+		assertTrue(body.startsWith("--batch_1\r\nContent-Type: multipart/mixed; boundary=changeset_"));
+		assertTrue(body.contains("POST https://host/_api/web/lists/GetByTitle('L')/items HTTP/1.1\r\nAccept: application/json;odata=verbose\r\nContent-Type: application/json;odata=verbose\r\n\r\n{\"Title\":\"a\"}\r\n"));
+		assertTrue(body.contains("--batch_1\r\nContent-Type: application/http\r\nContent-Transfer-Encoding: binary\r\n\r\nGET https://host/_api/web/lists/GetByTitle('L') HTTP/1.1\r\n"));
+		assertTrue(body.endsWith("--batch_1--\r\n"));
+	}
+}
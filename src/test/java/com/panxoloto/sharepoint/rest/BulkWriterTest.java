@@ -0,0 +1,157 @@
+package com.panxoloto.sharepoint.rest;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.RequestEntity;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.web.client.HttpClientErrorException;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class BulkWriterTest
+{
+	private final ExecutorService executor = Executors.newFixedThreadPool(8);
+
+	@AfterClass
+	public final void shutdown()
+	{
+		executor.shutdownNow();
+	}
+
+	@Test
+	public final void results_follow_input_order_and_failures_do_not_stop_the_run()
+	{
+		final List<Integer> input = new ArrayList<>();
+		for (int i = 0; i < 200; i++)
+		{
+			input.add(i);
+		}
+		final AtomicInteger inFlight = new AtomicInteger();
+		final AtomicInteger maxInFlight = new AtomicInteger();
+		final BulkWriter<Integer> writer = new BulkWriter<>
+		(
+			item ->
+			{
+				maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+				try
+				{
+					Thread.sleep(1);
+					if (item % 50 == 7)
+					{
+						throw HttpClientErrorException.create(HttpStatus.BAD_REQUEST, "Bad Request", new HttpHeaders(), "invalid field".getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+					}
+					return item + 1000;
+				}
+				finally
+				{
+					inFlight.decrementAndGet();
+				}
+			},
+			201
+		);
+
+		final List<BulkItemResult> results = writer.run(input, 4, executor);
+
+		assertEquals(results.size(), 200);
+		assertTrue(maxInFlight.get() <= 4);
+		for (int i = 0; i < 200; i++)
+		{
+			final BulkItemResult result = results.get(i);
+			assertEquals(result.getIndex(), i);
+			if (i % 50 == 7)
+			{
+				assertFalse(result.isSuccessful());
+				assertEquals(result.getStatusCode(), 400);
+				assertEquals(result.getError(), "invalid field");
+				assertNull(result.getId());
+			}
+			else
+			{
+				assertTrue(result.isSuccessful());
+				assertEquals(result.getId(), Integer.valueOf(i + 1000));
+				assertEquals(result.getStatusCode(), 201);
+			}
+		}
+	}
+
+	@Test
+	public final void throttled_items_are_retried_by_the_retry_interceptor_only()
+		throws Exception
+	{
+		final Map<String, AtomicInteger> attempts = new ConcurrentHashMap<>();
+		final HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.setExecutor(executor);
+		server.createContext("/", exchange ->
+		{
+			exchange.getRequestBody().readAllBytes();
+			final String path = exchange.getRequestURI().getPath();
+			final int attempt = attempts.computeIfAbsent(path, k -> new AtomicInteger()).incrementAndGet();
+			// item 3 is always throttled, the others twice
+			if (path.endsWith("/3") || attempt <= 2)
+			{
+				exchange.getResponseHeaders().add(HttpHeaders.RETRY_AFTER, "0");
+				exchange.sendResponseHeaders(429, -1);
+			}
+			else
+			{
+				exchange.sendResponseHeaders(204, -1);
+			}
+			exchange.close();
+		});
+		server.start();
+		try
+		{
+			final StreamRestTemplate restTemplate = new StreamRestTemplate(new SimpleClientHttpRequestFactory());
+			restTemplate.addReplayInterceptor(new RetryInterceptor().setMaxRetries(4));
+			final URI base = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/items/");
+			final BulkWriter<Integer> writer = new BulkWriter<>
+			(
+				item ->
+				{
+					restTemplate.exchange(new RequestEntity<>("{}", HttpMethod.POST, base.resolve(String.valueOf(item))), String.class);
+					return item;
+				},
+				204
+			);
+
+			final List<BulkItemResult> results = writer.run(List.of(1, 2, 3), 2, executor);
+
+			for (final int item : new int[] { 1, 2 })
+			{
+				final BulkItemResult result = results.get(item - 1);
+				assertTrue(result.isSuccessful());
+				assertEquals(result.getRetries(), 2);
+				assertEquals(attempts.get("/items/" + item).get(), 3);
+			}
+			final BulkItemResult throttled = results.get(2);
+			assertFalse(throttled.isSuccessful());
+			assertEquals(throttled.getStatusCode(), 429);
+			assertEquals(throttled.getRetries(), 4);
+			// sent once and retried by the interceptor, not retried again by the writer
+			assertEquals(attempts.get("/items/3").get(), 5);
+		}
+		finally
+		{
+			server.stop(0);
+		}
+	}
+}
@@ -0,0 +1,301 @@
+package com.panxoloto.sharepoint.rest;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.json.JSONObject;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.panxoloto.sharepoint.rest.helper.AuthTokenHelperOnline;
+import com.panxoloto.sharepoint.rest.helper.HttpProtocols;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class ChunkFileUploaderTest
+{
+	private static final int CHUNK_SIZE = 1000;
+	private static final int FILE_SIZE = 5 * CHUNK_SIZE + 500;
+	private static final long SEND_MILLIS = 100;
+	private static final Pattern FILE_OFFSET = Pattern.compile("fileOffset=(\\d+)");
+
+	/** Bytes read from the source so far. */
+	private final AtomicLong sourcePosition = new AtomicLong();
+	/** Bytes of the source read while a chunk was being sent, for every chunk. */
+	private final Queue<Long> readDuringSends = new ConcurrentLinkedQueue<>();
+	private final Queue<String> calls = new ConcurrentLinkedQueue<>();
+	private final ByteArrayOutputStream uploaded = new ByteArrayOutputStream();
+	private HttpServer server;
+	private ExecutorService serverExecutor;
+	private ChunkFileUploader uploader;
+
+	@BeforeMethod
+	public final void start()
+		throws Exception
+	{
+		sourcePosition.set(0);
+		readDuringSends.clear();
+		calls.clear();
+		uploaded.reset();
+		serverExecutor = Executors.newCachedThreadPool();
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 64);
+		server.setExecutor(serverExecutor);
+		server.createContext("/", this::handle);
+		server.start();
+
+		final StreamRestTemplate restTemplate = new StreamRestTemplate(new SimpleClientHttpRequestFactory());
+		final AuthTokenHelperOnline tokenHelper = new AuthTokenHelperOnline(false, restTemplate, "user", "passwd", "127.0.0.1:" + server.getAddress().getPort(), "")
+		{
+			@Override
+			protected String receiveSecurityToken()
+			{
+				return "t=TOKENp=";
+			}
+		};
+		tokenHelper.setProtocol(HttpProtocols.HTTP);
+		tokenHelper.init();
+		uploader = new ChunkFileUploader(tokenHelper, restTemplate);
+	}
+
+	@AfterMethod
+	public final void stop()
+	{
+		server.stop(0);
+		serverExecutor.shutdownNow();
+	}
+
+	@Test
+	public final void next_chunk_is_read_while_the_current_one_is_sent()
+		throws Exception
+	{
+		assertEquals(uploader.getReadAhead(), 1);
+		final JSONObject file = uploader.uploadFile("/Shared Documents", resource(new SlowInputStream(FILE_SIZE, -1)), CHUNK_SIZE);
+
+		assertEquals(file.getJSONObject("d").getString("Name"), "big.bin");
+		assertEquals(uploaded.toByteArray(), expectedContent());
+		assertEquals(calls.toArray(), new String[] {
+			"add", "startupload", "continueupload(1000+2000)", "continueupload(2000+3000)", "continueupload(3000+4000)",
+			"continueupload(4000+5000)", "continueupload(5000+5500)", "finishupload(5500)" });
+		assertTrue(readDuringSends.stream().anyMatch(read -> read > 0), "no read overlapped a send: " + readDuringSends);
+	}
+
+	@Test
+	public final void source_is_read_between_the_sends_without_read_ahead()
+		throws Exception
+	{
+		uploader.setReadAhead(0);
+		uploader.uploadFile("/Shared Documents", resource(new SlowInputStream(FILE_SIZE, -1)), CHUNK_SIZE);
+
+		assertEquals(uploaded.toByteArray(), expectedContent());
+		assertEquals(calls.size(), 8);
+		assertFalse(readDuringSends.stream().anyMatch(read -> read > 0), "a read overlapped a send: " + readDuringSends);
+	}
+
+	@Test
+	public final void read_failure_cancels_the_upload()
+		throws Exception
+	{
+		uploader.setReadAhead(2);
+		final IOException failure = expectThrows(IOException.class,
+			() -> uploader.uploadFile("/Shared Documents", resource(new SlowInputStream(FILE_SIZE, 2500)), CHUNK_SIZE));
+
+		assertEquals(failure.getMessage(), "source failed at 2500");
+		assertEquals(calls.toArray(), new String[] { "add", "startupload", "continueupload(1000+2000)", "cancelupload" });
+		expectThrows(IllegalArgumentException.class, () -> uploader.setReadAhead(-1));
+	}
+
+	@Test(timeOut = 10000)
+	public final void unchecked_read_failure_cancels_the_upload()
+		throws Exception
+	{
+		final IllegalStateException failure = expectThrows(IllegalStateException.class,
+			() -> uploader.uploadFile("/Shared Documents", resource(new SlowInputStream(FILE_SIZE, 1500, true)), CHUNK_SIZE));
+
+		assertEquals(failure.getMessage(), "source failed at 1500");
+		assertEquals(calls.toArray(), new String[] { "add", "startupload", "cancelupload" });
+	}
+
+	private static InputStreamResource resource(final InputStream source)
+	{
+		return new InputStreamResource(source)
+		{
+			@Override
+			public String getFilename()
+			{
+				return "big.bin";
+			}
+		};
+	}
+
+	private static byte[] expectedContent()
+	{
+		final byte[] content = new byte[FILE_SIZE];
+		for (int i = 0; i < FILE_SIZE; i++)
+		{
+			content[i] = (byte) (i % 251);
+		}
+		return content;
+	}
+
+	/**
+	 * Source returning at most 400 bytes per read after 20 ms, like a remote or decompressed stream.
+	 */
+	private final class SlowInputStream
+		extends InputStream
+	{
+		private final int length;
+		private final int failAt;
+		private final boolean unchecked;
+
+		SlowInputStream(final int length, final int failAt)
+		{
+			this(length, failAt, false);
+		}
+
+		/**
+		 * @param unchecked fails with an unchecked exception, like the streams of some storage SDKs.
+		 */
+		SlowInputStream(final int length, final int failAt, final boolean unchecked)
+		{
+			this.length = length;
+			this.failAt = failAt;
+			this.unchecked = unchecked;
+		}
+
+		@Override
+		public int read()
+			throws IOException
+		{
+			final byte[] one = new byte[1];
+			return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len)
+			throws IOException
+		{
+			final int position = (int) sourcePosition.get();
+			if (position == failAt)
+			{
+				if (unchecked)
+				{
+					throw new IllegalStateException("source failed at " + failAt);
+				}
+				throw new IOException("source failed at " + failAt);
+			}
+			if (position >= length)
+			{
+				return -1;
+			}
+			try
+			{
+				Thread.sleep(20);
+			}
+			catch (final InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new IOException(e);
+			}
+			int count = Math.min(Math.min(len, 400), length - position);
+			if (failAt > position)
+			{
+				count = Math.min(count, failAt - position);
+			}
+			for (int i = 0; i < count; i++)
+			{
+				b[off + i] = (byte) ((position + i) % 251);
+			}
+			sourcePosition.addAndGet(count);
+			return count;
+		}
+	}
+
+	private void handle(final HttpExchange exchange)
+		throws IOException
+	{
+		final String path = exchange.getRequestURI().getPath();
+		final byte[] body = exchange.getRequestBody().readAllBytes();
+		if (path.equals("/_forms/default.aspx"))
+		{
+			exchange.getResponseHeaders().add("Set-Cookie", "FedAuth=session");
+			reply(exchange, "");
+			return;
+		}
+		if (path.equals("/_api/contextinfo"))
+		{
+			reply(exchange, "{\"d\":{\"GetContextWebInformation\":{\"FormDigestValue\":\"digest\",\"FormDigestTimeoutSeconds\":1800}}}");
+			return;
+		}
+		if (path.contains("/Files/add("))
+		{
+			calls.add("add");
+			reply(exchange, "{\"d\":{\"Name\":\"big.bin\"}}");
+			return;
+		}
+		if (path.contains("/cancelupload("))
+		{
+			calls.add("cancelupload");
+			reply(exchange, "{}");
+			return;
+		}
+		final Matcher offsetMatcher = FILE_OFFSET.matcher(path);
+		final long offset = offsetMatcher.find() ? Long.parseLong(offsetMatcher.group(1)) : 0;
+		if (path.contains("/finishupload("))
+		{
+			calls.add("finishupload(" + offset + ")");
+			reply(exchange, "{\"d\":{\"Name\":\"big.bin\"}}");
+			return;
+		}
+		// a chunk takes a while to be sent, the source may be read meanwhile
+		final long positionBefore = sourcePosition.get();
+		try
+		{
+			Thread.sleep(SEND_MILLIS);
+		}
+		catch (final InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		readDuringSends.add(sourcePosition.get() - positionBefore);
+		synchronized (uploaded)
+		{
+			uploaded.write(body);
+		}
+		if (path.contains("/startupload("))
+		{
+			calls.add("startupload");
+			reply(exchange, "{\"d\":{\"StartUpload\":\"" + body.length + "\"}}");
+			return;
+		}
+		calls.add("continueupload(" + offset + "+" + (offset + body.length) + ")");
+		reply(exchange, "{\"d\":{\"ContinueUpload\":\"" + (offset + body.length) + "\"}}");
+	}
+
+	private static void reply(final HttpExchange exchange, final String body)
+		throws IOException
+	{
+		final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().add("Content-Type", "application/json;odata=verbose;charset=utf-8");
+		exchange.sendResponseHeaders(200, bytes.length == 0 ? -1 : bytes.length);
+		exchange.getResponseBody().write(bytes);
+		exchange.close();
+	}
+}
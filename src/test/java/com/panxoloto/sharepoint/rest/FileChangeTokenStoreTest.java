@@ -0,0 +1,58 @@
+package com.panxoloto.sharepoint.rest;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class FileChangeTokenStoreTest
+{
+	private Path directory;
+	private Path file;
+
+	@BeforeMethod
+	public final void setUp()
+		throws Exception
+	{
+		directory = Files.createTempDirectory("change-tokens");
+		file = directory.resolve("sync").resolve("tokens.properties");
+	}
+
+	@AfterMethod
+	public final void tearDown()
+		throws Exception
+	{
+		try (final Stream<Path> paths = Files.walk(directory))
+		{
+			paths.sorted((a, b) -> b.compareTo(a)).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	@Test
+	public final void tokens_survive_a_restart()
+		throws Exception
+	{
+		assertNull(new FileChangeTokenStore(file).load("https://contoso.sharepoint.com/sites/site#Tasks"));
+
+		final FileChangeTokenStore store = new FileChangeTokenStore(file);
+		store.save("https://contoso.sharepoint.com/sites/site#Tasks", "1;3;list-id;638000000000000000;100");
+		store.save("https://contoso.sharepoint.com/sites/site#Docs", "1;3;docs-id;638000000000000000;7");
+		store.save("https://contoso.sharepoint.com/sites/site#Tasks", "1;3;list-id;638000000000000000;142");
+
+		final FileChangeTokenStore restarted = new FileChangeTokenStore(file);
+		assertEquals(restarted.load("https://contoso.sharepoint.com/sites/site#Tasks"), "1;3;list-id;638000000000000000;142");
+		assertEquals(restarted.load("https://contoso.sharepoint.com/sites/site#Docs"), "1;3;docs-id;638000000000000000;7");
+		assertNull(restarted.load("https://contoso.sharepoint.com/sites/site#Other"));
+		// only the tokens file is left, the temporary files are moved over it
+		try (final Stream<Path> files = Files.list(file.getParent()))
+		{
+			assertEquals(files.toArray(), new Object[] { file });
+		}
+	}
+}
@@ -0,0 +1,262 @@
+package com.panxoloto.sharepoint.rest;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.panxoloto.sharepoint.rest.helper.AuthTokenHelperOnline;
+import com.panxoloto.sharepoint.rest.helper.HttpProtocols;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class ListDeltaSyncTest
+{
+	private static final int ADD = 1;
+	private static final int UPDATE = 2;
+	private static final int DELETE = 3;
+	private static final int RESTORE = 7;
+	private static final Pattern ITEM_ID = Pattern.compile("ID eq (\\d+)");
+
+	/** Changes returned by GetChanges after each token, none for an unknown token. */
+	private final Map<String, JSONArray> changesAfter = new ConcurrentHashMap<>();
+	/** IDs of the items that still exist. */
+	private final Set<Integer> existing = ConcurrentHashMap.newKeySet();
+	private final Queue<String> changeTokensQueried = new ConcurrentLinkedQueue<>();
+	/** Number of IDs of each request of items by ID. */
+	private final Queue<Integer> itemRequestSizes = new ConcurrentLinkedQueue<>();
+	private final Map<String, String> tokens = new HashMap<>();
+	private final ChangeTokenStore store = new ChangeTokenStore()
+	{
+		@Override
+		public String load(final String key)
+		{
+			return tokens.get(key);
+		}
+
+		@Override
+		public void save(final String key, final String changeToken)
+		{
+			tokens.put(key, changeToken);
+		}
+	};
+	private HttpServer server;
+	private PLGSharepointClientOnline client;
+
+	@BeforeMethod
+	public final void start()
+		throws Exception
+	{
+		changesAfter.clear();
+		existing.clear();
+		changeTokensQueried.clear();
+		itemRequestSizes.clear();
+		tokens.clear();
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", this::handle);
+		server.start();
+
+		final StreamRestTemplate restTemplate = new StreamRestTemplate(new SimpleClientHttpRequestFactory());
+		final AuthTokenHelperOnline tokenHelper = new AuthTokenHelperOnline(false, restTemplate, "user", "passwd", "127.0.0.1:" + server.getAddress().getPort(), "")
+		{
+			@Override
+			protected String receiveSecurityToken()
+			{
+				return "t=TOKENp=";
+			}
+		};
+		tokenHelper.setProtocol(HttpProtocols.HTTP);
+		tokenHelper.init();
+		client = new PLGSharepointClientOnline(restTemplate, tokenHelper, "");
+	}
+
+	@AfterMethod
+	public final void stop()
+	{
+		server.stop(0);
+	}
+
+	@Test
+	public final void first_sync_only_records_the_current_token()
+		throws Exception
+	{
+		final ListDeltaSync sync = new ListDeltaSync(client, "Tasks", store, "tasks");
+		final ListChanges changes = sync.sync();
+
+		assertTrue(changes.isInitial());
+		assertTrue(changes.isEmpty());
+		assertEquals(changes.getChangeToken(), "current");
+		assertEquals(tokens.get("tasks"), "current");
+		assertTrue(changeTokensQueried.isEmpty());
+	}
+
+	@Test
+	public final void changes_are_paged_collapsed_and_read_by_batches()
+		throws Exception
+	{
+		tokens.put("tasks", "current");
+		// first page: item 1 added then updated, 2 added then deleted, 3 updated then deleted
+		changesAfter.put("current", changes("c1", ADD, 1, UPDATE, 1, ADD, 2, DELETE, 2, UPDATE, 3, DELETE, 3));
+		// second page: 60 items added, item 70 deleted, 80 deleted then restored, 100 updated twice, 64 added
+		// but deleted after this cycle read the changes
+		final List<Integer> page = new ArrayList<>();
+		for (int id = 4; id <= 64; id++)
+		{
+			page.add(ADD);
+			page.add(id);
+		}
+		page.addAll(List.of(DELETE, 70, DELETE, 80, RESTORE, 80, UPDATE, 100, UPDATE, 100));
+		changesAfter.put("c1", changes("c2", page.stream().mapToInt(Integer::intValue).toArray()));
+		for (int id = 1; id <= 100; id++)
+		{
+			existing.add(id);
+		}
+		existing.removeAll(List.of(2, 3, 64, 70));
+
+		final ListDeltaSync sync = new ListDeltaSync(client, "Tasks", store, "tasks");
+		final ListChanges changes = sync.fetchChanges();
+
+		assertFalse(changes.isInitial());
+		assertEquals(changes.getChangeToken(), "c2");
+		assertEquals(changeTokensQueried.toArray(), new String[] { "current", "c1", "c2" });
+		final List<Integer> added = new ArrayList<>();
+		added.add(1);
+		for (int id = 4; id <= 63; id++)
+		{
+			added.add(id);
+		}
+		assertEquals(ids(changes.getAdded()), added);
+		assertEquals(ids(changes.getUpdated()), List.of(80, 100));
+		assertEquals(changes.getDeleted(), List.of(3, 70));
+		// 1, 4 to 64, 80 and 100: 64 items read by 50
+		assertEquals(itemRequestSizes.toArray(), new Integer[] { 50, 14 });
+
+		// not committed: the same changes are returned again
+		assertEquals(tokens.get("tasks"), "current");
+		assertEquals(sync.fetchChanges().getDeleted(), List.of(3, 70));
+
+		sync.commit(changes);
+		assertEquals(tokens.get("tasks"), "c2");
+		changeTokensQueried.clear();
+		final ListChanges none = sync.sync();
+		assertTrue(none.isEmpty());
+		assertEquals(none.getChangeToken(), "c2");
+		assertEquals(changeTokensQueried.toArray(), new String[] { "c2" });
+	}
+
+	/**
+	 * @param changeTypesAndIds change type and item id of every change.
+	 * @return the changes, the last one with the given token.
+	 */
+	private static JSONArray changes(final String lastToken, final int... changeTypesAndIds)
+	{
+		final JSONArray changes = new JSONArray();
+		for (int i = 0; i < changeTypesAndIds.length; i += 2)
+		{
+			final String token = i + 2 == changeTypesAndIds.length ? lastToken : lastToken + "-" + i;
+			changes.put(new JSONObject()
+				.put("ChangeType", changeTypesAndIds[i])
+				.put("ItemId", changeTypesAndIds[i + 1])
+				.put("ChangeToken", new JSONObject().put("StringValue", token)));
+		}
+		return changes;
+	}
+
+	private static List<Integer> ids(final List<JSONObject> items)
+	{
+		final List<Integer> ids = new ArrayList<>();
+		for (final JSONObject item : items)
+		{
+			ids.add(item.getInt("ID"));
+		}
+		return ids;
+	}
+
+	private void handle(final HttpExchange exchange)
+		throws IOException
+	{
+		final String path = exchange.getRequestURI().getPath();
+		final String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+		if (path.equals("/_forms/default.aspx"))
+		{
+			exchange.getResponseHeaders().add("Set-Cookie", "FedAuth=session");
+			reply(exchange, "");
+			return;
+		}
+		if (path.equals("/_api/contextinfo"))
+		{
+			reply(exchange, "{\"d\":{\"GetContextWebInformation\":{\"FormDigestValue\":\"digest\",\"FormDigestTimeoutSeconds\":1800}}}");
+			return;
+		}
+		if (path.endsWith("/CurrentChangeToken"))
+		{
+			reply(exchange, "{\"d\":{\"StringValue\":\"current\"}}");
+			return;
+		}
+		if (path.endsWith("/GetChanges"))
+		{
+			final String token = new JSONObject(body).getJSONObject("query").getJSONObject("ChangeTokenStart").getString("StringValue");
+			changeTokensQueried.add(token);
+			reply(exchange, results(changesAfter.getOrDefault(token, new JSONArray())));
+			return;
+		}
+		if (path.endsWith("/items"))
+		{
+			final Set<Integer> ids = new TreeSet<>();
+			final Matcher matcher = ITEM_ID.matcher(String.valueOf(exchange.getRequestURI().getQuery()));
+			while (matcher.find())
+			{
+				ids.add(Integer.valueOf(matcher.group(1)));
+			}
+			itemRequestSizes.add(ids.size());
+			final JSONArray items = new JSONArray();
+			for (final Integer id : ids)
+			{
+				if (existing.contains(id))
+				{
+					items.put(new JSONObject().put("ID", id).put("Title", "Item " + id));
+				}
+			}
+			reply(exchange, results(items));
+			return;
+		}
+		exchange.sendResponseHeaders(404, -1);
+		exchange.close();
+	}
+
+	private static String results(final JSONArray results)
+	{
+		return new JSONObject().put("d", new JSONObject().put("results", results)).toString();
+	}
+
+	private static void reply(final HttpExchange exchange, final String body)
+		throws IOException
+	{
+		final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().add("Content-Type", "application/json;odata=verbose;charset=utf-8");
+		exchange.sendResponseHeaders(200, bytes.length == 0 ? -1 : bytes.length);
+		exchange.getResponseBody().write(bytes);
+		exchange.close();
+	}
+}
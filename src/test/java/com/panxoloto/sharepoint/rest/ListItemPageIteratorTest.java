@@ -0,0 +1,120 @@
+package com.panxoloto.sharepoint.rest;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class ListItemPageIteratorTest
+{
+	private static final URI FIRST = URI.create("https://contoso.sharepoint.com/_api/web/lists/GetByTitle('Tasks')/items");
+
+	/** Canned response of each page. */
+	private final Map<URI, JSONObject> pages = new HashMap<>();
+	/** Pages requested, in order. */
+	private final List<URI> requested = new ArrayList<>();
+
+	@BeforeMethod
+	public final void setUp()
+	{
+		pages.clear();
+		requested.clear();
+	}
+
+	@Test
+	public final void verbose_pages_are_followed_through_next_links()
+	{
+		final URI second = URI.create(FIRST + "?%24skiptoken=Paged%3dTRUE%26p_ID%3d2");
+		pages.put(FIRST, new JSONObject().put("d", new JSONObject().put("results", items(1, 2)).put("__next", second.toString())));
+		pages.put(second, new JSONObject().put("d", new JSONObject().put("results", items(3))));
+
+		final ListItemPageIterator iterator = new ListItemPageIterator(this::fetch, FIRST);
+		// nothing is requested before the first page is read
+		assertTrue(iterator.hasNext());
+		assertTrue(requested.isEmpty());
+		assertEquals(iterator.next().length(), 2);
+		assertEquals(requested, List.of(FIRST));
+		assertTrue(iterator.hasNext());
+		assertEquals(iterator.next().length(), 1);
+		assertFalse(iterator.hasNext());
+		expectThrows(NoSuchElementException.class, iterator::next);
+		assertEquals(requested, List.of(FIRST, second));
+	}
+
+	@Test
+	public final void minimal_metadata_pages_are_followed_through_next_links()
+	{
+		final URI second = URI.create(FIRST + "?p=2");
+		final URI third = URI.create(FIRST + "?p=3");
+		pages.put(FIRST, new JSONObject().put("value", items(1)).put("odata.nextLink", second.toString()));
+		// an empty page may still link to the next one
+		pages.put(second, new JSONObject().put("value", new JSONArray()).put("@odata.nextLink", third.toString()));
+		pages.put(third, new JSONObject().put("value", items(2, 3)));
+
+		assertEquals(ids(new ListItemIterator(new ListItemPageIterator(this::fetch, FIRST))), List.of(1, 2, 3));
+		assertEquals(requested, List.of(FIRST, second, third));
+	}
+
+	@Test
+	public final void empty_first_page_has_no_item()
+	{
+		pages.put(FIRST, new JSONObject().put("d", new JSONObject().put("results", new JSONArray())));
+
+		final ListItemIterator items = new ListItemIterator(new ListItemPageIterator(this::fetch, FIRST));
+		assertFalse(items.hasNext());
+		expectThrows(NoSuchElementException.class, items::next);
+		assertEquals(requested, List.of(FIRST));
+	}
+
+	@Test
+	public final void failed_page_request_is_raised()
+	{
+		final ListItemPageIterator iterator = new ListItemPageIterator(page ->
+		{
+			throw new IOException("connection reset");
+		}, FIRST);
+
+		final RuntimeException failure = expectThrows(RuntimeException.class, iterator::next);
+		assertEquals(failure.getCause().getMessage(), "connection reset");
+		assertFalse(iterator.hasNext());
+	}
+
+	private JSONObject fetch(final URI page)
+	{
+		requested.add(page);
+		return pages.get(page);
+	}
+
+	private static JSONArray items(final int... ids)
+	{
+		final JSONArray items = new JSONArray();
+		for (final int id : ids)
+		{
+			items.put(new JSONObject().put("ID", id));
+		}
+		return items;
+	}
+
+	private static List<Integer> ids(final ListItemIterator items)
+	{
+		final List<Integer> ids = new ArrayList<>();
+		while (items.hasNext())
+		{
+			ids.add(items.next().getInt("ID"));
+		}
+		return ids;
+	}
+}
@@ -0,0 +1,241 @@
+package com.panxoloto.sharepoint.rest;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.panxoloto.sharepoint.rest.helper.ODataQuery;
+
+public class ListItemRangeScanTest
+{
+	/** Windows requested, as "from-to". */
+	private final Queue<String> windows = new ConcurrentLinkedQueue<>();
+	private ExecutorService executor;
+
+	@BeforeMethod
+	public final void start()
+	{
+		windows.clear();
+		executor = Executors.newCachedThreadPool();
+	}
+
+	@AfterMethod
+	public final void stop()
+	{
+		executor.shutdownNow();
+	}
+
+	@Test
+	public final void windows_cover_ids_from_1_to_max_id()
+	{
+		try (final ListItemRangeScan scan = new ListItemRangeScan(this::items, 25, 10, 2, true, executor))
+		{
+			assertEquals(ids(scan), range(1, 26));
+		}
+		assertEquals(requestedWindows(), List.of("1-11", "11-21", "21-26"));
+
+		windows.clear();
+		try (final ListItemRangeScan scan = new ListItemRangeScan(this::items, 12_000, 5_000, 4, true, executor))
+		{
+			assertEquals(ids(scan).size(), 12_000);
+		}
+		assertEquals(requestedWindows(), List.of("1-5001", "5001-10001", "10001-12001"));
+
+		windows.clear();
+		try (final ListItemRangeScan scan = new ListItemRangeScan(this::items, 0, 10, 2, true, executor))
+		{
+			assertFalse(scan.hasNext());
+		}
+		assertTrue(windows.isEmpty());
+	}
+
+	@Test
+	public final void ordered_scan_returns_windows_in_id_order()
+	{
+		// the first windows are the slowest
+		final ListItemRangeScan.WindowFetcher fetcher = (fromId, toId) ->
+		{
+			Thread.sleep(300 - fromId * 10);
+			return items(fromId, toId);
+		};
+		try (final ListItemRangeScan scan = new ListItemRangeScan(fetcher, 30, 10, 3, true, executor))
+		{
+			assertEquals(ids(scan), range(1, 31));
+		}
+	}
+
+	@Test
+	public final void unordered_scan_returns_windows_as_they_complete()
+	{
+		final ListItemRangeScan.WindowFetcher fetcher = (fromId, toId) ->
+		{
+			Thread.sleep(fromId == 1 ? 500 : 0);
+			return items(fromId, toId);
+		};
+		try (final ListItemRangeScan scan = new ListItemRangeScan(fetcher, 30, 10, 3, false, executor))
+		{
+			final List<Long> ids = ids(scan);
+			assertTrue(ids.get(0) > 10, "first id " + ids.get(0));
+			assertEquals(ids.subList(20, 30), range(1, 11));
+			ids.sort(null);
+			assertEquals(ids, range(1, 31));
+		}
+	}
+
+	@Test
+	public final void no_more_than_parallelism_windows_are_in_flight()
+	{
+		final AtomicInteger inFlight = new AtomicInteger();
+		final AtomicInteger maxInFlight = new AtomicInteger();
+		final ListItemRangeScan.WindowFetcher fetcher = (fromId, toId) ->
+		{
+			maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+			try
+			{
+				Thread.sleep(20);
+				return items(fromId, toId);
+			}
+			finally
+			{
+				inFlight.decrementAndGet();
+			}
+		};
+		try (final ListItemRangeScan scan = new ListItemRangeScan(fetcher, 100, 5, 3, false, executor))
+		{
+			assertEquals(ids(scan).size(), 100);
+		}
+		assertTrue(maxInFlight.get() <= 3, "in flight " + maxInFlight.get());
+	}
+
+	@Test(timeOut = 10000)
+	public final void close_cancels_the_pending_windows()
+		throws Exception
+	{
+		final ExecutorService single = Executors.newSingleThreadExecutor();
+		final CountDownLatch release = new CountDownLatch(1);
+		final ListItemRangeScan.WindowFetcher fetcher = (fromId, toId) ->
+		{
+			windows.add(fromId + "-" + toId);
+			release.await();
+			return new JSONArray();
+		};
+		try
+		{
+			final ListItemRangeScan scan = new ListItemRangeScan(fetcher, 30, 10, 3, true, single);
+			while (windows.isEmpty())
+			{
+				Thread.sleep(5);
+			}
+			scan.close();
+			assertFalse(scan.hasNext());
+			release.countDown();
+			single.shutdown();
+			assertTrue(single.awaitTermination(5, TimeUnit.SECONDS));
+			// the windows queued behind the first one are never requested
+			assertEquals(windows.toArray(), new String[] { "1-11" });
+		}
+		finally
+		{
+			single.shutdownNow();
+		}
+	}
+
+	@Test
+	public final void failed_window_is_raised_and_closes_the_scan()
+	{
+		final ListItemRangeScan.WindowFetcher fetcher = (fromId, toId) ->
+		{
+			if (fromId == 11)
+			{
+				throw new IllegalStateException("window failed");
+			}
+			return items(fromId, toId);
+		};
+		final ListItemRangeScan scan = new ListItemRangeScan(fetcher, 30, 10, 1, true, executor);
+		assertEquals(scan.next().length(), 10);
+		assertEquals(expectThrows(IllegalStateException.class, scan::next).getMessage(), "window failed");
+		assertFalse(scan.hasNext());
+	}
+
+	@Test
+	public final void window_query_replaces_ordering_top_and_paging()
+	{
+		final ODataQuery query = new ODataQuery().select("ID", "Title").filter("Status eq 'Open'").orderBy("Modified", false).top(10).skipToken("Paged=TRUE&p_ID=100");
+
+		assertEquals
+		(
+			PLGSharepointClientOnline.windowQuery(query, 1, 5001, true).toQueryString(),
+			new ODataQuery().select("ID", "Title").filter("(Status eq 'Open') and ID ge 1 and ID lt 5001").orderBy("ID").top(5000).toQueryString()
+		);
+		assertEquals
+		(
+			PLGSharepointClientOnline.windowQuery(new ODataQuery().orderBy("Title"), 5001, 5101, false).toQueryString(),
+			new ODataQuery().filter("ID ge 5001 and ID lt 5101").top(100).toQueryString()
+		);
+		// the query of the caller is left untouched
+		assertEquals(query.getFilter(), "Status eq 'Open'");
+		assertTrue(query.toQueryString().contains("$orderby=Modified%20desc"));
+	}
+
+	private JSONArray items(final long fromId, final long toId)
+	{
+		windows.add(fromId + "-" + toId);
+		final JSONArray items = new JSONArray();
+		for (long id = fromId; id < toId; id++)
+		{
+			items.put(new JSONObject().put("ID", id));
+		}
+		return items;
+	}
+
+	/**
+	 * @return the windows requested, sorted by their first ID as they are requested concurrently.
+	 */
+	private List<String> requestedWindows()
+	{
+		final List<String> requested = new ArrayList<>(windows);
+		requested.sort(Comparator.comparingLong(window -> Long.parseLong(window.substring(0, window.indexOf('-')))));
+		return requested;
+	}
+
+	private static List<Long> ids(final ListItemRangeScan scan)
+	{
+		final List<Long> ids = new ArrayList<>();
+		try (final ListItemIterator items = new ListItemIterator(scan))
+		{
+			while (items.hasNext())
+			{
+				ids.add(items.next().getLong("ID"));
+			}
+		}
+		return ids;
+	}
+
+	private static List<Long> range(final long from, final long to)
+	{
+		final List<Long> range = new ArrayList<>();
+		for (long id = from; id < to; id++)
+		{
+			range.add(id);
+		}
+		return range;
+	}
+}
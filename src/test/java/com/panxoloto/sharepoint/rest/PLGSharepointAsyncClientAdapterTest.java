@@ -0,0 +1,78 @@
+package com.panxoloto.sharepoint.rest;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.testng.annotations.Test;
+
+public class PLGSharepointAsyncClientAdapterTest
+{
+	private static PLGSharepointClient stub(final CountDownLatch allStarted)
+	{
+		return (PLGSharepointClient) Proxy.newProxyInstance
+		(
+			PLGSharepointClient.class.getClassLoader(),
+			new Class<?>[] { PLGSharepointClient.class },
+			(proxy, method, args) ->
+			{
+				if ("getListByTitle".equals(method.getName()))
+				{
+					allStarted.countDown();
+					// only returns once every call is in flight
+					assertTrue(allStarted.await(10, TimeUnit.SECONDS));
+					return new JSONObject().put("Title", args[0]);
+				}
+				throw new IOException("unavailable");
+			}
+		);
+	}
+
+	@Test
+	public final void calls_run_concurrently()
+		throws Exception
+	{
+		final CountDownLatch allStarted = new CountDownLatch(20);
+		final PLGSharepointAsyncClient client = new PLGSharepointAsyncClientAdapter(stub(allStarted));
+
+		final List<CompletableFuture<JSONObject>> futures = new ArrayList<>();
+		for (int i = 0; i < 20; i++)
+		{
+			futures.add(client.getListByTitle("List " + i, null));
+		}
+		CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(20, TimeUnit.SECONDS);
+
+		for (int i = 0; i < 20; i++)
+		{
+			assertEquals(futures.get(i).get().getString("Title"), "List " + i);
+		}
+	}
+
+	@Test
+	public final void checked_exceptions_complete_the_future()
+		throws Exception
+	{
+		final PLGSharepointAsyncClient client = new PLGSharepointAsyncClientAdapter(stub(new CountDownLatch(0)), Runnable::run);
+		try
+		{
+			client.deleteFile("/sites/site/Shared Documents/file.txt").get();
+			fail("the future should have failed");
+		}
+		catch (final ExecutionException e)
+		{
+			assertSame(e.getCause().getClass(), IOException.class);
+			assertEquals(e.getCause().getMessage(), "unavailable");
+		}
+	}
+}
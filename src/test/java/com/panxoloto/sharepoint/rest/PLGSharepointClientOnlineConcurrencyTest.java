@@ -0,0 +1,279 @@
+package com.panxoloto.sharepoint.rest;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.json.JSONObject;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.panxoloto.sharepoint.rest.helper.AuthTokenHelperOnline;
+import com.panxoloto.sharepoint.rest.helper.HttpProtocols;
+import com.panxoloto.sharepoint.rest.helper.PooledConnectionConfig;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Many threads sharing a single client against a stub site. The stub rejects any request whose headers
+ * don't match its operation (a GET carrying MERGE headers, a digest of another sign in...), and the client
+ * checks every response belongs to its own request, while the session is refreshed concurrently.
+ */
+public class PLGSharepointClientOnlineConcurrencyTest
+{
+	private static final int THREADS = 16;
+	private static final int OPERATIONS = 150;
+	private static final Pattern GENERATION = Pattern.compile("FedAuth=gen-(\\d+)");
+	private static final Pattern LIST = Pattern.compile("GetByTitle\\('([^']*)'\\)");
+	private static final Pattern ITEM = Pattern.compile("/items\\((\\d+)\\)$");
+
+	private final AtomicInteger signIns = new AtomicInteger();
+	private final ConcurrentLinkedQueue<String> serverErrors = new ConcurrentLinkedQueue<>();
+	private HttpServer server;
+	private ExecutorService serverExecutor;
+	private PooledConnectionConfig pool;
+	private PLGSharepointClientOnline client;
+
+	@BeforeClass
+	public final void start()
+		throws Exception
+	{
+		serverExecutor = Executors.newFixedThreadPool(THREADS);
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 128);
+		server.setExecutor(serverExecutor);
+		server.createContext("/", this::handle);
+		server.start();
+
+		pool = new PooledConnectionConfig().maxConnectionsPerRoute(THREADS).maxConnectionsTotal(THREADS);
+		final HttpComponentsClientHttpRequestFactory requestFactory = new HttpComponentsClientHttpRequestFactory();
+		requestFactory.setHttpClient(pool.httpClientBuilderSupplier().get().build());
+		final StreamRestTemplate restTemplate = new StreamRestTemplate(requestFactory);
+		final AuthTokenHelperOnline tokenHelper = new AuthTokenHelperOnline(false, restTemplate, "user", "passwd", "127.0.0.1:" + server.getAddress().getPort(), "/sites/site")
+		{
+			@Override
+			protected String receiveSecurityToken()
+			{
+				return "t=TOKENp=";
+			}
+		};
+		tokenHelper.setProtocol(HttpProtocols.HTTP);
+		tokenHelper.init();
+		client = new PLGSharepointClientOnline(restTemplate, tokenHelper, "/sites/site");
+	}
+
+	@AfterClass
+	public final void stop()
+	{
+		server.stop(0);
+		serverExecutor.shutdownNow();
+		pool.close();
+	}
+
+	@Test
+	public final void single_client_serves_many_threads()
+		throws Exception
+	{
+		final ExecutorService workers = Executors.newFixedThreadPool(THREADS + 1);
+		final List<Throwable> clientErrors = Collections.synchronizedList(new ArrayList<>());
+		final CountDownLatch done = new CountDownLatch(THREADS);
+		final AtomicBoolean running = new AtomicBoolean(true);
+
+		workers.submit(() ->
+		{
+			while (running.get())
+			{
+				try
+				{
+					client.refreshToken();
+					Thread.sleep(20);
+				}
+				catch (final Exception e)
+				{
+					clientErrors.add(e);
+					return;
+				}
+			}
+		});
+		for (int t = 0; t < THREADS; t++)
+		{
+			final int thread = t;
+			workers.submit(() ->
+			{
+				try
+				{
+					for (int i = 0; i < OPERATIONS; i++)
+					{
+						final String list = "List " + thread + "-" + i;
+						switch (i % 4)
+						{
+							case 0:
+								assertEquals(client.getListByTitle(list, "").getJSONObject("d").getString("Title"), list);
+								break;
+							case 1:
+								final JSONObject created = client.createListItem(list, "SP.Data.ListItem", new JSONObject().put("Title", list));
+								assertEquals(created.getJSONObject("d").getString("Title"), list);
+								break;
+							case 2:
+								assertTrue(client.updateListItem(list, thread * 1000 + i, "SP.Data.ListItem", new JSONObject().put("Title", list)));
+								break;
+							default:
+								assertEquals(client.getListItems(list, null, null).getJSONObject("d").getJSONArray("results").length(), 3);
+								break;
+						}
+					}
+				}
+				catch (final Throwable e)
+				{
+					clientErrors.add(e);
+				}
+				finally
+				{
+					done.countDown();
+				}
+			});
+		}
+
+		assertTrue(done.await(120, TimeUnit.SECONDS));
+		running.set(false);
+		workers.shutdown();
+		assertTrue(workers.awaitTermination(10, TimeUnit.SECONDS));
+
+		assertTrue(serverErrors.isEmpty(), serverErrors.toString());
+		assertTrue(clientErrors.isEmpty(), clientErrors.toString());
+		assertTrue(signIns.get() > 2, "the session should have been refreshed while requests were running");
+	}
+
+	private void handle(final HttpExchange exchange)
+		throws IOException
+	{
+		try
+		{
+			final String path = URLDecoder.decode(exchange.getRequestURI().getRawPath(), StandardCharsets.UTF_8);
+			final String query = exchange.getRequestURI().getQuery();
+			final String method = exchange.getRequestMethod();
+			final String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+
+			if (path.equals("/_forms/default.aspx"))
+			{
+				final int generation = signIns.incrementAndGet();
+				exchange.getResponseHeaders().add("Set-Cookie", "FedAuth=gen-" + generation);
+				exchange.getResponseHeaders().add("Set-Cookie", "rtFa=gen-" + generation);
+				reply(exchange, 200, "");
+				return;
+			}
+			final Matcher cookie = GENERATION.matcher(String.valueOf(exchange.getRequestHeaders().getFirst("Cookie")));
+			if (!cookie.find())
+			{
+				fail(exchange, "missing cookie on " + method + " " + path);
+				return;
+			}
+			final String digest = "digest-" + cookie.group(1);
+			if (path.equals("/_api/contextinfo"))
+			{
+				reply(exchange, 200, "{\"d\":{\"GetContextWebInformation\":{\"FormDigestValue\":\"" + digest + "\",\"FormDigestTimeoutSeconds\":1800}}}");
+				return;
+			}
+
+			final String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+			final String requestDigest = exchange.getRequestHeaders().getFirst("X-RequestDigest");
+			if (!("Bearer " + digest).equals(authorization) && !digest.equals(requestDigest))
+			{
+				fail(exchange, "digest of another session on " + method + " " + path + ": " + authorization + " / " + requestDigest);
+				return;
+			}
+			final String xMethod = exchange.getRequestHeaders().getFirst("X-HTTP-Method");
+			final Matcher list = LIST.matcher(path);
+			if (!list.find())
+			{
+				fail(exchange, "unexpected path " + path);
+				return;
+			}
+			final String title = list.group(1);
+			final Matcher item = ITEM.matcher(path);
+
+			if ("GET".equals(method) && xMethod == null && path.endsWith("/items"))
+			{
+				final int page = query == null ? 1 : Integer.parseInt(query.substring("page=".length()));
+				final JSONObject d = new JSONObject().put("results", new org.json.JSONArray().put(new JSONObject().put("Title", title + " " + page)));
+				if (page < 3)
+				{
+					d.put("__next", "http://127.0.0.1:" + server.getAddress().getPort() + exchange.getRequestURI().getRawPath() + "?page=" + (page + 1));
+				}
+				reply(exchange, 200, new JSONObject().put("d", d).toString());
+			}
+			else if ("GET".equals(method) && xMethod == null)
+			{
+				reply(exchange, 200, new JSONObject().put("d", new JSONObject().put("Title", title)).toString());
+			}
+			else if ("POST".equals(method) && xMethod == null && path.endsWith("/items"))
+			{
+				final JSONObject payload = new JSONObject(body);
+				if (!title.equals(payload.getString("Title")) || !String.valueOf(exchange.getRequestHeaders().getFirst("Content-Type")).startsWith("application/json"))
+				{
+					fail(exchange, "payload of another request on " + path + ": " + body);
+					return;
+				}
+				reply(exchange, 201, new JSONObject().put("d", new JSONObject().put("Id", 1).put("Title", title)).toString());
+			}
+			else if ("POST".equals(method) && "MERGE".equals(xMethod) && item.find() && "*".equals(exchange.getRequestHeaders().getFirst("IF-Match")))
+			{
+				if (!title.equals(new JSONObject(body).getString("Title")))
+				{
+					fail(exchange, "payload of another request on " + path + ": " + body);
+					return;
+				}
+				reply(exchange, 204, null);
+			}
+			else
+			{
+				fail(exchange, "headers of another operation on " + method + " " + path + " X-HTTP-Method " + xMethod);
+			}
+		}
+		catch (final RuntimeException e)
+		{
+			fail(exchange, e.toString());
+		}
+	}
+
+	private void fail(final HttpExchange exchange, final String error)
+		throws IOException
+	{
+		serverErrors.add(error);
+		reply(exchange, 400, error);
+	}
+
+	private static void reply(final HttpExchange exchange, final int status, final String body)
+		throws IOException
+	{
+		if (body == null)
+		{
+			exchange.sendResponseHeaders(status, -1);
+		}
+		else
+		{
+			final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().add("Content-Type", "application/json;odata=verbose;charset=utf-8");
+			exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+			exchange.getResponseBody().write(bytes);
+		}
+		exchange.close();
+	}
+}
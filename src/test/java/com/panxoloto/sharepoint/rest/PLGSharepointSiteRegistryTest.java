@@ -0,0 +1,134 @@
+package com.panxoloto.sharepoint.rest;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONObject;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.panxoloto.sharepoint.rest.helper.AuthTokenHelperOnline;
+import com.panxoloto.sharepoint.rest.helper.HttpProtocols;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class PLGSharepointSiteRegistryTest
+{
+	private final AtomicInteger signIns = new AtomicInteger();
+	private final AtomicInteger validGeneration = new AtomicInteger();
+	private final Queue<String> paths = new ConcurrentLinkedQueue<>();
+	private HttpServer server;
+	private ExecutorService serverExecutor;
+	private PLGSharepointSiteRegistry registry;
+
+	@BeforeMethod
+	public final void start()
+		throws Exception
+	{
+		signIns.set(0);
+		validGeneration.set(0);
+		paths.clear();
+		serverExecutor = Executors.newCachedThreadPool();
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 64);
+		server.setExecutor(serverExecutor);
+		server.createContext("/", this::handle);
+		server.start();
+
+		final StreamRestTemplate restTemplate = new StreamRestTemplate(new SimpleClientHttpRequestFactory());
+		final AuthTokenHelperOnline tokenHelper = new AuthTokenHelperOnline(false, restTemplate, "user", "passwd", "127.0.0.1:" + server.getAddress().getPort(), "")
+		{
+			@Override
+			protected String receiveSecurityToken()
+			{
+				return "t=TOKENp=";
+			}
+		};
+		tokenHelper.setProtocol(HttpProtocols.HTTP);
+		registry = new PLGSharepointSiteRegistry(restTemplate, tokenHelper, null);
+	}
+
+	@AfterMethod
+	public final void stop()
+		throws Exception
+	{
+		registry.close();
+		server.stop(0);
+		serverExecutor.shutdownNow();
+	}
+
+	@Test
+	public final void sites_share_one_sign_in()
+		throws Exception
+	{
+		assertSame(registry.site("sites/a/"), registry.site("/sites/a"));
+		assertEquals(signIns.get(), 0);
+
+		for (final String site : new String[] { "/sites/a", "/sites/b", "/sites/c" })
+		{
+			assertEquals(registry.site(site).getListByTitle("Docs", "").getJSONObject("d").getString("Title"), "Docs");
+		}
+		assertEquals(registry.size(), 3);
+		assertEquals(signIns.get(), 1);
+		assertEquals(paths.toArray(), new String[] {
+			"/sites/a/_api/web/lists/GetByTitle('Docs')",
+			"/sites/b/_api/web/lists/GetByTitle('Docs')",
+			"/sites/c/_api/web/lists/GetByTitle('Docs')" });
+
+		// the session expires: one sign in again, for every site
+		validGeneration.incrementAndGet();
+		registry.site("/sites/a").getListByTitle("Docs", "");
+		registry.site("/sites/b").getListByTitle("Docs", "");
+		assertEquals(signIns.get(), 2);
+	}
+
+	private void handle(final HttpExchange exchange)
+		throws IOException
+	{
+		final String path = exchange.getRequestURI().getPath();
+		exchange.getRequestBody().readAllBytes();
+		if (path.equals("/_forms/default.aspx"))
+		{
+			final int generation = signIns.incrementAndGet();
+			validGeneration.accumulateAndGet(generation, Math::max);
+			exchange.getResponseHeaders().add("Set-Cookie", "FedAuth=gen-" + generation);
+			reply(exchange, 200, "");
+			return;
+		}
+		final String cookie = String.valueOf(exchange.getRequestHeaders().getFirst("Cookie"));
+		final int generation = cookie.startsWith("FedAuth=gen-") ? Integer.parseInt(cookie.substring("FedAuth=gen-".length())) : -1;
+		if (path.equals("/_api/contextinfo"))
+		{
+			reply(exchange, 200, "{\"d\":{\"GetContextWebInformation\":{\"FormDigestValue\":\"digest-" + generation + "\",\"FormDigestTimeoutSeconds\":1800}}}");
+			return;
+		}
+		if (generation != validGeneration.get())
+		{
+			reply(exchange, 401, "{}");
+			return;
+		}
+		paths.add(path);
+		final String title = path.replaceAll(".*GetByTitle\\('([^']*)'\\).*", "$1");
+		reply(exchange, 200, new JSONObject().put("d", new JSONObject().put("Title", title)).toString());
+	}
+
+	private static void reply(final HttpExchange exchange, final int status, final String body)
+		throws IOException
+	{
+		final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().add("Content-Type", "application/json;odata=verbose;charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+		exchange.getResponseBody().write(bytes);
+		exchange.close();
+	}
+}
@@ -0,0 +1,164 @@
+package com.panxoloto.sharepoint.rest;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
+
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class PrefetchingIteratorTest
+{
+	private ExecutorService executor;
+
+	@BeforeMethod
+	public final void start()
+	{
+		executor = Executors.newSingleThreadExecutor();
+	}
+
+	@AfterMethod
+	public final void stop()
+	{
+		executor.shutdownNow();
+	}
+
+	@Test(timeOut = 10000)
+	public final void delegate_is_read_at_most_read_ahead_plus_one_elements_ahead()
+		throws Exception
+	{
+		final CountingIterator delegate = new CountingIterator(100, -1, null);
+		try (final PrefetchingIterator<Integer> iterator = new PrefetchingIterator<>(delegate, 2, executor))
+		{
+			awaitCount(delegate, 3);
+			Thread.sleep(300);
+			assertEquals(delegate.count.get(), 3);
+
+			assertEquals(iterator.next(), Integer.valueOf(0));
+			awaitCount(delegate, 4);
+			Thread.sleep(300);
+			assertEquals(delegate.count.get(), 4);
+
+			for (int i = 1; i < 100; i++)
+			{
+				assertEquals(iterator.next(), Integer.valueOf(i));
+			}
+			assertFalse(iterator.hasNext());
+		}
+	}
+
+	@Test(timeOut = 10000)
+	public final void close_stops_the_background_task()
+		throws Exception
+	{
+		final CountingIterator delegate = new CountingIterator(Integer.MAX_VALUE, -1, null);
+		final PrefetchingIterator<Integer> iterator = new PrefetchingIterator<>(delegate, 1, executor);
+		assertEquals(iterator.next(), Integer.valueOf(0));
+
+		iterator.close();
+		assertFalse(iterator.hasNext());
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+		final int read = delegate.count.get();
+		Thread.sleep(300);
+		assertEquals(delegate.count.get(), read);
+		assertTrue(read <= 3, "read " + read);
+	}
+
+	@Test(timeOut = 10000)
+	public final void failure_of_the_delegate_reaches_the_consumer()
+	{
+		try (final PrefetchingIterator<Integer> iterator = new PrefetchingIterator<>(new CountingIterator(10, 2, new IllegalStateException("page failed")), 4, executor))
+		{
+			assertEquals(iterator.next(), Integer.valueOf(0));
+			assertEquals(iterator.next(), Integer.valueOf(1));
+			assertEquals(expectThrows(IllegalStateException.class, iterator::hasNext).getMessage(), "page failed");
+		}
+	}
+
+	@Test(timeOut = 10000)
+	public final void error_of_the_delegate_reaches_the_consumer()
+	{
+		try (final PrefetchingIterator<Integer> iterator = new PrefetchingIterator<>(new CountingIterator(10, 1, new OutOfMemoryError("no room")), 4, executor))
+		{
+			assertEquals(iterator.next(), Integer.valueOf(0));
+			assertEquals(expectThrows(OutOfMemoryError.class, iterator::next).getMessage(), "no room");
+		}
+	}
+
+	@Test(timeOut = 10000)
+	public final void shutdown_of_the_executor_reaches_the_consumer()
+		throws Exception
+	{
+		final CountingIterator delegate = new CountingIterator(Integer.MAX_VALUE, -1, null);
+		try (final PrefetchingIterator<Integer> iterator = new PrefetchingIterator<>(delegate, 2, executor))
+		{
+			// the queue is full and the background task waits for room
+			awaitCount(delegate, 3);
+			executor.shutdownNow();
+			assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+			// the buffered elements are still read, then the interruption is raised instead of waiting forever
+			assertEquals(iterator.next(), Integer.valueOf(0));
+			assertEquals(iterator.next(), Integer.valueOf(1));
+			final IllegalStateException failure = expectThrows(IllegalStateException.class, iterator::hasNext);
+			assertTrue(failure.getCause() instanceof InterruptedException, String.valueOf(failure.getCause()));
+		}
+	}
+
+	private static void awaitCount(final CountingIterator delegate, final int count)
+		throws InterruptedException
+	{
+		while (delegate.count.get() < count)
+		{
+			Thread.sleep(5);
+		}
+	}
+
+	/**
+	 * Iterator over 0 to size - 1 counting the elements read, failing at a given element.
+	 */
+	private static final class CountingIterator
+		implements Iterator<Integer>
+	{
+		private final AtomicInteger count = new AtomicInteger();
+		private final int size;
+		private final int failAt;
+		private final Throwable failure;
+
+		CountingIterator(final int size, final int failAt, final Throwable failure)
+		{
+			this.size = size;
+			this.failAt = failAt;
+			this.failure = failure;
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			return count.get() < size;
+		}
+
+		@Override
+		public Integer next()
+		{
+			if (count.get() == failAt)
+			{
+				if (failure instanceof Error)
+				{
+					throw (Error) failure;
+				}
+				throw (RuntimeException) failure;
+			}
+			return count.getAndIncrement();
+		}
+	}
+}
@@ -0,0 +1,294 @@
+package com.panxoloto.sharepoint.rest;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONObject;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.RequestEntity;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.web.client.HttpClientErrorException;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.panxoloto.sharepoint.rest.helper.AuthTokenHelperOnline;
+import com.panxoloto.sharepoint.rest.helper.HttpProtocols;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class ReauthenticationInterceptorTest
+{
+	private static final int THREADS = 12;
+
+	private final AtomicInteger signIns = new AtomicInteger();
+	/** Sign in generation accepted by the stub, older sessions are rejected. */
+	private final AtomicInteger validGeneration = new AtomicInteger();
+	private final AtomicInteger rejected = new AtomicInteger();
+	private final AtomicInteger digests = new AtomicInteger();
+	private final AtomicInteger forbidden = new AtomicInteger();
+	private HttpServer server;
+	private ExecutorService serverExecutor;
+	private StreamRestTemplate restTemplate;
+	private AuthTokenHelperOnline tokenHelper;
+	private PLGSharepointClientOnline client;
+
+	@BeforeMethod
+	public final void start()
+		throws Exception
+	{
+		signIns.set(0);
+		validGeneration.set(0);
+		rejected.set(0);
+		digests.set(0);
+		forbidden.set(0);
+		serverExecutor = Executors.newFixedThreadPool(THREADS);
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 64);
+		server.setExecutor(serverExecutor);
+		server.createContext("/", this::handle);
+		server.start();
+
+		restTemplate = new StreamRestTemplate(new SimpleClientHttpRequestFactory());
+		tokenHelper = new AuthTokenHelperOnline(false, restTemplate, "user", "passwd", "127.0.0.1:" + server.getAddress().getPort(), "/sites/site")
+		{
+			@Override
+			protected String receiveSecurityToken()
+			{
+				return "t=TOKENp=";
+			}
+		};
+		tokenHelper.setProtocol(HttpProtocols.HTTP);
+		tokenHelper.init();
+		client = new PLGSharepointClientOnline(restTemplate, tokenHelper, "/sites/site");
+	}
+
+	@AfterMethod
+	public final void stop()
+	{
+		server.stop(0);
+		serverExecutor.shutdownNow();
+	}
+
+	@Test
+	public final void expired_session_is_renewed_once_and_requests_are_replayed()
+		throws Exception
+	{
+		assertEquals(client.getListByTitle("Before", "").getJSONObject("d").getString("Title"), "Before");
+		assertEquals(signIns.get(), 1);
+
+		// the server drops the session, every request in flight is rejected
+		validGeneration.incrementAndGet();
+		final ExecutorService workers = Executors.newFixedThreadPool(THREADS);
+		final CountDownLatch startTogether = new CountDownLatch(1);
+		try
+		{
+			final List<Future<?>> results = new ArrayList<>();
+			for (int i = 0; i < THREADS; i++)
+			{
+				final String title = "List " + i;
+				results.add(workers.submit(() ->
+				{
+					startTogether.await();
+					if (title.hashCode() % 2 == 0)
+					{
+						assertEquals(client.getListByTitle(title, "").getJSONObject("d").getString("Title"), title);
+					}
+					else
+					{
+						assertEquals(client.createListItem(title, "SP.Data.ListItem", new JSONObject().put("Title", title)).getJSONObject("d").getString("Title"), title);
+					}
+					return null;
+				}));
+			}
+			startTogether.countDown();
+			for (final Future<?> result : results)
+			{
+				result.get(30, TimeUnit.SECONDS);
+			}
+		}
+		finally
+		{
+			workers.shutdownNow();
+		}
+		assertEquals(signIns.get(), 2);
+		assertTrue(rejected.get() > 0);
+	}
+
+	@Test
+	public final void missing_permission_does_not_sign_in_again()
+		throws Exception
+	{
+		// no sign in by the interceptor yet: it is not prevented by the interval between sign ins
+		for (int i = 0; i < 3; i++)
+		{
+			expectThrows(HttpClientErrorException.Forbidden.class, () -> client.getListByTitle("Forbidden", ""));
+		}
+		assertEquals(signIns.get(), 1);
+	}
+
+	@Test
+	public final void rejected_form_digest_signs_in_again()
+		throws Exception
+	{
+		assertEquals(client.getListByTitle("Validation", "").getJSONObject("d").getString("Title"), "Validation");
+		assertEquals(signIns.get(), 2);
+	}
+
+	@Test
+	public final void persistent_unauthorized_does_not_sign_in_on_every_request()
+		throws Exception
+	{
+		expectThrows(HttpClientErrorException.Unauthorized.class, () -> client.getListByTitle("Unauthorized", ""));
+		assertEquals(signIns.get(), 2);
+		expectThrows(HttpClientErrorException.Unauthorized.class, () -> client.getListByTitle("Unauthorized", ""));
+		expectThrows(HttpClientErrorException.Unauthorized.class, () -> client.getListByTitle("Unauthorized", ""));
+		assertEquals(signIns.get(), 2);
+	}
+
+	@Test
+	public final void unauthorized_after_a_form_digest_renewal_signs_in_again()
+		throws Exception
+	{
+		final String previousDigest = renewFormDigest();
+		// the cookies expire, the request was sent with the digest renewed since
+		validGeneration.incrementAndGet();
+		assertEquals(new JSONObject(send("Previous", previousDigest)).getJSONObject("d").getString("Title"), "Previous");
+		assertEquals(signIns.get(), 2);
+	}
+
+	@Test
+	public final void missing_permission_after_a_form_digest_renewal_is_not_replayed()
+		throws Exception
+	{
+		final String previousDigest = renewFormDigest();
+		expectThrows(HttpClientErrorException.Forbidden.class, () -> send("Forbidden", previousDigest));
+		assertEquals(forbidden.get(), 1);
+		assertEquals(signIns.get(), 1);
+	}
+
+	@Test
+	public final void replay_of_a_stale_request_does_not_delay_the_next_sign_in()
+		throws Exception
+	{
+		final String previousDigest = tokenHelper.getFormDigestValue();
+		tokenHelper.init();
+		// sent with the cookies of the first sign in: replayed without signing in
+		assertEquals(new JSONObject(send("Stale", previousDigest)).getJSONObject("d").getString("Title"), "Stale");
+		assertEquals(signIns.get(), 2);
+
+		validGeneration.incrementAndGet();
+		assertEquals(client.getListByTitle("Expired", "").getJSONObject("d").getString("Title"), "Expired");
+		assertEquals(signIns.get(), 3);
+	}
+
+	/**
+	 * Renews the form digest in background, keeping the cookies.
+	 *
+	 * @return the digest before the renewal.
+	 */
+	private String renewFormDigest()
+		throws InterruptedException
+	{
+		final String previous = tokenHelper.getFormDigestValue();
+		// every read of a digest valid for less than an hour starts a renewal
+		tokenHelper.setFormDigestRefreshAhead(Duration.ofHours(1));
+		for (int i = 0; i < 100 && previous.equals(tokenHelper.getFormDigestValue()); i++)
+		{
+			Thread.sleep(50);
+		}
+		tokenHelper.setFormDigestRefreshAhead(AuthTokenHelperOnline.DEFAULT_FORM_DIGEST_REFRESH_AHEAD);
+		assertTrue(!previous.equals(tokenHelper.getFormDigestValue()));
+		assertEquals(signIns.get(), 1);
+		return previous;
+	}
+
+	/**
+	 * Gets a list with the cookies of the first sign in and a given form digest.
+	 */
+	private String send(final String title, final String digest)
+	{
+		final HttpHeaders headers = new HttpHeaders();
+		headers.add("Cookie", "FedAuth=gen-1");
+		headers.add("Accept", "application/json;odata=verbose");
+		headers.add("X-RequestDigest", digest);
+		final URI uri = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/sites/site/_api/web/lists/GetByTitle('" + title + "')");
+		return restTemplate.exchange(new RequestEntity<>(headers, HttpMethod.GET, uri), String.class).getBody();
+	}
+
+	private void handle(final HttpExchange exchange)
+		throws IOException
+	{
+		final String path = exchange.getRequestURI().getPath();
+		exchange.getRequestBody().readAllBytes();
+		if (path.equals("/_forms/default.aspx"))
+		{
+			final int generation = signIns.incrementAndGet();
+			validGeneration.accumulateAndGet(generation, Math::max);
+			exchange.getResponseHeaders().add("Set-Cookie", "FedAuth=gen-" + generation);
+			reply(exchange, 200, "");
+			return;
+		}
+		final String cookie = String.valueOf(exchange.getRequestHeaders().getFirst("Cookie"));
+		final int generation = cookie.startsWith("FedAuth=gen-") ? Integer.parseInt(cookie.substring("FedAuth=gen-".length())) : -1;
+		if (path.equals("/_api/contextinfo"))
+		{
+			reply(exchange, 200, "{\"d\":{\"GetContextWebInformation\":{\"FormDigestValue\":\"digest-" + generation + "-" + digests.incrementAndGet()
+				+ "\",\"FormDigestTimeoutSeconds\":1800}}}");
+			return;
+		}
+		// any digest issued for the cookies is accepted
+		final String digest = "digest-" + generation + "-";
+		final boolean authorized = String.valueOf(exchange.getRequestHeaders().getFirst("X-RequestDigest")).startsWith(digest)
+			|| String.valueOf(exchange.getRequestHeaders().getFirst("Authorization")).startsWith("Bearer " + digest);
+		if (generation != validGeneration.get() || !authorized)
+		{
+			rejected.incrementAndGet();
+			reply(exchange, 401, "{}");
+			return;
+		}
+		final String title = path.replaceAll(".*GetByTitle\\('([^']*)'\\).*", "$1");
+		if (title.equals("Forbidden"))
+		{
+			forbidden.incrementAndGet();
+			reply(exchange, 403, "{\"error\":{\"code\":\"-2147024891, System.UnauthorizedAccessException\",\"message\":{\"value\":\"Access denied.\"}}}");
+			return;
+		}
+		if (title.equals("Unauthorized"))
+		{
+			reply(exchange, 401, "{}");
+			return;
+		}
+		if (title.equals("Validation") && generation == 1)
+		{
+			reply(exchange, 403, "{\"error\":{\"code\":\"-2130575251, Microsoft.SharePoint.SPException\",\"message\":{\"value\":\"The security validation for this page is invalid and might be corrupted.\"}}}");
+			return;
+		}
+		reply(exchange, path.endsWith("/items") ? 201 : 200, new JSONObject().put("d", new JSONObject().put("Title", title)).toString());
+	}
+
+	private static void reply(final HttpExchange exchange, final int status, final String body)
+		throws IOException
+	{
+		final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().add("Content-Type", "application/json;odata=verbose;charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+		exchange.getResponseBody().write(bytes);
+		exchange.close();
+	}
+}
@@ -0,0 +1,146 @@
+package com.panxoloto.sharepoint.rest;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.RequestEntity;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class RetryInterceptorTest
+{
+	/** Statuses and Retry-After headers of the next responses, 200 when empty. */
+	private final Queue<String[]> responses = new ConcurrentLinkedQueue<>();
+	private final Queue<String> bodies = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger requests = new AtomicInteger();
+	private HttpServer server;
+	private RetryInterceptor retry;
+	private StreamRestTemplate restTemplate;
+
+	@BeforeMethod
+	public final void start()
+		throws Exception
+	{
+		responses.clear();
+		bodies.clear();
+		requests.set(0);
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", this::handle);
+		server.start();
+		retry = new RetryInterceptor().setBackoff(Duration.ofMillis(20), Duration.ofMillis(100));
+		restTemplate = new StreamRestTemplate(new SimpleClientHttpRequestFactory());
+		restTemplate.addReplayInterceptor(retry);
+	}
+
+	@AfterMethod
+	public final void stop()
+	{
+		server.stop(0);
+	}
+
+	@Test
+	public final void throttled_write_is_replayed_after_retry_after()
+		throws Exception
+	{
+		responses.add(new String[] { "429", "1" });
+		responses.add(new String[] { "503", null });
+		final long start = System.nanoTime();
+		final String body = restTemplate.exchange(post("continueupload(fileOffset=1024)", "chunk"), String.class).getBody();
+
+		assertEquals(body, "ok");
+		assertEquals(requests.get(), 3);
+		assertEquals(bodies.toArray(), new String[] { "chunk", "chunk", "chunk" });
+		assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() >= 1000);
+		assertEquals(retry.getThrottledResponseCount(), 2);
+		assertEquals(retry.getRetryCount(), 2);
+		assertEquals(retry.getExhaustedCount(), 0);
+		assertTrue(retry.getTotalWaitTime().toMillis() >= 1000);
+	}
+
+	@Test
+	public final void gives_up_after_max_retries()
+		throws Exception
+	{
+		retry.setMaxRetries(2);
+		for (int i = 0; i < 5; i++)
+		{
+			responses.add(new String[] { "503", null });
+		}
+		expectThrows(HttpServerErrorException.ServiceUnavailable.class, () -> restTemplate.exchange(post("items", "{}"), String.class));
+		assertEquals(requests.get(), 3);
+		assertEquals(retry.getExhaustedCount(), 1);
+	}
+
+	@Test
+	public final void too_long_retry_after_is_returned_to_the_caller()
+		throws Exception
+	{
+		retry.setMaxRetryAfter(Duration.ofSeconds(10));
+		responses.add(new String[] { "429", "3600" });
+		expectThrows(HttpClientErrorException.TooManyRequests.class, () -> restTemplate.exchange(post("items", "{}"), String.class));
+		assertEquals(requests.get(), 1);
+		assertEquals(retry.getTotalWaitTime(), Duration.ZERO);
+	}
+
+	@Test
+	public final void retry_after_header_parsing()
+	{
+		final HttpHeaders headers = new HttpHeaders();
+		assertEquals(RetryInterceptor.retryAfterMillis(headers), -1);
+		headers.set("Retry-After", "7");
+		assertEquals(RetryInterceptor.retryAfterMillis(headers), 7000);
+		headers.set("Retry-After", "Wed, 21 Oct 2015 07:28:00 GMT");
+		assertEquals(RetryInterceptor.retryAfterMillis(headers), 0);
+		headers.set("Retry-After", "soon");
+		assertEquals(RetryInterceptor.retryAfterMillis(headers), -1);
+
+		for (int attempt = 0; attempt < 10; attempt++)
+		{
+			final long delay = retry.backoff(attempt);
+			final long full = Math.min(100, 20L << attempt);
+			assertTrue(delay >= full / 2 && delay <= full, attempt + ": " + delay);
+		}
+	}
+
+	private RequestEntity<String> post(final String path, final String body)
+		throws Exception
+	{
+		return new RequestEntity<>(body, HttpMethod.POST, new URI("http://127.0.0.1:" + server.getAddress().getPort() + "/" + path));
+	}
+
+	private void handle(final HttpExchange exchange)
+		throws IOException
+	{
+		requests.incrementAndGet();
+		bodies.add(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+		final String[] next = responses.poll();
+		final int status = next == null ? 200 : Integer.parseInt(next[0]);
+		if (next != null && next[1] != null)
+		{
+			exchange.getResponseHeaders().add("Retry-After", next[1]);
+		}
+		final byte[] bytes = (status == 200 ? "ok" : "throttled").getBytes(StandardCharsets.UTF_8);
+		exchange.sendResponseHeaders(status, bytes.length);
+		exchange.getResponseBody().write(bytes);
+		exchange.close();
+	}
+}
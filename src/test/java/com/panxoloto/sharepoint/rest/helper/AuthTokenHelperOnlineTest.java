@@ -0,0 +1,296 @@
+package com.panxoloto.sharepoint.rest.helper;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.springframework.web.client.RestTemplate;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.json.JSONObject;
+import org.testng.annotations.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class AuthTokenHelperOnlineTest
+{
+	private final AtomicInteger signIns = new AtomicInteger();
+	private final AtomicInteger digests = new AtomicInteger();
+	private final AtomicBoolean rejectCookies = new AtomicBoolean();
+	private volatile long digestDelay;
+	private volatile int digestTimeout;
+	private HttpServer server;
+	private ExecutorService serverExecutor;
+	private AuthTokenHelperOnline tokenHelper;
+
+	@BeforeMethod
+	public final void start()
+		throws Exception
+	{
+		signIns.set(0);
+		digests.set(0);
+		rejectCookies.set(false);
+		digestDelay = 0;
+		digestTimeout = 60;
+		serverExecutor = Executors.newCachedThreadPool();
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 64);
+		server.setExecutor(serverExecutor);
+		server.createContext("/", this::handle);
+		server.start();
+		tokenHelper = newTokenHelper(null);
+		tokenHelper.init();
+	}
+
+	private AuthTokenHelperOnline newTokenHelper(final CredentialStore credentialStore)
+	{
+		final AuthTokenHelperOnline helper = new AuthTokenHelperOnline(false, new RestTemplate(), "user", "passwd", "127.0.0.1:" + server.getAddress().getPort(), "/sites/site")
+		{
+			@Override
+			protected String receiveSecurityToken()
+			{
+				return "t=TOKENp=";
+			}
+		};
+		helper.setProtocol(HttpProtocols.HTTP);
+		// digests are valid for 60 - 30 seconds of margin, renewal starts after 1 second
+		helper.setFormDigestRefreshAhead(Duration.ofSeconds(29));
+		helper.setCredentialStore(credentialStore);
+		return helper;
+	}
+
+	@AfterMethod
+	public final void stop()
+	{
+		server.stop(0);
+		serverExecutor.shutdownNow();
+	}
+
+	@Test
+	public final void form_digest_is_renewed_without_signing_in_again()
+		throws Exception
+	{
+		assertEquals(tokenHelper.getFormDigestValue(), "digest-1");
+		assertEquals(tokenHelper.getCookies().get(0), "FedAuth=gen-1");
+
+		Thread.sleep(1200);
+		// the current digest is still valid, the new one is requested in background
+		assertEquals(tokenHelper.getFormDigestValue(), "digest-1");
+		await(() -> "digest-2".equals(tokenHelper.getFormDigestValue()));
+		assertEquals(signIns.get(), 1);
+		assertEquals(tokenHelper.getCookies().get(0), "FedAuth=gen-1");
+	}
+
+	@Test
+	public final void signs_in_again_when_the_cookies_are_rejected()
+		throws Exception
+	{
+		rejectCookies.set(true);
+		Thread.sleep(1200);
+		tokenHelper.getFormDigestValue();
+		await(() -> signIns.get() == 2 && "FedAuth=gen-2".equals(tokenHelper.getCookies().get(0)));
+		assertEquals(tokenHelper.getFormDigestValue(), "digest-2");
+	}
+
+	@Test(timeOut = 20000)
+	public final void rejected_session_is_renewed_while_the_digest_has_expired()
+		throws Exception
+	{
+		// digests of 31 seconds are valid for 1 second, and only renewed once expired
+		digestTimeout = 31;
+		tokenHelper.setFormDigestRefreshAhead(Duration.ZERO);
+		tokenHelper.init();
+		rejectCookies.set(true);
+		Thread.sleep(1200);
+
+		// the renewal of the expired digest signs in again while a rejected request does the same
+		final ExecutorService workers = Executors.newSingleThreadExecutor();
+		try
+		{
+			assertTrue(workers.submit(() -> tokenHelper.renewRejectedSession(tokenHelper.getSignInGeneration())).get(10, TimeUnit.SECONDS));
+			assertTrue(tokenHelper.getFormDigestValue().startsWith("digest-"));
+		}
+		finally
+		{
+			workers.shutdownNow();
+		}
+		assertEquals(signIns.get(), 3);
+		assertEquals(tokenHelper.getCookies().get(0), "FedAuth=gen-3");
+	}
+
+	@Test
+	public final void restarted_helper_reuses_the_stored_session()
+		throws Exception
+	{
+		final Path directory = Files.createTempDirectory("credentials");
+		final Path file = directory.resolve("credentials.bin");
+		try
+		{
+			final CredentialStore store = new FileCredentialStore(file, FileCredentialStore.generateKey());
+			newTokenHelper(store).init();
+			assertEquals(signIns.get(), 2);
+			assertEquals(digests.get(), 2);
+
+			// valid digest: no request at all
+			final AuthTokenHelperOnline restarted = newTokenHelper(store);
+			restarted.init();
+			assertEquals(signIns.get(), 2);
+			assertEquals(digests.get(), 2);
+			assertEquals(restarted.getFormDigestValue(), "digest-2");
+			assertEquals(restarted.getCookies().get(0), "FedAuth=gen-2");
+
+			// expired digest: only a new digest for the stored cookies
+			final String key = "session|127.0.0.1:" + server.getAddress().getPort() + "|user|" + CloudTokenForClientIdGetter.fingerprint("passwd");
+			final CredentialStore.Entry entry = store.load(key);
+			store.save(key, new CredentialStore.Entry(new JSONObject(entry.getValue()).put("formDigestExpiresAt", 0).toString(), entry.getExpiresAt()));
+			final AuthTokenHelperOnline renewed = newTokenHelper(store);
+			renewed.init();
+			assertEquals(signIns.get(), 2);
+			assertEquals(renewed.getFormDigestValue(), "digest-3");
+			assertEquals(renewed.getCookies().get(0), "FedAuth=gen-2");
+
+			// rejected cookies: sign in again
+			store.save(key, new CredentialStore.Entry(new JSONObject(store.load(key).getValue()).put("formDigestExpiresAt", 0).toString(), Instant.now().plusSeconds(60)));
+			rejectCookies.set(true);
+			final AuthTokenHelperOnline signedIn = newTokenHelper(store);
+			signedIn.init();
+			assertEquals(signIns.get(), 3);
+			assertEquals(signedIn.getCookies().get(0), "FedAuth=gen-3");
+		}
+		finally
+		{
+			Files.deleteIfExists(file);
+			Files.deleteIfExists(directory);
+		}
+	}
+
+	@Test
+	public final void lazy_helper_signs_in_once_on_first_use()
+		throws Exception
+	{
+		final AuthTokenHelperOnline lazy = newTokenHelper(null);
+		assertEquals(signIns.get(), 1);
+
+		final ExecutorService workers = Executors.newFixedThreadPool(8);
+		final CountDownLatch startTogether = new CountDownLatch(1);
+		try
+		{
+			final List<Future<String>> results = new ArrayList<>();
+			for (int i = 0; i < 8; i++)
+			{
+				results.add(workers.submit(() ->
+				{
+					startTogether.await();
+					return lazy.getFormDigestValue();
+				}));
+			}
+			startTogether.countDown();
+			for (final Future<String> result : results)
+			{
+				assertEquals(result.get(10, TimeUnit.SECONDS), "digest-2");
+			}
+		}
+		finally
+		{
+			workers.shutdownNow();
+		}
+		assertEquals(signIns.get(), 2);
+		assertTrue(lazy.isSignedIn());
+		assertTrue(lazy.initAsync().isDone());
+	}
+
+	@Test
+	public final void background_sign_ins_run_in_parallel()
+		throws Exception
+	{
+		digestDelay = 300;
+		final List<CompletableFuture<Void>> initializations = new ArrayList<>();
+		final long start = System.nanoTime();
+		for (int i = 0; i < 8; i++)
+		{
+			initializations.add(newTokenHelper(null).initAsync());
+		}
+		CompletableFuture.allOf(initializations.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+		final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		assertEquals(signIns.get(), 9);
+		assertTrue(elapsed < 8 * 300 / 2, elapsed + " ms");
+	}
+
+	private static void await(final BooleanSupplier condition)
+		throws InterruptedException
+	{
+		for (int i = 0; i < 100 && !condition.getAsBoolean(); i++)
+		{
+			Thread.sleep(50);
+		}
+		assertTrue(condition.getAsBoolean());
+	}
+
+	private void handle(final HttpExchange exchange)
+		throws IOException
+	{
+		final String path = exchange.getRequestURI().getPath();
+		if (path.equals("/_forms/default.aspx"))
+		{
+			final int generation = signIns.incrementAndGet();
+			rejectCookies.set(false);
+			exchange.getResponseHeaders().add("Set-Cookie", "FedAuth=gen-" + generation);
+			reply(exchange, 200, "");
+		}
+		else if (path.equals("/_api/contextinfo") && rejectCookies.get())
+		{
+			reply(exchange, 403, "{}");
+		}
+		else if (path.equals("/_api/contextinfo"))
+		{
+			sleep(digestDelay);
+			reply(exchange, 200, "{\"d\":{\"GetContextWebInformation\":{\"FormDigestValue\":\"digest-" + digests.incrementAndGet()
+				+ "\",\"FormDigestTimeoutSeconds\":" + digestTimeout + "}}}");
+		}
+		else
+		{
+			reply(exchange, 404, "");
+		}
+	}
+
+	private static void sleep(final long millis)
+	{
+		try
+		{
+			Thread.sleep(millis);
+		}
+		catch (final InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void reply(final HttpExchange exchange, final int status, final String body)
+		throws IOException
+	{
+		final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().add("Content-Type", "application/json;odata=verbose;charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+		exchange.getResponseBody().write(bytes);
+		exchange.close();
+	}
+}
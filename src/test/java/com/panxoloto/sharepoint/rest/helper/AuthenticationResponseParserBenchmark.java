@@ -0,0 +1,92 @@
+package com.panxoloto.sharepoint.rest.helper;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Callable;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Document;
+
+import jakarta.xml.soap.MessageFactory;
+import jakarta.xml.soap.SOAPConstants;
+import jakarta.xml.soap.SOAPMessage;
+
+/**
+ * Latency and allocation of the extraction of the token of a sign in response: SOAP message as before (when
+ * a SAAJ implementation is available), DOM document, the lower bound of any SOAP message, and the streaming
+ * parser. Run with <code>java -cp target/test-classes:target/classes:&lt;deps&gt;
+ * com.panxoloto.sharepoint.rest.helper.AuthenticationResponseParserBenchmark</code>.
+ */
+public class AuthenticationResponseParserBenchmark
+{
+	private static final int ROUNDS = 5;
+	private static final int CALLS = 20_000;
+
+	public static void main(final String[] args)
+		throws Exception
+	{
+		final String response = EnvelopParserTest.charsUtf8("com/panxoloto/sharepoint/rest/helper/authentication-success-response.xml");
+		final DocumentBuilderFactory documentFactory = DocumentBuilderFactory.newInstance();
+		documentFactory.setNamespaceAware(true);
+		final boolean saaj = saajAvailable(response);
+
+		for (int round = 0; round < ROUNDS; round++)
+		{
+			if (saaj)
+			{
+				measure("SOAP message", () ->
+				{
+					try (final InputStream is = new ByteArrayInputStream(response.getBytes(AuthenticationResponseParser.utf8)))
+					{
+						final SOAPMessage message = MessageFactory.newInstance(SOAPConstants.SOAP_1_2_PROTOCOL).createMessage(null, is);
+						return message.getSOAPBody().getElementsByTagNameNS(AuthenticationResponseParser.binarySecurityTokenName.getNamespaceURI(),
+							AuthenticationResponseParser.binarySecurityTokenName.getLocalPart()).item(0).getTextContent();
+					}
+				});
+			}
+			measure("DOM document", () ->
+			{
+				try (final InputStream is = new ByteArrayInputStream(response.getBytes(AuthenticationResponseParser.utf8)))
+				{
+					final Document document = documentFactory.newDocumentBuilder().parse(is);
+					return document.getElementsByTagNameNS(AuthenticationResponseParser.binarySecurityTokenName.getNamespaceURI(),
+						AuthenticationResponseParser.binarySecurityTokenName.getLocalPart()).item(0).getTextContent();
+				}
+			});
+			measure("streaming", () -> AuthenticationResponseParser.parseAuthenticationResponse(response));
+		}
+	}
+
+	private static boolean saajAvailable(final String response)
+	{
+		try (final InputStream is = new ByteArrayInputStream(response.getBytes(AuthenticationResponseParser.utf8)))
+		{
+			MessageFactory.newInstance(SOAPConstants.SOAP_1_2_PROTOCOL).createMessage(null, is).getSOAPBody();
+			return true;
+		}
+		catch (final Exception | LinkageError e)
+		{
+			System.out.println("SOAP message skipped, no usable SAAJ implementation: " + e);
+			return false;
+		}
+	}
+
+	private static void measure(final String name, final Callable<String> parse)
+		throws Exception
+	{
+		final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		final long thread = Thread.currentThread().getId();
+		long sink = 0;
+		final long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+		final long start = System.nanoTime();
+		for (int i = 0; i < CALLS; i++)
+		{
+			sink += parse.call().length();
+		}
+		final long elapsed = System.nanoTime() - start;
+		final long allocated = threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+		System.out.printf("%-13s %7d ns/op %8d bytes/op (%d)%n", name, elapsed / CALLS, allocated / CALLS, sink);
+	}
+}
@@ -0,0 +1,128 @@
+package com.panxoloto.sharepoint.rest.helper;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.expectThrows;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.testng.annotations.Test;
+
+public class CloudTokenCacheTest
+{
+	@Test
+	public final void getters_of_the_same_tenant_and_app_share_a_token()
+	{
+		final CloudTokenCache cache = new CloudTokenCache();
+		final CloudTokenForClientIdGetter siteA = getter(cache, "https://contoso.sharepoint.com/sites/a", "secret");
+		final CloudTokenForClientIdGetter siteB = getter(cache, "https://contoso.sharepoint.com/sites/b", "secret");
+		final CloudTokenForClientIdGetter otherSecret = getter(cache, "https://contoso.sharepoint.com/sites/a", "other");
+		final CloudTokenForClientIdGetter otherTenant = getter(cache, "https://fabrikam.sharepoint.com/sites/a", "secret");
+
+		assertSame(siteA.token(), siteB.token());
+		assertNotSame(siteA.token(), otherSecret.token());
+		assertNotSame(siteA.token(), otherTenant.token());
+		assertEquals(cache.size(), 3);
+
+		final CloudTokenForClientIdGetter ownCache = getter(new CloudTokenCache(), "https://contoso.sharepoint.com/sites/a", "secret");
+		assertNotSame(siteA.token(), ownCache.token());
+
+		// a setting of the shared token applies to every getter
+		siteA.setRefreshAhead(Duration.ofMinutes(10));
+		assertEquals(siteB.getRefreshAhead(), Duration.ofMinutes(10));
+	}
+
+	@Test
+	public final void realm_is_discovered_once_and_failures_are_not_kept()
+		throws Exception
+	{
+		final CloudTokenCache cache = new CloudTokenCache();
+		final IOException failure = new IOException("unreachable");
+		assertSame(expectThrows(IOException.class, () -> cache.realm("contoso.sharepoint.com", () ->
+		{
+			throw failure;
+		})), failure);
+
+		final AtomicInteger discoveries = new AtomicInteger();
+		final CountDownLatch startTogether = new CountDownLatch(1);
+		final ExecutorService workers = Executors.newFixedThreadPool(8);
+		try
+		{
+			final List<Future<CloudTokenCache.Realm>> results = new ArrayList<>();
+			for (int i = 0; i < 8; i++)
+			{
+				results.add(workers.submit(() ->
+				{
+					startTogether.await();
+					return cache.realm("contoso.sharepoint.com", () ->
+					{
+						discoveries.incrementAndGet();
+						Thread.sleep(50);
+						return new CloudTokenCache.Realm("realm", "principal");
+					});
+				}));
+			}
+			startTogether.countDown();
+			for (final Future<CloudTokenCache.Realm> result : results)
+			{
+				assertEquals(result.get(10, TimeUnit.SECONDS).realm, "realm");
+			}
+		}
+		finally
+		{
+			workers.shutdownNow();
+		}
+		assertEquals(discoveries.get(), 1);
+	}
+
+	@Test(timeOut = 10000)
+	public final void slow_realm_discovery_does_not_block_the_cache()
+		throws Exception
+	{
+		final CloudTokenCache cache = new CloudTokenCache();
+		final CountDownLatch discovering = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final ExecutorService workers = Executors.newSingleThreadExecutor();
+		try
+		{
+			final Future<CloudTokenCache.Realm> slow = workers.submit(() -> cache.realm("contoso.sharepoint.com", () ->
+			{
+				discovering.countDown();
+				release.await();
+				throw new IOException("unreachable");
+			}));
+			discovering.await();
+
+			// other hosts and the cache itself are not locked meanwhile
+			assertEquals(cache.realm("fabrikam.sharepoint.com", () -> new CloudTokenCache.Realm("other", "principal")).realm, "other");
+			cache.clear();
+
+			release.countDown();
+			assertEquals(expectThrows(ExecutionException.class, () -> slow.get(5, TimeUnit.SECONDS)).getCause().getMessage(), "unreachable");
+			assertEquals(cache.realm("contoso.sharepoint.com", () -> new CloudTokenCache.Realm("realm", "principal")).realm, "realm");
+		}
+		finally
+		{
+			workers.shutdownNow();
+		}
+	}
+
+	private static CloudTokenForClientIdGetter getter(final CloudTokenCache cache, final String siteUrl, final String secret)
+	{
+		final CloudTokenForClientIdGetter getter = new CloudTokenForClientIdGetter("client", secret, siteUrl, HttpClients::custom);
+		getter.setTokenCache(cache);
+		return getter;
+	}
+}
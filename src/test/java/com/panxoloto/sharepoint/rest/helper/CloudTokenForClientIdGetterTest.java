@@ -0,0 +1,96 @@
+package com.panxoloto.sharepoint.rest.helper;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.io.entity.StringEntity;
+import org.apache.hc.core5.http.message.BasicClassicHttpResponse;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class CloudTokenForClientIdGetterTest
+{
+	private final AtomicInteger builds = new AtomicInteger();
+	private final AtomicInteger realmRequests = new AtomicInteger();
+	private final AtomicInteger tokenRequests = new AtomicInteger();
+	private CloudTokenCache cache;
+
+	@BeforeMethod
+	public final void setUp()
+	{
+		builds.set(0);
+		realmRequests.set(0);
+		tokenRequests.set(0);
+		cache = new CloudTokenCache();
+	}
+
+	@Test
+	public final void one_http_client_for_every_token_request()
+		throws Exception
+	{
+		final CloudTokenForClientIdGetter getter = getter("https://contoso.sharepoint.com/sites/a");
+		assertEquals(getter.getToken(), "token-1");
+		getter.invalidateToken();
+		assertEquals(getter.getToken(), "token-2");
+
+		assertEquals(builds.get(), 1);
+		assertEquals(realmRequests.get(), 1);
+		assertEquals(getter.getRefreshCount(), 2);
+		assertTrue(getter.getLastRefreshDuration().toNanos() > 0);
+		assertTrue(getter.getTotalRefreshTime().compareTo(getter.getLastRefreshDuration()) >= 0);
+
+		getter.close();
+		expectThrows(IllegalStateException.class, getter::getToken);
+	}
+
+	@Test
+	public final void shared_token_is_renewed_by_a_getter_still_open()
+		throws Exception
+	{
+		final CloudTokenForClientIdGetter first = getter("https://contoso.sharepoint.com/sites/a");
+		final CloudTokenForClientIdGetter second = getter("https://contoso.sharepoint.com/sites/b");
+		assertEquals(first.getToken(), "token-1");
+		assertEquals(second.getToken(), "token-1");
+
+		first.close();
+		second.invalidateToken();
+		assertEquals(second.getToken(), "token-2");
+		assertEquals(tokenRequests.get(), 2);
+		assertEquals(second.getRefreshCount(), 1);
+		second.close();
+	}
+
+	private CloudTokenForClientIdGetter getter(final String siteUrl)
+	{
+		final CloudTokenForClientIdGetter getter = new CloudTokenForClientIdGetter("client", "secret", siteUrl, this::stubClient);
+		getter.setTokenCache(cache);
+		return getter;
+	}
+
+	/**
+	 * @return a client answering the realm discovery and token requests without any connection.
+	 */
+	private HttpClientBuilder stubClient()
+	{
+		builds.incrementAndGet();
+		return HttpClients.custom().addExecInterceptorFirst("stub", (request, scope, chain) ->
+		{
+			if (request.getPath().endsWith("/_vti_bin/client.svc/"))
+			{
+				realmRequests.incrementAndGet();
+				final BasicClassicHttpResponse response = new BasicClassicHttpResponse(401);
+				response.addHeader("WWW-Authenticate", "Bearer realm=\"realm-id\",client_id=\"principal-id\",trusted_issuers=\"issuer\"");
+				return response;
+			}
+			final BasicClassicHttpResponse response = new BasicClassicHttpResponse(200);
+			response.setEntity(new StringEntity("{\"access_token\":\"token-" + tokenRequests.incrementAndGet() + "\",\"expires_in\":\"3600\"}", ContentType.APPLICATION_JSON));
+			return response;
+		});
+	}
+}
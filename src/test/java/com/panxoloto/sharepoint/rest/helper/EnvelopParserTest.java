@@ -1,4 +1,8 @@
 package com.panxoloto.sharepoint.rest.helper;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
+
 import java.io.CharArrayWriter;
 import java.io.IOException;
 import java.io.InputStream;
@@ -48,6 +52,40 @@ public class EnvelopParserTest
 		assert "t=TOKENp=".equals(token);
 	}
 	
+	@Test
+	public final void soapTest_fault_code_and_detail()
+		throws Exception
+	{
+		final String response = charsUtf8("com/panxoloto/sharepoint/rest/helper/authentication-error-response.xml");
+		final AuthenticationException e = expectThrows(AuthenticationException.class, () -> AuthenticationResponseParser.parseAuthenticationResponse(response));
+		assertEquals(e.faultCode, "wst:FailedAuthentication");
+		assertTrue(e.faultDetail.startsWith("AADSTS50126"), e.faultDetail);
+	}
+
+	@Test
+	(
+		expectedExceptions = AuthenticationException.class,
+		expectedExceptionsMessageRegExp = "Authentication response does not contain mandatory element .*BinarySecurityToken"
+	)
+	public final void soapTest_without_token()
+		throws Exception
+	{
+		AuthenticationResponseParser.parseAuthenticationResponse("<S:Envelope xmlns:S=\"" + soapEnvelopeNamespace + "\"><S:Body/></S:Envelope>");
+	}
+
+	@Test
+	(
+		expectedExceptions = AuthenticationException.class,
+		expectedExceptionsMessageRegExp = "Could not parse authentication response : .*"
+	)
+	public final void soapTest_external_entity_is_not_resolved()
+		throws Exception
+	{
+		AuthenticationResponseParser.parseAuthenticationResponse("<!DOCTYPE e [<!ENTITY x SYSTEM \"file:///etc/passwd\">]>"
+			+ "<S:Envelope xmlns:S=\"" + soapEnvelopeNamespace + "\"><S:Body><wsse:BinarySecurityToken xmlns:wsse=\""
+			+ AuthenticationResponseParser.binarySecurityTokenName.getNamespaceURI() + "\">&x;</wsse:BinarySecurityToken></S:Body></S:Envelope>");
+	}
+
 	public static String charsUtf8(	final String resource ) 
 		throws IOException
 	{
@@ -0,0 +1,74 @@
+package com.panxoloto.sharepoint.rest.helper;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+
+import javax.crypto.SecretKey;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class FileCredentialStoreTest
+{
+	private Path directory;
+	private Path file;
+
+	@BeforeMethod
+	public final void setUp()
+		throws Exception
+	{
+		directory = Files.createTempDirectory("credentials");
+		file = directory.resolve("credentials.bin");
+	}
+
+	@AfterMethod
+	public final void tearDown()
+		throws Exception
+	{
+		Files.deleteIfExists(file);
+		Files.deleteIfExists(directory);
+	}
+
+	@Test
+	public final void credentials_survive_a_restart_encrypted()
+		throws Exception
+	{
+		final SecretKey key = FileCredentialStore.generateKey();
+		final Instant expiresAt = Instant.now().plus(Duration.ofHours(1));
+		new FileCredentialStore(file, key).save("session|contoso", new CredentialStore.Entry("FedAuth=secret-cookie", expiresAt));
+		new FileCredentialStore(file, key).save("expired", new CredentialStore.Entry("old", Instant.now().minusSeconds(1)));
+
+		final FileCredentialStore restarted = new FileCredentialStore(file, key);
+		final CredentialStore.Entry entry = restarted.load("session|contoso");
+		assertEquals(entry.getValue(), "FedAuth=secret-cookie");
+		assertEquals(entry.getExpiresAt(), Instant.ofEpochMilli(expiresAt.toEpochMilli()));
+		assertNull(restarted.load("expired"));
+		assertNull(restarted.load("missing"));
+		assertFalse(new String(Files.readAllBytes(file), StandardCharsets.ISO_8859_1).contains("secret-cookie"));
+
+		restarted.remove("session|contoso");
+		assertNull(new FileCredentialStore(file, key).load("session|contoso"));
+	}
+
+	@Test
+	public final void file_of_another_key_is_ignored()
+		throws Exception
+	{
+		final Instant expiresAt = Instant.now().plus(Duration.ofHours(1));
+		new FileCredentialStore(file, "passphrase".toCharArray()).save("token", new CredentialStore.Entry("value", expiresAt));
+		assertEquals(new FileCredentialStore(file, "passphrase".toCharArray()).load("token").getValue(), "value");
+
+		final FileCredentialStore other = new FileCredentialStore(file, "other".toCharArray());
+		assertNull(other.load("token"));
+		other.save("token", new CredentialStore.Entry("other value", expiresAt));
+		assertEquals(new FileCredentialStore(file, "other".toCharArray()).load("token").getValue(), "other value");
+	}
+}
@@ -0,0 +1,84 @@
+package com.panxoloto.sharepoint.rest.helper;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.expectThrows;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.util.LinkedMultiValueMap;
+import org.testng.annotations.Test;
+
+public class HeadersHelperTest
+{
+	private static final class SessionStub
+		extends AuthTokenHelperOnline
+	{
+		private volatile List<String> cookies = Arrays.asList("FedAuth=a", "rtFa=b");
+		private volatile String digest = "digest-1";
+
+		private SessionStub()
+		{
+			super(false, null, "user", "passwd", "localhost", "/sites/site");
+		}
+
+		@Override
+		public List<String> getCookies()
+		{
+			return cookies;
+		}
+
+		@Override
+		public String getFormDigestValue()
+		{
+			return digest;
+		}
+	}
+
+	@Test
+	public final void templates_are_reused_until_the_session_changes()
+	{
+		final SessionStub session = new SessionStub();
+		final HeadersHelper helper = new HeadersHelper(session);
+
+		final HttpHeaders post = helper.getPostHeadersTemplate();
+		assertSame(helper.getPostHeadersTemplate(), post);
+		assertEquals(post.getFirst("Cookie"), "FedAuth=a;rtFa=b");
+		assertEquals(post.getFirst("Authorization"), "Bearer digest-1");
+		assertNull(post.getFirst("Content-length"));
+		assertEquals(helper.getGetHeadersTemplate(false).getFirst("X-RequestDigest"), "digest-1");
+		expectThrows(UnsupportedOperationException.class, () -> post.add("Prefer", "x"));
+
+		session.digest = "digest-2";
+		final HttpHeaders renewed = helper.getPostHeadersTemplate();
+		assertNotSame(renewed, post);
+		assertEquals(renewed.getFirst("Authorization"), "Bearer digest-2");
+		assertSame(helper.getPostHeadersTemplate(), renewed);
+
+		session.cookies = Arrays.asList("FedAuth=c");
+		assertEquals(helper.getDeleteHeadersTemplate().getFirst("Cookie"), "FedAuth=c");
+
+		helper.setMetadata(ODataMetadata.NONE);
+		assertEquals(helper.getUpdateHeadersTemplate().getFirst("Accept"), ODataMetadata.NONE.getMediaType());
+	}
+
+	@Test
+	public final void mutable_headers_are_independent_copies()
+	{
+		final HeadersHelper helper = new HeadersHelper(new SessionStub());
+
+		final LinkedMultiValueMap<String, String> first = helper.getUpdateHeaders();
+		first.remove("IF-Match");
+		first.add("Accept", "text/plain");
+
+		final LinkedMultiValueMap<String, String> second = helper.getUpdateHeaders();
+		assertEquals(second.getFirst("IF-Match"), "*");
+		assertEquals(second.get("Accept").size(), 1);
+		assertFalse(helper.getUpdateHeadersTemplate().get("Accept").contains("text/plain"));
+	}
+}
@@ -0,0 +1,70 @@
+package com.panxoloto.sharepoint.rest.helper;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.net.URI;
+
+import org.testng.annotations.Test;
+
+public class ODataQueryTest
+{
+	@Test
+	public final void queryString_contains_every_option_in_order()
+	{
+		final ODataQuery query = new ODataQuery()
+			.top(100)
+			.orderBy("Modified", false)
+			.filter("Status eq 'Open'")
+			.expand("Author")
+			.select("ID", "Title", "Author/Title");
+
+		assertEquals
+		(
+			query.toQueryString(),
+			"$select=ID%2CTitle%2CAuthor%2FTitle&$expand=Author&$filter=Status%20eq%20%27Open%27&$orderby=Modified%20desc&$top=100"
+		);
+	}
+
+	@Test
+	public final void values_are_encoded()
+	{
+		final ODataQuery query = new ODataQuery()
+			.filter("Title eq 'A&B+C=ñ#'")
+			.skipToken("Paged=TRUE&p_ID=100");
+
+		assertEquals
+		(
+			query.toQueryString(),
+			"$filter=Title%20eq%20%27A%26B%2BC%3D%C3%B1%23%27&$skiptoken=Paged%3DTRUE%26p_ID%3D100"
+		);
+	}
+
+	@Test
+	public final void empty_query_adds_nothing_to_url()
+		throws Exception
+	{
+		final AuthTokenHelperOnline helper = new AuthTokenHelperOnline(false, null, "user", "passwd", "contoso.sharepoint.com", "/sites/site");
+		assertTrue(new ODataQuery().isEmpty());
+		assertEquals
+		(
+			helper.getSharepointSiteUrl("/_api/web/lists/GetByTitle('My List')/items", new ODataQuery()),
+			new URI("https://contoso.sharepoint.com/sites/site/_api/web/lists/GetByTitle('My%20List')/items")
+		);
+		assertEquals
+		(
+			helper.getSharepointSiteUrl("/_api/web/lists/GetByTitle('My List')/items", new ODataQuery().select("ID").top(1)),
+			new URI("https://contoso.sharepoint.com/sites/site/_api/web/lists/GetByTitle('My%20List')/items?$select=ID&$top=1")
+		);
+	}
+
+	@Test
+	public final void copy_is_independent()
+	{
+		final ODataQuery query = new ODataQuery().select("ID").filter("ID gt 10");
+		final ODataQuery copy = query.copy().select("Title").filter("ID gt 20");
+
+		assertEquals(query.toQueryString(), "$select=ID&$filter=ID%20gt%2010");
+		assertEquals(copy.toQueryString(), "$select=ID%2CTitle&$filter=ID%20gt%2020");
+	}
+}
@@ -0,0 +1,38 @@
+package com.panxoloto.sharepoint.rest.helper;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import org.json.JSONObject;
+import org.testng.annotations.Test;
+
+public class ODataResponseTest
+{
+	@Test
+	public final void verbose_response()
+	{
+		final JSONObject response = new JSONObject("{\"d\":{\"results\":[{\"ID\":1},{\"ID\":2}],\"__next\":\"https://host/next\"}}");
+
+		assertEquals(ODataResponse.results(response).length(), 2);
+		assertEquals(ODataResponse.nextLink(response), "https://host/next");
+		assertEquals(ODataResponse.entity(new JSONObject("{\"d\":{\"Id\":7}}")).getInt("Id"), 7);
+	}
+
+	@Test
+	public final void light_response()
+	{
+		final JSONObject response = new JSONObject("{\"value\":[{\"ID\":1}],\"odata.nextLink\":\"https://host/next\"}");
+
+		assertEquals(ODataResponse.results(response).length(), 1);
+		assertEquals(ODataResponse.nextLink(response), "https://host/next");
+		assertEquals(ODataResponse.entity(new JSONObject("{\"Id\":7}")).getInt("Id"), 7);
+	}
+
+	@Test
+	public final void last_page_has_no_next_link()
+	{
+		assertNull(ODataResponse.nextLink(new JSONObject("{\"d\":{\"results\":[]}}")));
+		assertNull(ODataResponse.nextLink(new JSONObject("{\"value\":[]}")));
+		assertEquals(ODataResponse.results(new JSONObject("{}")).length(), 0);
+	}
+}
@@ -0,0 +1,88 @@
+package com.panxoloto.sharepoint.rest.helper;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.apache.hc.core5.pool.PoolStats;
+import org.testng.annotations.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class PooledConnectionConfigTest
+{
+	@Test
+	public final void pool_is_shared_and_bounded()
+		throws Exception
+	{
+		final CountDownLatch release = new CountDownLatch(1);
+		final HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.createContext("/", exchange ->
+		{
+			try
+			{
+				release.await(10, TimeUnit.SECONDS);
+			}
+			catch (final InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			exchange.sendResponseHeaders(200, 2);
+			exchange.getResponseBody().write("ok".getBytes());
+			exchange.close();
+		});
+		server.start();
+		final ExecutorService executor = Executors.newFixedThreadPool(10);
+		try (PooledConnectionConfig config = new PooledConnectionConfig().maxConnectionsPerRoute(4).maxConnectionsTotal(8).responseTimeout(Duration.ofSeconds(20)))
+		{
+			final String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+			final List<Future<String>> responses = new ArrayList<>();
+			for (int i = 0; i < 10; i++)
+			{
+				// every request builds its own client, all of them share the pool
+				final CloseableHttpClient client = config.httpClientBuilderSupplier().get().build();
+				responses.add(executor.submit(() -> client.execute(new HttpGet(url), response -> EntityUtils.toString(response.getEntity()))));
+			}
+
+			PoolStats stats = config.getPoolStats();
+			for (int i = 0; i < 100 && stats.getPending() < 6; i++)
+			{
+				Thread.sleep(50);
+				stats = config.getPoolStats();
+			}
+			assertEquals(stats.getLeased(), 4);
+			assertEquals(stats.getPending(), 6);
+			assertEquals(stats.getMax(), 8);
+
+			release.countDown();
+			for (final Future<String> response : responses)
+			{
+				assertEquals(response.get(20, TimeUnit.SECONDS), "ok");
+			}
+			stats = config.getPoolStats();
+			assertEquals(stats.getLeased(), 0);
+			assertTrue(stats.getAvailable() > 0 && stats.getAvailable() <= 4);
+
+			expectThrows(IllegalStateException.class, () -> config.maxConnectionsTotal(100));
+		}
+		finally
+		{
+			executor.shutdownNow();
+			server.stop(0);
+		}
+	}
+}
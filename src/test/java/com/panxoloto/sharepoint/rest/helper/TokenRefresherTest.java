@@ -0,0 +1,163 @@
+package com.panxoloto.sharepoint.rest.helper;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.expectThrows;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class TokenRefresherTest
+{
+	private static final class MutableClock
+		extends Clock
+	{
+		private volatile Instant now = Instant.parse("2026-10-17T10:00:00Z");
+
+		@Override
+		public ZoneId getZone()
+		{
+			return ZoneOffset.UTC;
+		}
+
+		@Override
+		public Clock withZone(final ZoneId zone)
+		{
+			return this;
+		}
+
+		@Override
+		public Instant instant()
+		{
+			return now;
+		}
+	}
+
+	private final MutableClock clock = new MutableClock();
+	private final AtomicInteger fetches = new AtomicInteger();
+	private ExecutorService executor;
+	private volatile CountDownLatch release;
+
+	@BeforeMethod
+	public final void setUp()
+	{
+		executor = Executors.newCachedThreadPool();
+		release = new CountDownLatch(0);
+		fetches.set(0);
+	}
+
+	@AfterMethod
+	public final void tearDown()
+	{
+		executor.shutdownNow();
+	}
+
+	private TokenRefresher<String> refresher()
+	{
+		return new TokenRefresher<>(() ->
+		{
+			release.await(10, TimeUnit.SECONDS);
+			final int n = fetches.incrementAndGet();
+			return new TokenRefresher.Expiring<>("token-" + n, clock.instant().plus(Duration.ofMinutes(60)));
+		}, Duration.ofMinutes(5), executor, clock);
+	}
+
+	@Test
+	public final void concurrent_first_calls_share_one_fetch()
+		throws Exception
+	{
+		final TokenRefresher<String> refresher = refresher();
+		release = new CountDownLatch(1);
+		final List<Future<String>> tokens = new ArrayList<>();
+		for (int i = 0; i < 20; i++)
+		{
+			tokens.add(executor.submit(refresher::get));
+		}
+		Thread.sleep(100);
+		release.countDown();
+		for (final Future<String> token : tokens)
+		{
+			assertEquals(token.get(10, TimeUnit.SECONDS), "token-1");
+		}
+		assertEquals(fetches.get(), 1);
+	}
+
+	@Test
+	public final void valid_token_is_renewed_in_background_without_blocking()
+		throws Exception
+	{
+		final TokenRefresher<String> refresher = refresher();
+		assertEquals(refresher.get(), "token-1");
+
+		clock.now = clock.now.plus(Duration.ofMinutes(50));
+		assertEquals(refresher.get(), "token-1");
+		assertEquals(fetches.get(), 1);
+
+		// inside the refresh window the current token is returned while the new one is fetched
+		release = new CountDownLatch(1);
+		clock.now = clock.now.plus(Duration.ofMinutes(6));
+		for (int i = 0; i < 10; i++)
+		{
+			assertEquals(refresher.get(), "token-1");
+		}
+		final Future<?> inFlight = refresher.refresh();
+		release.countDown();
+		inFlight.get(10, TimeUnit.SECONDS);
+		assertEquals(refresher.get(), "token-2");
+		assertEquals(fetches.get(), 2);
+	}
+
+	@Test
+	public final void expired_token_waits_for_a_new_one()
+	{
+		final TokenRefresher<String> refresher = refresher();
+		assertEquals(refresher.get(), "token-1");
+		clock.now = clock.now.plus(Duration.ofMinutes(61));
+		assertEquals(refresher.get(), "token-2");
+		refresher.invalidate();
+		assertEquals(refresher.get(), "token-3");
+	}
+
+	@Test
+	public final void failed_background_refresh_keeps_the_valid_token()
+		throws Exception
+	{
+		final AtomicInteger calls = new AtomicInteger();
+		final TokenRefresher<String> refresher = new TokenRefresher<>(() ->
+		{
+			if (calls.incrementAndGet() > 1)
+			{
+				throw new IllegalStateException("token endpoint down");
+			}
+			return new TokenRefresher.Expiring<>("token", clock.instant().plus(Duration.ofMinutes(60)));
+		}, Duration.ofMinutes(5), executor, clock);
+		assertEquals(refresher.get(), "token");
+
+		clock.now = clock.now.plus(Duration.ofMinutes(56));
+		assertEquals(refresher.get(), "token");
+		expectThrows(Exception.class, () -> refresher.refresh().get(10, TimeUnit.SECONDS));
+		final int failedCalls = calls.get();
+		// no new attempt right after a failure
+		assertEquals(refresher.get(), "token");
+		assertEquals(calls.get(), failedCalls);
+
+		clock.now = clock.now.plus(Duration.ofMinutes(5));
+		final CompletionException error = expectThrows(CompletionException.class, refresher::get);
+		assertEquals(error.getCause().getMessage(), "token endpoint down");
+	}
+}